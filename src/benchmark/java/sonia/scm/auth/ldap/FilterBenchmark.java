@@ -0,0 +1,102 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.MessageFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creation of the user and group search filters. {@link #messageFormat()} formats the group filter the way it was
+ * done before the filters were parsed into templates, as baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+
+  private static final String USER_FILTER = "(&(objectClass=person)(uid={0}))";
+  private static final String GROUP_FILTER = "(&(objectClass=groupOfUniqueNames)(|(uniqueMember={0})(memberUid={1})))";
+
+  @Param({"trillian", "tricia*(mcmillan)\\"})
+  public String username;
+
+  private String userDn;
+  private FilterTemplate userFilter;
+  private FilterTemplate groupFilter;
+
+  @Setup
+  public void setUp() {
+    userDn = "uid=" + username + ",ou=People," + LdapTestBase.BASE_DN;
+    userFilter = FilterTemplate.parse(USER_FILTER, CompiledLdapConfig.USER_FILTER_ARGUMENTS);
+    groupFilter = FilterTemplate.parse(GROUP_FILTER, CompiledLdapConfig.GROUP_FILTER_ARGUMENTS);
+  }
+
+  @Benchmark
+  public String userFilter() {
+    return userFilter.format(username);
+  }
+
+  @Benchmark
+  public String groupFilter() {
+    return groupFilter.format(userDn, username, null);
+  }
+
+  @Benchmark
+  public FilterTemplate parse() {
+    return FilterTemplate.parse(GROUP_FILTER, CompiledLdapConfig.GROUP_FILTER_ARGUMENTS);
+  }
+
+  @Benchmark
+  public String escape() {
+    StringBuilder builder = new StringBuilder(userDn.length() + 16);
+    FilterTemplate.appendEscaped(builder, userDn);
+    return builder.toString();
+  }
+
+  @Benchmark
+  public String messageFormat() {
+    return MessageFormat.format(GROUP_FILTER, escapeValue(userDn), username, "");
+  }
+
+  private static String escapeValue(String value) {
+    StringBuilder builder = new StringBuilder();
+    FilterTemplate.appendEscaped(builder, value);
+    return builder.toString();
+  }
+}
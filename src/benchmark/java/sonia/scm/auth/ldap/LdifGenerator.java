@@ -0,0 +1,410 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates a synthetic directory as ldif, e.g. to load an {@link com.unboundid.ldap.listener.InMemoryDirectoryServer}
+ * with the number of users and groups of a large installation. The output is deterministic for the same
+ * {@link Shape}.
+ * <p>
+ * The groups are arranged in chains of {@link Shape#nestingDepth} + 1 groups, each group is a member of the next
+ * group of its chain. Users are only direct members of the first group of a chain, so every membership of a user
+ * results in {@link Shape#nestingDepth} indirect memberships.
+ * <p>
+ * Usage: {@code LdifGenerator --output directory.ldif [--shape enterprise] [--users 200000] ...}, see
+ * {@link Shape#fromArguments(Map)} for the available options.
+ */
+public final class LdifGenerator {
+
+  static final String PASSWORD = "secret";
+
+  private final Shape shape;
+
+  LdifGenerator(Shape shape) {
+    this.shape = shape;
+  }
+
+  public static void main(String[] args) throws IOException {
+    Map<String, String> arguments = parseArguments(args);
+    String output = arguments.remove("output");
+    if (output == null) {
+      throw new IllegalArgumentException("--output is required");
+    }
+    Shape shape = Shape.fromArguments(arguments);
+    new LdifGenerator(shape).generate(new File(output));
+    System.out.println("generated " + shape + " to " + output);
+  }
+
+  static Map<String, String> parseArguments(String[] args) {
+    Map<String, String> arguments = new HashMap<>();
+    for (int i = 0; i < args.length; i++) {
+      if (!args[i].startsWith("--") || i + 1 >= args.length) {
+        throw new IllegalArgumentException("expected --name value, got " + args[i]);
+      }
+      arguments.put(args[i].substring(2), args[++i]);
+    }
+    return arguments;
+  }
+
+  void generate(File file) throws IOException {
+    try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+      generate(writer);
+    }
+  }
+
+  void generate(Writer output) throws IOException {
+    BufferedWriter writer = output instanceof BufferedWriter ? (BufferedWriter) output : new BufferedWriter(output);
+    Random random = new Random(shape.seed);
+    int[] roots = createChainRoots();
+    IntList[] members = new IntList[shape.groups];
+
+    writeContainers(writer);
+    for (int user = 0; user < shape.users; user++) {
+      int[] groups = selectGroups(random, roots, user < shape.heavyUsers ? shape.heavyUserGroups : shape.groupsPerUser);
+      for (int group : groups) {
+        if (members[group] == null) {
+          members[group] = new IntList();
+        }
+        members[group].add(user);
+      }
+      writeUser(writer, user, groups);
+    }
+    for (int group = 0; group < shape.groups; group++) {
+      writeGroup(writer, group, members[group]);
+    }
+    writer.flush();
+  }
+
+  /**
+   * Returns the indexes of the groups which start a chain of nested groups.
+   */
+  private int[] createChainRoots() {
+    int chainLength = shape.nestingDepth + 1;
+    int[] roots = new int[(shape.groups + chainLength - 1) / chainLength];
+    for (int i = 0; i < roots.length; i++) {
+      roots[i] = i * chainLength;
+    }
+    return roots;
+  }
+
+  private int[] selectGroups(Random random, int[] roots, int count) {
+    int n = Math.min(count, roots.length);
+    // Floyd's algorithm, to select distinct groups without shuffling all groups for every user
+    Set<Integer> selected = new HashSet<>();
+    for (int j = roots.length - n; j < roots.length; j++) {
+      int candidate = random.nextInt(j + 1);
+      if (!selected.add(roots[candidate])) {
+        selected.add(roots[j]);
+      }
+    }
+    int[] groups = new int[selected.size()];
+    int i = 0;
+    for (Integer group : selected) {
+      groups[i++] = group;
+    }
+    Arrays.sort(groups);
+    return groups;
+  }
+
+  private boolean hasParent(int group) {
+    return group % (shape.nestingDepth + 1) < shape.nestingDepth && group + 1 < shape.groups;
+  }
+
+  private void writeContainers(BufferedWriter writer) throws IOException {
+    entry(writer, shape.baseDn);
+    line(writer, "objectClass", "top");
+    line(writer, "objectClass", "domain");
+    line(writer, "dc", shape.baseDn.substring(3, shape.baseDn.indexOf(',')));
+    writer.newLine();
+
+    entry(writer, "ou=People," + shape.baseDn);
+    line(writer, "objectClass", "top");
+    line(writer, "objectClass", "organizationalUnit");
+    line(writer, "ou", "People");
+    writer.newLine();
+
+    entry(writer, "ou=Groups," + shape.baseDn);
+    line(writer, "objectClass", "top");
+    line(writer, "objectClass", "organizationalUnit");
+    line(writer, "ou", "Groups");
+    writer.newLine();
+  }
+
+  private void writeUser(BufferedWriter writer, int user, int[] groups) throws IOException {
+    String name = userName(user);
+    entry(writer, userDn(user));
+    line(writer, "objectClass", "top");
+    line(writer, "objectClass", "person");
+    line(writer, "objectClass", "organizationalPerson");
+    if (shape.schema == Schema.ACTIVE_DIRECTORY) {
+      line(writer, "objectClass", "user");
+      line(writer, "sAMAccountName", name);
+      line(writer, "displayName", "User " + user);
+      // the cn is the rdn of active directory users
+      line(writer, "cn", name);
+    } else {
+      line(writer, "objectClass", "inetOrgPerson");
+      line(writer, "uid", name);
+      line(writer, "cn", "User " + user);
+    }
+    line(writer, "sn", String.valueOf(user));
+    line(writer, "mail", name + "@hitchhiker.com");
+    line(writer, "userPassword", PASSWORD);
+    if (shape.schema == Schema.ACTIVE_DIRECTORY) {
+      for (int group : groups) {
+        line(writer, "memberOf", groupDn(group));
+      }
+    }
+    writer.newLine();
+  }
+
+  private void writeGroup(BufferedWriter writer, int group, IntList members) throws IOException {
+    boolean activeDirectory = shape.schema == Schema.ACTIVE_DIRECTORY;
+    String memberAttribute = activeDirectory ? "member" : "uniqueMember";
+    entry(writer, groupDn(group));
+    line(writer, "objectClass", "top");
+    line(writer, "objectClass", activeDirectory ? "group" : "groupOfUniqueNames");
+    line(writer, "cn", groupName(group));
+    if (activeDirectory) {
+      line(writer, "sAMAccountName", groupName(group));
+    }
+    if (members != null) {
+      for (int i = 0; i < members.size; i++) {
+        line(writer, memberAttribute, userDn(members.values[i]));
+      }
+    }
+    if (group > 0 && hasParent(group - 1)) {
+      // the previous group of the chain is nested in this group
+      line(writer, memberAttribute, groupDn(group - 1));
+    }
+    writer.newLine();
+  }
+
+  private static void entry(BufferedWriter writer, String dn) throws IOException {
+    line(writer, "dn", dn);
+  }
+
+  private static void line(BufferedWriter writer, String attribute, String value) throws IOException {
+    writer.write(attribute);
+    writer.write(": ");
+    writer.write(value);
+    writer.newLine();
+  }
+
+  String userName(int user) {
+    return String.format(Locale.ENGLISH, "user%07d", user);
+  }
+
+  String userDn(int user) {
+    String rdn = shape.schema == Schema.ACTIVE_DIRECTORY ? "cn=" : "uid=";
+    return rdn + userName(user) + ",ou=People," + shape.baseDn;
+  }
+
+  String groupName(int group) {
+    return String.format(Locale.ENGLISH, "group%06d", group);
+  }
+
+  String groupDn(int group) {
+    return "cn=" + groupName(group) + ",ou=Groups," + shape.baseDn;
+  }
+
+  /**
+   * Creates a configuration for the generated directory, which uses the filters and attributes of the schema.
+   */
+  LdapConfig configure(LdapConfig config) {
+    config.setBaseDn(shape.baseDn);
+    config.setUnitPeople("ou=People");
+    config.setUnitGroup("ou=Groups");
+    config.setAttributeNameMail("mail");
+    if (shape.schema == Schema.ACTIVE_DIRECTORY) {
+      config.setAttributeNameId("sAMAccountName");
+      config.setAttributeNameFullname("displayName");
+      config.setAttributeNameGroup("memberOf");
+      config.setSearchFilter("(&(objectClass=user)(sAMAccountName={0}))");
+      config.setSearchFilterGroup("(&(objectClass=group)(member={0}))");
+    } else {
+      config.setAttributeNameId("uid");
+      config.setAttributeNameFullname("cn");
+      config.setAttributeNameGroup(null);
+      config.setSearchFilter("(&(objectClass=inetOrgPerson)(uid={0}))");
+      config.setSearchFilterGroup("(&(objectClass=groupOfUniqueNames)(uniqueMember={0}))");
+    }
+    config.setExpandNestedGroups(shape.nestingDepth > 0);
+    config.setNestedGroupMaxDepth(Math.max(config.getNestedGroupMaxDepth(), shape.nestingDepth));
+    return config;
+  }
+
+  Shape getShape() {
+    return shape;
+  }
+
+  enum Schema {
+    /**
+     * inetOrgPerson users and groupOfUniqueNames groups
+     */
+    OPENLDAP,
+    /**
+     * users with sAMAccountName and memberOf, groups with member
+     */
+    ACTIVE_DIRECTORY
+  }
+
+  /**
+   * Size and structure of the generated directory.
+   */
+  static final class Shape {
+
+    private String baseDn = LdapTestBase.BASE_DN;
+    private Schema schema = Schema.OPENLDAP;
+    private int users = 1000;
+    private int groups = 100;
+    private int groupsPerUser = 5;
+    private int heavyUsers = 0;
+    private int heavyUserGroups = 0;
+    private int nestingDepth = 0;
+    private long seed = 42;
+
+    /**
+     * Returns a predefined shape:
+     * <ul>
+     *   <li>{@code small}: 1,000 users in 5 of 100 groups</li>
+     *   <li>{@code enterprise}: 200,000 users in 20 of 50,000 groups, nested 5 levels deep,
+     *   100 users are members of 2,000 groups</li>
+     *   <li>{@code deep}: 10,000 users in 10 of 5,000 groups, nested 20 levels deep</li>
+     * </ul>
+     */
+    static Shape preset(String name) {
+      Shape shape = new Shape();
+      switch (name) {
+        case "small":
+          return shape;
+        case "enterprise":
+          return shape.users(200_000).groups(50_000).groupsPerUser(20).heavyUsers(100, 2_000).nestingDepth(5);
+        case "deep":
+          return shape.users(10_000).groups(5_000).groupsPerUser(10).nestingDepth(20);
+        default:
+          throw new IllegalArgumentException("unknown shape " + name + ", use small, enterprise or deep");
+      }
+    }
+
+    /**
+     * Creates a shape from command line options: {@code shape} (a preset), {@code schema} (openldap or
+     * active_directory), {@code users}, {@code groups}, {@code groups-per-user}, {@code heavy-users},
+     * {@code heavy-user-groups}, {@code nesting-depth} and {@code seed}. The options are removed from the map.
+     */
+    static Shape fromArguments(Map<String, String> arguments) {
+      Shape shape = preset(take(arguments, "shape", "small"));
+      shape.schema = Schema.valueOf(take(arguments, "schema", shape.schema.name()).toUpperCase(Locale.ENGLISH));
+      shape.users = Integer.parseInt(take(arguments, "users", String.valueOf(shape.users)));
+      shape.groups = Integer.parseInt(take(arguments, "groups", String.valueOf(shape.groups)));
+      shape.groupsPerUser = Integer.parseInt(take(arguments, "groups-per-user", String.valueOf(shape.groupsPerUser)));
+      shape.heavyUsers = Integer.parseInt(take(arguments, "heavy-users", String.valueOf(shape.heavyUsers)));
+      shape.heavyUserGroups = Integer.parseInt(take(arguments, "heavy-user-groups", String.valueOf(shape.heavyUserGroups)));
+      shape.nestingDepth = Integer.parseInt(take(arguments, "nesting-depth", String.valueOf(shape.nestingDepth)));
+      shape.seed = Long.parseLong(take(arguments, "seed", String.valueOf(shape.seed)));
+      return shape;
+    }
+
+    private static String take(Map<String, String> arguments, String name, String defaultValue) {
+      String value = arguments.remove(name);
+      return value != null ? value : defaultValue;
+    }
+
+    Shape schema(Schema schema) {
+      this.schema = schema;
+      return this;
+    }
+
+    Shape users(int users) {
+      this.users = users;
+      return this;
+    }
+
+    Shape groups(int groups) {
+      this.groups = groups;
+      return this;
+    }
+
+    Shape groupsPerUser(int groupsPerUser) {
+      this.groupsPerUser = groupsPerUser;
+      return this;
+    }
+
+    Shape heavyUsers(int heavyUsers, int heavyUserGroups) {
+      this.heavyUsers = heavyUsers;
+      this.heavyUserGroups = heavyUserGroups;
+      return this;
+    }
+
+    Shape nestingDepth(int nestingDepth) {
+      this.nestingDepth = nestingDepth;
+      return this;
+    }
+
+    int getUsers() {
+      return users;
+    }
+
+    Schema getSchema() {
+      return schema;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+        Locale.ENGLISH,
+        "%s directory with %d users in %d of %d groups (%d users in %d groups), nested %d levels deep",
+        schema.name().toLowerCase(Locale.ENGLISH), users, groupsPerUser, groups, heavyUsers, heavyUserGroups,
+        nestingDepth
+      );
+    }
+  }
+
+  private static final class IntList {
+
+    private int[] values = new int[8];
+    private int size;
+
+    void add(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+  }
+}
@@ -0,0 +1,266 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import com.unboundid.ldap.sdk.LDAPException;
+import sonia.scm.store.InMemoryConfigurationStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives concurrent logins and group resolutions against a generated directory in an in-process
+ * {@link com.unboundid.ldap.listener.InMemoryDirectoryServer} and reports throughput and latency percentiles.
+ * <p>
+ * Besides the options of {@link LdifGenerator.Shape#fromArguments(Map)}, the following options are supported:
+ * {@code threads} (default 8), {@code warmup} and {@code duration} in seconds (default 10 and 30),
+ * {@code login-ratio} the share of logins of all operations (default 0.5), {@code backend} (jndi or unboundid),
+ * {@code pool} (true or false), {@code ldif} a directory for the generated ldif files (default target/load-test),
+ * which are reused for the same shape, and {@code latency} and {@code jitter} in milliseconds, which delay every bind
+ * and search of the directory (default 0) to simulate a remote server.
+ */
+public final class LoadTest {
+
+  private final LdifGenerator generator;
+  private final int threads;
+  private final long warmup;
+  private final long duration;
+  private final double loginRatio;
+  private final ConnectionBackend backend;
+  private final boolean pool;
+  private final File ldifDirectory;
+  private final long latency;
+  private final long jitter;
+
+  private LoadTest(Map<String, String> arguments) {
+    this.threads = Integer.parseInt(take(arguments, "threads", "8"));
+    this.warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(take(arguments, "warmup", "10")));
+    this.duration = TimeUnit.SECONDS.toNanos(Long.parseLong(take(arguments, "duration", "30")));
+    this.loginRatio = Double.parseDouble(take(arguments, "login-ratio", "0.5"));
+    this.backend = ConnectionBackend.valueOf(take(arguments, "backend", "jndi").toUpperCase(Locale.ENGLISH));
+    this.pool = Boolean.parseBoolean(take(arguments, "pool", "true"));
+    this.ldifDirectory = new File(take(arguments, "ldif", "target/load-test"));
+    this.latency = Long.parseLong(take(arguments, "latency", "0"));
+    this.jitter = Long.parseLong(take(arguments, "jitter", "0"));
+    this.generator = new LdifGenerator(LdifGenerator.Shape.fromArguments(arguments));
+    if (!arguments.isEmpty()) {
+      throw new IllegalArgumentException("unknown options " + arguments.keySet());
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    new LoadTest(LdifGenerator.parseArguments(args)).run();
+  }
+
+  private static String take(Map<String, String> arguments, String name, String defaultValue) {
+    String value = arguments.remove(name);
+    return value != null ? value : defaultValue;
+  }
+
+  private void run() throws IOException, LDAPException, InterruptedException {
+    File ldif = generateLdif();
+    try (FaultInjectingDirectoryServer directory = FaultInjectingDirectoryServer.start()) {
+      long start = System.nanoTime();
+      directory.ldif(ldif);
+      System.out.printf(
+        Locale.ENGLISH, "loaded %d entries in %d s%n",
+        directory.getServer().countEntries(), TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start)
+      );
+      directory.delay(FaultInjectingDirectoryServer.Operation.BIND, latency, jitter);
+      directory.delay(FaultInjectingDirectoryServer.Operation.SEARCH, latency, jitter);
+
+      LdapConfig config = generator.configure(directory.createConfig());
+      config.setConnectionBackend(backend);
+      config.setConnectionPoolEnabled(pool);
+      config.setConnectionPoolMaxSize(Math.max(config.getConnectionPoolMaxSize(), threads));
+      LdapConfigStore configStore = new LdapConfigStore(new InMemoryConfigurationStore<>());
+      configStore.set(config);
+
+      PooledLdapConnectionFactory connectionFactory = new PooledLdapConnectionFactory();
+      try {
+        LdapAuthenticator authenticator = new LdapAuthenticator(
+          configStore.getCompiled(), connectionFactory, null,
+          new LdapGroupResolver(configStore, connectionFactory, new LdapUnknownUserCache(), null)
+        );
+        LdapGroupResolver groupResolver = new LdapGroupResolver(configStore, connectionFactory, new LdapUnknownUserCache(), null);
+
+        System.out.printf(Locale.ENGLISH, "warmup for %d s%n", TimeUnit.NANOSECONDS.toSeconds(warmup));
+        drive(authenticator, groupResolver, warmup);
+        System.out.printf(Locale.ENGLISH, "measure %d threads for %d s%n", threads, TimeUnit.NANOSECONDS.toSeconds(duration));
+        List<Worker> workers = drive(authenticator, groupResolver, duration);
+        report(workers);
+      } finally {
+        connectionFactory.clear();
+      }
+    }
+  }
+
+  private File generateLdif() throws IOException {
+    LdifGenerator.Shape shape = generator.getShape();
+    File file = new File(ldifDirectory, Integer.toHexString(shape.toString().hashCode()) + ".ldif");
+    if (file.exists()) {
+      System.out.println("reuse " + file + " with " + shape);
+    } else {
+      if (!ldifDirectory.exists() && !ldifDirectory.mkdirs()) {
+        throw new IOException("could not create " + ldifDirectory);
+      }
+      System.out.println("generate " + shape + " to " + file);
+      File temp = new File(ldifDirectory, file.getName() + ".tmp");
+      generator.generate(temp);
+      if (!temp.renameTo(file)) {
+        throw new IOException("could not rename " + temp + " to " + file);
+      }
+    }
+    return file;
+  }
+
+  private List<Worker> drive(LdapAuthenticator authenticator, LdapGroupResolver groupResolver, long nanos)
+    throws InterruptedException {
+    long deadline = System.nanoTime() + nanos;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Worker> workers = new ArrayList<>();
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      Worker worker = new Worker(authenticator, groupResolver, deadline);
+      workers.add(worker);
+      futures.add(executor.submit(worker));
+    }
+    executor.shutdown();
+    if (!executor.awaitTermination(nanos + TimeUnit.MINUTES.toNanos(1), TimeUnit.NANOSECONDS)) {
+      futures.forEach(future -> future.cancel(true));
+      throw new IllegalStateException("workers did not finish in time");
+    }
+    return workers;
+  }
+
+  private void report(List<Worker> workers) {
+    Latencies logins = new Latencies();
+    Latencies resolutions = new Latencies();
+    long errors = 0;
+    for (Worker worker : workers) {
+      logins.addAll(worker.logins);
+      resolutions.addAll(worker.resolutions);
+      errors += worker.errors;
+    }
+    double seconds = duration / 1_000_000_000d;
+    System.out.printf(
+      Locale.ENGLISH, "%-12s %10s %10s %10s %10s %10s %10s %10s%n",
+      "operation", "ops", "ops/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"
+    );
+    logins.print("login", seconds);
+    resolutions.print("groups", seconds);
+    System.out.printf(Locale.ENGLISH, "errors: %d%n", errors);
+  }
+
+  private final class Worker implements Runnable {
+
+    private final LdapAuthenticator authenticator;
+    private final LdapGroupResolver groupResolver;
+    private final long deadline;
+    private final Latencies logins = new Latencies();
+    private final Latencies resolutions = new Latencies();
+    private long errors;
+
+    private Worker(LdapAuthenticator authenticator, LdapGroupResolver groupResolver, long deadline) {
+      this.authenticator = authenticator;
+      this.groupResolver = groupResolver;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public void run() {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      int users = generator.getShape().getUsers();
+      long now = System.nanoTime();
+      while (now < deadline) {
+        String username = generator.userName(random.nextInt(users));
+        boolean login = random.nextDouble() < loginRatio;
+        try {
+          if (login) {
+            if (!authenticator.authenticate(username, LdifGenerator.PASSWORD).isPresent()) {
+              errors++;
+            }
+          } else {
+            groupResolver.resolve(username);
+          }
+        } catch (LdapException ex) {
+          errors++;
+        }
+        long end = System.nanoTime();
+        (login ? logins : resolutions).add(end - now);
+        now = end;
+      }
+    }
+  }
+
+  /**
+   * Recorded latencies in nanoseconds.
+   */
+  private static final class Latencies {
+
+    private long[] values = new long[1024];
+    private int size;
+
+    void add(long nanos) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = nanos;
+    }
+
+    void addAll(Latencies other) {
+      for (int i = 0; i < other.size; i++) {
+        add(other.values[i]);
+      }
+    }
+
+    void print(String operation, double seconds) {
+      long[] sorted = Arrays.copyOf(values, size);
+      Arrays.sort(sorted);
+      System.out.printf(
+        Locale.ENGLISH, "%-12s %10d %10.1f %10.2f %10.2f %10.2f %10.2f %10.2f%n",
+        operation, size, size / seconds, millis(sorted, 0.5), millis(sorted, 0.9), millis(sorted, 0.99),
+        millis(sorted, 0.999), millis(sorted, 1)
+      );
+    }
+
+    private static double millis(long[] sorted, double percentile) {
+      if (sorted.length == 0) {
+        return 0;
+      }
+      int index = (int) Math.ceil(percentile * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1_000_000d;
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import com.unboundid.ldap.sdk.LDAPException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import sonia.scm.store.InMemoryConfigurationStore;
+import sonia.scm.user.User;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trips of logins and group resolutions against an in-process directory, with and without connection pool and
+ * for both connection backends. All caches are disabled, so that every operation reaches the directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoginBenchmark {
+
+  @Param({"JNDI", "UNBOUNDID"})
+  public ConnectionBackend connectionBackend;
+
+  @Param({"true", "false"})
+  public boolean connectionPoolEnabled;
+
+  private FaultInjectingDirectoryServer directory;
+  private PooledLdapConnectionFactory connectionFactory;
+  private LdapAuthenticator authenticator;
+  private LdapAuthenticator authenticatorWithGroups;
+  private LdapGroupResolver groupResolver;
+
+  @Setup(Level.Trial)
+  public void setUp() throws LDAPException, IOException {
+    directory = FaultInjectingDirectoryServer.start().ldif(3);
+
+    LdapConfig config = directory.createConfig();
+    config.setConnectionBackend(connectionBackend);
+    config.setConnectionPoolEnabled(connectionPoolEnabled);
+
+    LdapConfigStore configStore = new LdapConfigStore(new InMemoryConfigurationStore<>());
+    configStore.set(config);
+
+    connectionFactory = new PooledLdapConnectionFactory();
+    groupResolver = new LdapGroupResolver(configStore, connectionFactory, new LdapUnknownUserCache(), null);
+    authenticator = new LdapAuthenticator(configStore.getCompiled(), connectionFactory, null, null);
+    authenticatorWithGroups = new LdapAuthenticator(configStore.getCompiled(), connectionFactory, null, groupResolver);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    connectionFactory.clear();
+    directory.close();
+  }
+
+  @Benchmark
+  public Optional<User> authenticate() {
+    return authenticator.authenticate("trillian", "trilli123");
+  }
+
+  /**
+   * Login which resolves the groups together with the user search, as done by the realm.
+   */
+  @Benchmark
+  public Optional<User> authenticateWithGroups() {
+    return authenticatorWithGroups.authenticate("trillian", "trilli123");
+  }
+
+  @Benchmark
+  public Set<String> resolveGroups() {
+    return groupResolver.resolve("trillian");
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import sonia.scm.user.User;
+
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraction of group names, attribute values and users from search results.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchResultBenchmark {
+
+  private static final String GROUP_DN = "cn=HeartOfGold,ou=Groups,dc=scm-manager,dc=org";
+  private static final String ESCAPED_GROUP_DN = "cn=Restaurant\\, at the End of the Universe,ou=Groups,dc=scm-manager,dc=org";
+
+  private Attributes attributes;
+  private LdapAuthenticator authenticator;
+
+  @Setup
+  public void setUp() {
+    LdapConfig config = new LdapConfig();
+    config.setAttributeNameId("uid");
+    config.setAttributeNameFullname("cn");
+    config.setAttributeNameMail("mail");
+    authenticator = new LdapAuthenticator(config);
+
+    attributes = new BasicAttributes(true);
+    attributes.put("uid", "trillian");
+    attributes.put("cn", "Tricia McMillan");
+    attributes.put("mail", "tricia.mcmillan@hitchhiker.com");
+    BasicAttribute memberOf = new BasicAttribute("memberOf");
+    for (int i = 0; i < 20; i++) {
+      memberOf.add("cn=group" + i + ",ou=Groups,dc=scm-manager,dc=org");
+    }
+    attributes.put(memberOf);
+  }
+
+  @Benchmark
+  public String getName() {
+    return LdapUtil.getName(GROUP_DN);
+  }
+
+  @Benchmark
+  public String getNameWithEscapedComma() {
+    return LdapUtil.getName(ESCAPED_GROUP_DN);
+  }
+
+  @Benchmark
+  public String normalizeDn() {
+    return LdapUtil.normalizeDn(ESCAPED_GROUP_DN);
+  }
+
+  @Benchmark
+  public String getAttribute() {
+    return LdapUtil.getAttribute(attributes, "mail");
+  }
+
+  @Benchmark
+  public String getMissingAttribute() {
+    return LdapUtil.getAttribute(attributes, "displayName");
+  }
+
+  @Benchmark
+  public User createUser() {
+    return authenticator.createUser(attributes);
+  }
+}
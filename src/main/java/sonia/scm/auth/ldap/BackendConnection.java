@@ -0,0 +1,88 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * A single connection to a ldap server, implemented by one of the {@link ConnectionBackend}s. Errors are reported as
+ * jndi {@link NamingException}s, results as jndi {@link SearchResult}s, regardless of the backend, so that
+ * {@link LdapConnection} and everything above it does not depend on the backend.
+ */
+interface BackendConnection extends Closeable {
+
+  /**
+   * space separated names of the attributes, which are returned as byte arrays instead of strings
+   */
+  String BINARY_ATTRIBUTES = TokenGroupResolver.ATTRIBUTE_TOKEN_GROUPS + " " + TokenGroupResolver.ATTRIBUTE_OBJECT_SID;
+
+  NamingEnumeration<SearchResult> search(String name, String filter, SearchControls controls) throws NamingException;
+
+  /**
+   * Returns {@code true} if {@link #searchAsync(String, String, SearchControls, int)} sends the search without waiting
+   * for its result, so that further requests can be sent on the same connection in the meantime.
+   */
+  boolean isAsynchronous();
+
+  /**
+   * Starts a search without waiting for its result. Backends without asynchronous operations execute the search
+   * before they return an already completed future. If the search exceeds the size limit of the server, the future
+   * fails with a {@link PartialSizeLimitExceededException} with the results received until then.
+   *
+   * @param pageSize size of the pages of the paged results control, zero or less to search without paging
+   */
+  CompletableFuture<List<SearchResult>> searchAsync(String name, String filter, SearchControls controls, int pageSize);
+
+  /**
+   * Searches with the paged results control (RFC 2696) and passes the results of each page to the consumer, as soon
+   * as the page was received. Servers which do not support the control return all results on the first page.
+   */
+  void searchPaged(String name, String filter, SearchControls controls, int pageSize, Consumer<SearchResult> consumer)
+    throws NamingException;
+
+  /**
+   * Reads the root dse, to check if the server still answers.
+   */
+  void readRootDse() throws NamingException;
+
+  /**
+   * Binds the existing connection with the given credentials.
+   */
+  void bind(String dn, String password) throws NamingException;
+
+  /**
+   * Removes a previous bind by binding anonymously.
+   */
+  void bindAnonymously() throws NamingException;
+
+  @Override
+  void close();
+}
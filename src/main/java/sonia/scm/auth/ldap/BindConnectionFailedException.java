@@ -27,6 +27,10 @@ package sonia.scm.auth.ldap;
 @SuppressWarnings("squid:MaximumInheritanceDepth")
 public class BindConnectionFailedException extends LdapException {
 
+  public BindConnectionFailedException(String message) {
+    super(message);
+  }
+
   public BindConnectionFailedException(String message, Throwable cause) {
     super(message, cause);
   }
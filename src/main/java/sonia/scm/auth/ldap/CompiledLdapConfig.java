@@ -0,0 +1,198 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import sonia.scm.util.Util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable snapshot of the values which are derived from a {@link LdapConfig} on every login and group resolution:
+ * the parsed search scope, the dns of the user and group units, the parsed filter templates and the attributes of the
+ * user search. The snapshot is created by {@link LdapConfigStore} when the configuration is loaded for the first time
+ * and whenever it is stored. A stored configuration must not be modified afterwards, it is replaced as a whole.
+ * <p>
+ * Missing mandatory values do not fail the compilation, they throw a {@link ConfigurationException} when they are
+ * used, as before.
+ */
+final class CompiledLdapConfig {
+
+  /**
+   * the user filter can use the name of the user ({0})
+   */
+  static final int USER_FILTER_ARGUMENTS = 1;
+
+  /**
+   * the group filter can use the dn ({0}), the name ({1}) and the mail address ({2}) of the user
+   */
+  static final int GROUP_FILTER_ARGUMENTS = 3;
+
+  private static final String NESTEDGROUP_MATCHINGRULE = ":1.2.840.113556.1.4.1941:=";
+  private static final Pattern USER_DN_PLACEHOLDER = Pattern.compile(Pattern.quote("={0}"));
+
+  private final LdapConfig config;
+  private final String baseDn;
+
+  private final int userSearchScope;
+  private final String peopleDn;
+  private final String groupDn;
+  private final FilterTemplate userFilter;
+  private final FilterTemplate groupFilter;
+  private final String userFilterError;
+  private final String groupFilterError;
+  private final String[] loginAttributes;
+  private final String[] loginAttributesWithGroups;
+  private final String[] groupResolutionAttributes;
+
+  private CompiledLdapConfig(LdapConfig config) {
+    this.config = config;
+    this.baseDn = config.getBaseDn();
+
+    this.userSearchScope = LdapUtil.getSearchScope(config.getSearchScope());
+    this.peopleDn = createDN(config.getUnitPeople());
+    this.groupDn = createDN(config.getUnitGroup());
+    String searchFilter = config.getSearchFilter();
+    String error = null;
+    FilterTemplate filter = null;
+    try {
+      filter = Util.isNotEmpty(searchFilter) ? FilterTemplate.parse(searchFilter, USER_FILTER_ARGUMENTS) : null;
+    } catch (IllegalArgumentException ex) {
+      error = ex.getMessage();
+    }
+    this.userFilter = filter;
+    this.userFilterError = error;
+
+    error = null;
+    filter = null;
+    try {
+      filter = createGroupFilter(config);
+    } catch (IllegalArgumentException ex) {
+      error = ex.getMessage();
+    }
+    this.groupFilter = filter;
+    this.groupFilterError = error;
+    String attributeNameId = config.getAttributeNameId();
+    String attributeNameFullname = config.getAttributeNameFullname();
+    String attributeNameMail = config.getAttributeNameMail();
+    String attributeNameGroup = config.getAttributeNameGroup();
+    this.loginAttributes = attributes(attributeNameId, attributeNameFullname, attributeNameMail);
+    this.loginAttributesWithGroups = attributes(attributeNameId, attributeNameFullname, attributeNameMail, attributeNameGroup);
+    this.groupResolutionAttributes = attributes(attributeNameGroup, attributeNameMail);
+  }
+
+  static CompiledLdapConfig compile(LdapConfig config) {
+    return new CompiledLdapConfig(config);
+  }
+
+  private String createDN(String prefix) {
+    if (Util.isNotEmpty(baseDn)) {
+      if (Util.isNotEmpty(prefix)) {
+        return prefix.concat(",").concat(baseDn);
+      }
+      return baseDn;
+    }
+    return null;
+  }
+
+  private static FilterTemplate createGroupFilter(LdapConfig config) {
+    String pattern = config.getSearchFilterGroup();
+    if (Util.isEmpty(pattern)) {
+      return null;
+    }
+    if (config.isEnableNestedADGroups() && config.getNestedADGroupStrategy() == NestedADGroupStrategy.MATCHING_RULE_IN_CHAIN) {
+      pattern = USER_DN_PLACEHOLDER.matcher(pattern).replaceAll(NESTEDGROUP_MATCHINGRULE + "{0}");
+    }
+    return FilterTemplate.parse(pattern, GROUP_FILTER_ARGUMENTS);
+  }
+
+  private static String[] attributes(String... names) {
+    List<String> list = new ArrayList<>();
+    for (String name : names) {
+      if (Util.isNotEmpty(name)) {
+        list.add(name);
+      }
+    }
+    return list.toArray(new String[0]);
+  }
+
+  LdapConfig getConfig() {
+    return config;
+  }
+
+  int getUserSearchScope() {
+    return userSearchScope;
+  }
+
+  String getPeopleDn() {
+    if (peopleDn == null) {
+      throw new ConfigurationException("base dn was not configured");
+    }
+    return peopleDn;
+  }
+
+  String getGroupDn() {
+    if (groupDn == null) {
+      throw new ConfigurationException("base dn was not configured");
+    }
+    return groupDn;
+  }
+
+  FilterTemplate getUserFilter() {
+    if (userFilterError != null) {
+      throw new ConfigurationException(userFilterError);
+    }
+    if (userFilter == null) {
+      throw new ConfigurationException("search filter not defined");
+    }
+    return userFilter;
+  }
+
+  /**
+   * Returns the template of the group search filter, with the matching rule for nested active directory groups if
+   * enabled.
+   */
+  Optional<FilterTemplate> getGroupFilter() {
+    if (groupFilterError != null) {
+      throw new ConfigurationException(groupFilterError);
+    }
+    return Optional.ofNullable(groupFilter);
+  }
+
+  /**
+   * Returns the attributes for the user search of a login. The array is shared and must not be modified.
+   */
+  String[] getLoginAttributes(boolean withGroups) {
+    return withGroups ? loginAttributesWithGroups : loginAttributes;
+  }
+
+  /**
+   * Returns the attributes for the user search of a group resolution. The array is shared and must not be modified.
+   */
+  String[] getGroupResolutionAttributes() {
+    return groupResolutionAttributes;
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A search filter pattern with numbered placeholders like {@code (&(objectClass=person)(uid={0}))}, which is parsed
+ * once and is formatted without further parsing. The values are escaped as required by RFC 4515 and are written
+ * together with the literal parts of the pattern into a reusable buffer of the current thread.
+ * <p>
+ * The syntax is the subset of {@link java.text.MessageFormat} patterns, which was supported by the filters before:
+ * placeholders are written as <code>{<i>index</i>}</code>, text between single quotes is copied without
+ * interpretation and two single quotes are written as one.
+ */
+public final class FilterTemplate {
+
+  /**
+   * buffers which grew larger than this during formatting are not kept for the thread
+   */
+  private static final int MAX_BUFFER_CAPACITY = 4096;
+
+  private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+  private final String pattern;
+  private final String[] literals;
+  private final int[] placeholders;
+  private final int literalLength;
+
+  private FilterTemplate(String pattern, String[] literals, int[] placeholders) {
+    this.pattern = pattern;
+    this.literals = literals;
+    this.placeholders = placeholders;
+    int length = 0;
+    for (String literal : literals) {
+      length += literal.length();
+    }
+    this.literalLength = length;
+  }
+
+  /**
+   * Parses the pattern of a filter.
+   *
+   * @param pattern filter pattern
+   * @param arguments number of values which can be used in the pattern
+   *
+   * @throws IllegalArgumentException if the pattern is malformed or uses an unknown placeholder
+   */
+  static FilterTemplate parse(String pattern, int arguments) {
+    List<String> literals = new ArrayList<>();
+    List<Integer> placeholders = new ArrayList<>();
+    StringBuilder literal = new StringBuilder();
+    boolean quoted = false;
+    int i = 0;
+    while (i < pattern.length()) {
+      char c = pattern.charAt(i);
+      if (c == '\'') {
+        if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '\'') {
+          literal.append('\'');
+          i += 2;
+          continue;
+        }
+        quoted = !quoted;
+      } else if (c == '{' && !quoted) {
+        int end = pattern.indexOf('}', i);
+        if (end < 0) {
+          throw new IllegalArgumentException("unmatched brace in filter " + pattern);
+        }
+        placeholders.add(parseIndex(pattern, pattern.substring(i + 1, end), arguments));
+        literals.add(literal.toString());
+        literal.setLength(0);
+        i = end;
+      } else {
+        literal.append(c);
+      }
+      i++;
+    }
+    if (quoted) {
+      throw new IllegalArgumentException("unterminated quote in filter " + pattern);
+    }
+    literals.add(literal.toString());
+
+    int[] indexes = new int[placeholders.size()];
+    for (int j = 0; j < indexes.length; j++) {
+      indexes[j] = placeholders.get(j);
+    }
+    return new FilterTemplate(pattern, literals.toArray(new String[0]), indexes);
+  }
+
+  private static int parseIndex(String pattern, String placeholder, int arguments) {
+    if (placeholder.length() != 1 || !Character.isDigit(placeholder.charAt(0))) {
+      throw new IllegalArgumentException("invalid placeholder {" + placeholder + "} in filter " + pattern);
+    }
+    int index = placeholder.charAt(0) - '0';
+    if (index >= arguments) {
+      throw new IllegalArgumentException(
+        "unknown placeholder {" + placeholder + "} in filter " + pattern + ", only " + arguments + " values are available"
+      );
+    }
+    return index;
+  }
+
+  /**
+   * Returns {@code true} if the pattern is a valid filter pattern, which uses only the given number of values.
+   * Used to validate the configuration before it is stored.
+   */
+  public static boolean isValid(String pattern, int arguments) {
+    try {
+      parse(pattern, arguments);
+      return true;
+    } catch (IllegalArgumentException ex) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns {@code true} if the value with the given index is used by the filter.
+   */
+  boolean uses(int index) {
+    for (int placeholder : placeholders) {
+      if (placeholder == index) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  String format(String value) {
+    return format(value, null, null);
+  }
+
+  /**
+   * Returns the filter with the escaped values. Values which are {@code null} or are not available, are written as
+   * empty string.
+   */
+  String format(String value0, String value1, String value2) {
+    StringBuilder buffer = BUFFER.get();
+    buffer.setLength(0);
+    appendTo(buffer, value0, value1, value2);
+    String filter = buffer.toString();
+    if (buffer.capacity() > MAX_BUFFER_CAPACITY) {
+      BUFFER.remove();
+    }
+    return filter;
+  }
+
+  /**
+   * Appends the filter with the escaped values to the given builder, e.g. to combine multiple filters.
+   */
+  void appendTo(StringBuilder target, String value0, String value1, String value2) {
+    target.ensureCapacity(target.length() + literalLength + 64);
+    for (int i = 0; i < placeholders.length; i++) {
+      target.append(literals[i]);
+      appendEscaped(target, value(placeholders[i], value0, value1, value2));
+    }
+    target.append(literals[placeholders.length]);
+  }
+
+  private static String value(int index, String value0, String value1, String value2) {
+    switch (index) {
+      case 0:
+        return value0;
+      case 1:
+        return value1;
+      case 2:
+        return value2;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Escapes the characters of the value, which have a special meaning in a search filter (RFC 4515).
+   */
+  static void appendEscaped(StringBuilder target, String value) {
+    if (value == null) {
+      return;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '\\':
+          target.append("\\5c");
+          break;
+        case '*':
+          target.append("\\2a");
+          break;
+        case '(':
+          target.append("\\28");
+          break;
+        case ')':
+          target.append("\\29");
+          break;
+        case '\u0000':
+          target.append("\\00");
+          break;
+        default:
+          target.append(c);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return pattern;
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.InvalidNameException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves the dns of the group attribute of a user (e.g. memberOf) to the names of the groups, by reading the group
+ * entries. The groups are read with one search per parent entry, with an OR filter of the rdns of all groups below
+ * it, instead of one read per group. Resolved names are cached, because group names rarely change and most users
+ * share the same groups.
+ */
+class GroupNameResolver {
+
+  private static final Logger LOG = LoggerFactory.getLogger(GroupNameResolver.class);
+
+  private static final String ATTRIBUTE_GROUP_NAME = "cn";
+
+  /**
+   * maximum number of groups in the filter of one search
+   */
+  private static final int BATCH_SIZE = 100;
+
+  private final Cache<String, String> names = CacheBuilder.newBuilder()
+    .expireAfterWrite(1, TimeUnit.HOURS)
+    .maximumSize(10000)
+    .build();
+
+  /**
+   * Returns the name for each of the given group dns. Groups which could not be read are named after the first rdn of
+   * their dn.
+   */
+  Map<String, String> resolve(LdapConnection connection, Collection<String> groupDns) {
+    Map<String, String> result = new HashMap<>();
+    Map<String, List<LdapName>> uncachedByParent = new LinkedHashMap<>();
+    for (String dn : groupDns) {
+      String name = names.getIfPresent(LdapUtil.normalizeDn(dn));
+      if (name != null) {
+        result.put(dn, name);
+      } else {
+        addUncached(uncachedByParent, result, dn);
+      }
+    }
+    LOG.trace("found {} cached group names, read groups below {} parents", result.size(), uncachedByParent.size());
+    for (Map.Entry<String, List<LdapName>> entry : uncachedByParent.entrySet()) {
+      for (List<LdapName> batch : Lists.partition(entry.getValue(), BATCH_SIZE)) {
+        readNames(connection, entry.getKey(), batch, result);
+      }
+    }
+    return result;
+  }
+
+  void invalidateAll() {
+    names.invalidateAll();
+  }
+
+  private void addUncached(Map<String, List<LdapName>> uncachedByParent, Map<String, String> result, String dn) {
+    try {
+      LdapName name = new LdapName(dn);
+      if (!name.isEmpty()) {
+        String parent = name.getPrefix(name.size() - 1).toString();
+        uncachedByParent.computeIfAbsent(parent, key -> new ArrayList<>()).add(name);
+        return;
+      }
+    } catch (InvalidNameException ex) {
+      LOG.debug("could not parse group dn {}", dn, ex);
+    }
+    String fallback = LdapUtil.getName(dn);
+    names.put(LdapUtil.normalizeDn(dn), fallback);
+    result.put(dn, fallback);
+  }
+
+  private void readNames(LdapConnection connection, String parent, List<LdapName> groupDns, Map<String, String> result) {
+    Map<String, String> pending = new HashMap<>();
+    StringBuilder filter = new StringBuilder("(|");
+    for (LdapName dn : groupDns) {
+      pending.put(LdapUtil.normalizeDn(dn.toString()), dn.toString());
+      appendRdnFilter(filter, dn.getRdn(dn.size() - 1));
+    }
+    filter.append(')');
+
+    LOG.debug("read names of {} groups below {}", groupDns.size(), parent);
+    boolean complete = true;
+    try (AutoCloseableNamingEnumeration<SearchResult> enm = connection.search(parent, filter.toString(), createSearchControls())) {
+      while (enm.hasMore()) {
+        SearchResult searchResult = enm.next();
+        String dn = pending.remove(LdapUtil.normalizeDn(searchResult.getNameInNamespace()));
+        if (dn != null) {
+          String name = LdapUtil.getAttribute(searchResult.getAttributes(), ATTRIBUTE_GROUP_NAME);
+          if (name == null) {
+            name = LdapUtil.getName(dn);
+            LOG.debug("group {} has no name attribute, use {}", dn, name);
+          }
+          names.put(LdapUtil.normalizeDn(dn), name);
+          result.put(dn, name);
+        }
+      }
+    } catch (NameNotFoundException ex) {
+      LOG.debug("parent {} of {} groups does not exist", parent, pending.size());
+    } catch (NamingException ex) {
+      LOG.warn("could not read names of {} groups below {}", pending.size(), parent, ex);
+      complete = false;
+    }
+    for (Map.Entry<String, String> entry : pending.entrySet()) {
+      String fallback = LdapUtil.getName(entry.getValue());
+      LOG.debug("group {} could not be read, use {}", entry.getValue(), fallback);
+      if (complete) {
+        // the group does not exist, the name will not change until it is created
+        names.put(entry.getKey(), fallback);
+      }
+      result.put(entry.getValue(), fallback);
+    }
+  }
+
+  /**
+   * Appends a filter, which matches the rdn of a group, e.g. (cn=admins) or (&amp;(cn=admins)(ou=it)) for a multi
+   * valued rdn.
+   */
+  private static void appendRdnFilter(StringBuilder filter, Rdn rdn) {
+    StringBuilder assertions = new StringBuilder();
+    int count = 0;
+    try {
+      NamingEnumeration<? extends Attribute> attributes = rdn.toAttributes().getAll();
+      while (attributes.hasMore()) {
+        Attribute attribute = attributes.next();
+        NamingEnumeration<?> values = attribute.getAll();
+        while (values.hasMore()) {
+          assertions.append('(').append(attribute.getID()).append('=');
+          FilterTemplate.appendEscaped(assertions, String.valueOf(values.next()));
+          assertions.append(')');
+          count++;
+        }
+      }
+    } catch (NamingException ex) {
+      // the attributes of a rdn are kept in memory
+      throw new IllegalStateException("failed to read attributes of rdn " + rdn, ex);
+    }
+    if (count > 1) {
+      filter.append("(&").append(assertions).append(')');
+    } else {
+      filter.append(assertions);
+    }
+  }
+
+  private SearchControls createSearchControls() {
+    SearchControls searchControls = new SearchControls();
+    searchControls.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+    searchControls.setReturningAttributes(new String[]{ATTRIBUTE_GROUP_NAME});
+    return searchControls;
+  }
+}
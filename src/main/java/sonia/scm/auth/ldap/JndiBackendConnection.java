@@ -0,0 +1,259 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.util.Util;
+
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.SizeLimitExceededException;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import javax.naming.ldap.StartTlsRequest;
+import javax.naming.ldap.StartTlsResponse;
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * {@link BackendConnection} which uses the ldap provider of jndi.
+ */
+class JndiBackendConnection implements BackendConnection {
+
+  /**
+   * property for ldap connect timeout
+   */
+  private static final String PROPERTY_TIMEOUT_CONNECT =
+    "com.sun.jndi.ldap.connect.timeout";
+
+  /**
+   * property for ldap read timeout
+   */
+  private static final String PROPERTY_TIMEOUT_READ =
+    "com.sun.jndi.ldap.read.timeout";
+
+  /**
+   * property for attributes which are returned as byte arrays
+   */
+  private static final String PROPERTY_BINARY_ATTRIBUTES =
+    "java.naming.ldap.attributes.binary";
+
+  private static final Logger logger = LoggerFactory.getLogger(JndiBackendConnection.class);
+
+  private final LdapContext context;
+  private StartTlsResponse tls;
+
+  JndiBackendConnection(LdapConfig config, String hostUrl, int connectTimeout, int readTimeout, SSLContext sslContext,
+                        String userDN, String password) throws NamingException, IOException {
+    context = new InitialLdapContext(
+      createConnectionProperties(config, hostUrl, connectTimeout, readTimeout, userDN, password), null
+    );
+
+    try {
+      if (config.isEnableStartTls()) {
+        startTLS(config, sslContext, userDN, password);
+      }
+    } catch (NamingException | IOException ex) {
+      close();
+      throw ex;
+    }
+  }
+
+  private void startTLS(LdapConfig config, SSLContext sslContext, String userDN, String password) throws NamingException, IOException {
+    LoginDeadline.check("starttls");
+    logger.debug("send starttls request");
+
+    tls = (StartTlsResponse) context.extendedOperation(new StartTlsRequest());
+
+    if (sslContext != null) {
+      tls.negotiate(sslContext.getSocketFactory());
+    } else {
+      tls.negotiate();
+    }
+
+    // authenticate after bind
+    if (userDN != null) {
+      logger.debug("set bind credentials for dn {}", userDN);
+
+      context.addToEnvironment(Context.SECURITY_AUTHENTICATION, "simple");
+      context.addToEnvironment(Context.SECURITY_PRINCIPAL, userDN);
+
+      if (password != null) {
+        context.addToEnvironment(Context.SECURITY_CREDENTIALS, password);
+      } else {
+        logger.debug("try to bind user {} without password", userDN);
+      }
+
+      // force bind
+      logger.trace("fetch dn of {} to force bind", config.getBaseDn());
+      context.getAttributes(config.getBaseDn(), new String[]{"dn"});
+    }
+  }
+
+  @SuppressWarnings("squid:S1149") // we have to use hashtable, because it is required by jndi
+  private Hashtable<String, String> createConnectionProperties(LdapConfig config, String hostUrl, int connectTimeout,
+                                                               int readTimeout, String userDN, String password) {
+    Hashtable<String, String> ldapProperties = new Hashtable<>(11);
+
+    ldapProperties.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
+    ldapProperties.put(Context.PROVIDER_URL, hostUrl);
+
+    // apply timeout for read and connect
+    // see https://groups.google.com/d/topic/scmmanager/QTimDQM2Wfw/discussion
+    if (connectTimeout > 0) {
+      ldapProperties.put(PROPERTY_TIMEOUT_CONNECT, String.valueOf(connectTimeout));
+    }
+    if (readTimeout > 0) {
+      ldapProperties.put(PROPERTY_TIMEOUT_READ, String.valueOf(readTimeout));
+    }
+
+    if (Util.isNotEmpty(userDN) && Util.isNotEmpty(password) && !config.isEnableStartTls()) {
+      logger.debug("create context for dn {}", userDN);
+
+      ldapProperties.put(Context.SECURITY_AUTHENTICATION, "simple");
+      ldapProperties.put(Context.SECURITY_PRINCIPAL, userDN);
+      ldapProperties.put(Context.SECURITY_CREDENTIALS, password);
+    } else {
+      logger.debug("create anonymous context");
+    }
+
+    String referral = config.getReferralStrategy().getContextValue();
+
+    logger.debug("use {} as referral strategy", referral);
+
+    ldapProperties.put(Context.REFERRAL, referral);
+    ldapProperties.put("java.naming.ldap.version", "3");
+    ldapProperties.put(PROPERTY_BINARY_ATTRIBUTES, BINARY_ATTRIBUTES);
+
+    return ldapProperties;
+  }
+
+  @Override
+  public NamingEnumeration<SearchResult> search(String name, String filter, SearchControls controls) throws NamingException {
+    return context.search(name, filter, controls);
+  }
+
+  @Override
+  public boolean isAsynchronous() {
+    return false;
+  }
+
+  @Override
+  public CompletableFuture<List<SearchResult>> searchAsync(String name, String filter, SearchControls controls,
+                                                           int pageSize) {
+    CompletableFuture<List<SearchResult>> future = new CompletableFuture<>();
+    List<SearchResult> results = new ArrayList<>();
+    try {
+      if (pageSize > 0) {
+        searchPaged(name, filter, controls, pageSize, results::add);
+      } else {
+        try (AutoCloseableNamingEnumeration<SearchResult> enumeration = new AutoCloseableNamingEnumeration<>(search(name, filter, controls))) {
+          while (enumeration.hasMore()) {
+            results.add(enumeration.next());
+          }
+        }
+      }
+      future.complete(results);
+    } catch (SizeLimitExceededException ex) {
+      future.completeExceptionally(new PartialSizeLimitExceededException(ex.getMessage(), results));
+    } catch (NamingException ex) {
+      future.completeExceptionally(ex);
+    }
+    return future;
+  }
+
+  @Override
+  public void searchPaged(String name, String filter, SearchControls controls, int pageSize,
+                          Consumer<SearchResult> consumer) throws NamingException {
+    try {
+      byte[] cookie = null;
+      do {
+        context.setRequestControls(new Control[]{new PagedResultsControl(pageSize, cookie, Control.NONCRITICAL)});
+        try (AutoCloseableNamingEnumeration<SearchResult> enumeration = new AutoCloseableNamingEnumeration<>(search(name, filter, controls))) {
+          while (enumeration.hasMore()) {
+            consumer.accept(enumeration.next());
+          }
+        }
+        cookie = getCookie(context.getResponseControls());
+      } while (cookie != null && cookie.length > 0);
+    } catch (IOException ex) {
+      NamingException namingException = new NamingException("failed to create paged results control");
+      namingException.setRootCause(ex);
+      throw namingException;
+    } finally {
+      // the context is reused by the pool
+      context.setRequestControls(null);
+    }
+  }
+
+  private static byte[] getCookie(Control[] responseControls) {
+    if (responseControls != null) {
+      for (Control control : responseControls) {
+        if (control instanceof PagedResultsResponseControl) {
+          return ((PagedResultsResponseControl) control).getCookie();
+        }
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void readRootDse() throws NamingException {
+    context.getAttributes("", new String[]{"objectClass"});
+  }
+
+  @Override
+  public void bind(String dn, String password) throws NamingException {
+    context.addToEnvironment(Context.SECURITY_AUTHENTICATION, "simple");
+    context.addToEnvironment(Context.SECURITY_PRINCIPAL, dn);
+    context.addToEnvironment(Context.SECURITY_CREDENTIALS, password);
+    context.reconnect(null);
+  }
+
+  @Override
+  public void bindAnonymously() throws NamingException {
+    context.addToEnvironment(Context.SECURITY_AUTHENTICATION, "none");
+    context.removeFromEnvironment(Context.SECURITY_PRINCIPAL);
+    context.removeFromEnvironment(Context.SECURITY_CREDENTIALS);
+    context.reconnect(null);
+  }
+
+  @Override
+  public void close() {
+    LdapUtil.close(tls);
+    LdapUtil.close(context);
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.user.User;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches successful authentications, so that clients which are sending their credentials with every request (e.g.
+ * git or svn over http) do not cause a search and a bind for each request. Passwords are only stored as
+ * {@link PasswordFingerprint}. The cache is cleared whenever the configuration is stored.
+ */
+@Singleton
+class LdapAuthenticationCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(LdapAuthenticationCache.class);
+
+  private Cache<String, Entry> cache;
+  private int ttl = -1;
+  private int maxEntries = -1;
+
+  @Inject
+  LdapAuthenticationCache(LdapConfigStore configStore) {
+    configStore.addChangeListener(config -> invalidateAll());
+  }
+
+  @VisibleForTesting
+  LdapAuthenticationCache() {
+  }
+
+  Optional<User> get(LdapConfig config, String username, char[] password) {
+    if (!config.isAuthenticationCacheEnabled()) {
+      return Optional.empty();
+    }
+    Cache<String, Entry> entries = getCache(config);
+    Entry entry = entries.getIfPresent(username);
+    if (entry == null) {
+      return Optional.empty();
+    }
+    if (entry.fingerprint.matches(password)) {
+      logger.trace("found cached authentication for {}", username);
+      return Optional.of(entry.user);
+    }
+    // a wrong password must not evict the authentication of the real user, a changed password replaces the entry
+    // after the login against the directory
+    logger.debug("password of {} does not match cached authentication", username);
+    return Optional.empty();
+  }
+
+  void put(LdapConfig config, String username, char[] password, User user) {
+    if (config.isAuthenticationCacheEnabled()) {
+      getCache(config).put(username, new Entry(user, PasswordFingerprint.of(password)));
+    }
+  }
+
+  synchronized void invalidateAll() {
+    if (cache != null) {
+      cache.invalidateAll();
+    }
+  }
+
+  private synchronized Cache<String, Entry> getCache(LdapConfig config) {
+    if (cache == null || ttl != config.getAuthenticationCacheTtl() || maxEntries != config.getAuthenticationCacheMaxEntries()) {
+      ttl = config.getAuthenticationCacheTtl();
+      maxEntries = config.getAuthenticationCacheMaxEntries();
+      logger.debug("create authentication cache with ttl of {}s and {} max entries", ttl, maxEntries);
+      cache = CacheBuilder.newBuilder()
+        .expireAfterWrite(Math.max(0, ttl), TimeUnit.SECONDS)
+        .maximumSize(Math.max(0, maxEntries))
+        .build();
+    }
+    return cache;
+  }
+
+  private static class Entry {
+
+    private final User user;
+    private final PasswordFingerprint fingerprint;
+
+    private Entry(User user, PasswordFingerprint fingerprint) {
+      this.user = user;
+      this.fingerprint = fingerprint;
+    }
+  }
+}
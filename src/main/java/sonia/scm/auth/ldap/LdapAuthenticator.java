@@ -23,6 +23,7 @@
  */
 package sonia.scm.auth.ldap;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,29 +33,100 @@ import sonia.scm.util.ValidationUtil;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.SearchResult;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 public class LdapAuthenticator {
 
   private final LdapConfig config;
+  private final Supplier<CompiledLdapConfig> compiledConfig;
+  private final LdapConnectionFactory connectionFactory;
+  private final LdapUserCache userCache;
+  private final LdapGroupResolver groupResolver;
   private static final Logger logger = LoggerFactory.getLogger(LdapAuthenticator.class);
 
   public LdapAuthenticator(LdapConfig config) {
+    this(config, DirectLdapConnectionFactory.INSTANCE, null, null);
+  }
+
+  /**
+   * Creates an authenticator which uses the given connection factory. If a user cache is given, the dn of
+   * authenticated users is remembered. If a group resolver is given, the groups of the user are resolved with the
+   * result of the user search of the login, so that the following group resolution does not need to search the user
+   * again.
+   */
+  LdapAuthenticator(LdapConfig config, LdapConnectionFactory connectionFactory, LdapUserCache userCache,
+                    LdapGroupResolver groupResolver) {
+    // the configuration is not stored, so it is compiled for every login, which also picks up modifications
+    this(config, () -> CompiledLdapConfig.compile(config), connectionFactory, userCache, groupResolver);
+  }
+
+  /**
+   * Creates an authenticator for the compiled snapshot of the configuration, which is shared by all logins.
+   */
+  LdapAuthenticator(CompiledLdapConfig compiledConfig, LdapConnectionFactory connectionFactory, LdapUserCache userCache,
+                    LdapGroupResolver groupResolver) {
+    this(compiledConfig.getConfig(), () -> compiledConfig, connectionFactory, userCache, groupResolver);
+  }
+
+  private LdapAuthenticator(LdapConfig config, Supplier<CompiledLdapConfig> compiledConfig,
+                            LdapConnectionFactory connectionFactory, LdapUserCache userCache,
+                            LdapGroupResolver groupResolver) {
     this.config = config;
+    this.compiledConfig = compiledConfig;
+    this.connectionFactory = connectionFactory;
+    this.userCache = userCache;
+    this.groupResolver = groupResolver;
   }
 
   public Optional<User> authenticate(String username, String password) {
-    try (LdapConnection bindConnection = LdapConnection.createBindConnection(config)) {
-      UserSearcher userSearcher = new UserSearcher(config, bindConnection);
-      Optional<SearchResult> optionalSearchResult = searchUser(username, userSearcher);
-      if (optionalSearchResult.isPresent()) {
-        SearchResult searchResult = optionalSearchResult.get();
-        String userDN = searchResult.getNameInNamespace();
+    if (userCache != null) {
+      Optional<SearchResult> cachedSearchResult = userCache.get(config, username);
+      if (cachedSearchResult.isPresent()) {
+        logger.trace("use cached dn for user {}", username);
+        try {
+          // the cache contains no group attributes, the groups are resolved from the directory or the group cache
+          // when they are requested
+          return Optional.of(authenticate(cachedSearchResult.get(), password));
+        } catch (UserAuthenticationFailedException ex) {
+          logger.debug("authentication with cached dn failed, search user {} again", username);
+          userCache.invalidate(username);
+          return searchAndAuthenticate(username, password, cachedSearchResult.get().getNameInNamespace(), ex);
+        }
+      }
+    }
+    return searchAndAuthenticate(username, password, null, null);
+  }
+
+  /**
+   * Authenticates the user on the shared ldap executor, without blocking the calling thread. The future fails with
+   * the exception {@link #authenticate(String, String)} would have thrown.
+   */
+  public CompletableFuture<Optional<User>> authenticateAsync(String username, String password) {
+    return LdapExecutor.getInstance().supply(() -> {
+      try (LoginDeadline deadline = LoginDeadline.start(config.getLoginTimeout())) {
+        return authenticate(username, password);
+      }
+    });
+  }
 
-        authenticateUser(userDN, password);
-        Attributes attributes = searchResult.getAttributes();
-        User user = createUser(attributes);
+  private Optional<User> searchAndAuthenticate(String username, String password, String failedDN, UserAuthenticationFailedException failure) {
+    CompiledLdapConfig compiled = compiledConfig.get();
+    try (LdapConnection bindConnection = connectionFactory.createBindConnection(config)) {
+      UserSearcher userSearcher = new UserSearcher(compiled, bindConnection);
+      Optional<SearchResult> optionalSearchResult = searchUser(compiled, username, userSearcher);
 
-        logger.trace("successfully created user from from ldap response: {}", user);
+      if (optionalSearchResult.isPresent()) {
+        SearchResult searchResult = optionalSearchResult.get();
+        if (failure != null && searchResult.getNameInNamespace().equals(failedDN)) {
+          // the user has not moved, so the password was wrong
+          throw failure;
+        }
+        User user = authenticate(searchResult, password);
+        if (userCache != null) {
+          userCache.put(config, username, searchResult);
+        }
+        resolveGroups(compiled, bindConnection, user, searchResult);
         return Optional.of(user);
       }
     }
@@ -62,22 +134,43 @@ public class LdapAuthenticator {
     return Optional.empty();
   }
 
-  private Optional<SearchResult> searchUser(String username, UserSearcher userSearcher) {
+  private void resolveGroups(CompiledLdapConfig compiled, LdapConnection bindConnection, User user, SearchResult searchResult) {
+    if (groupResolver != null) {
+      try {
+        groupResolver.resolveFromLogin(compiled, bindConnection, user.getName(), searchResult);
+      } catch (LdapException ex) {
+        // the groups are resolved again, when they are requested
+        logger.warn("failed to resolve groups of user {} during login", user.getName(), ex);
+      }
+    }
+  }
+
+  private User authenticate(SearchResult searchResult, String password) {
+    authenticateUser(searchResult.getNameInNamespace(), password);
+    User user = createUser(searchResult.getAttributes());
+
+    logger.trace("successfully created user from from ldap response: {}", user);
+    return user;
+  }
+
+  private Optional<SearchResult> searchUser(CompiledLdapConfig compiled, String username, UserSearcher userSearcher) {
     String nameAttribute = config.getAttributeNameId();
     if (Strings.isNullOrEmpty(nameAttribute)) {
       throw new ConfigurationException("no name attribute was specified");
     }
-    return userSearcher.search(username, nameAttribute, config.getAttributeNameFullname(), config.getAttributeNameMail());
+    // the group attribute is only required, if the groups are resolved together with the login
+    return userSearcher.search(username, compiled.getLoginAttributes(groupResolver != null));
   }
 
 
   private void authenticateUser(String userDN, String password) {
-    try (LdapConnection connection = LdapConnection.createUserConnection(config, userDN, password)) {
+    try (LdapConnection connection = connectionFactory.createUserConnection(config, userDN, password)) {
       logger.debug("user {} successfully authenticated", userDN);
     }
   }
 
-  private User createUser(Attributes attributes) {
+  @VisibleForTesting
+  User createUser(Attributes attributes) {
     User user = new User();
 
     user.setType(LdapRealm.TYPE);
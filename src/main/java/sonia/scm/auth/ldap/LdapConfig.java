@@ -244,6 +244,413 @@ public class LdapConfig implements Validateable
     return enabled;
   }
 
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public boolean isConnectionPoolEnabled()
+  {
+    return connectionPoolEnabled;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getConnectionPoolMinSize()
+  {
+    return connectionPoolMinSize;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getConnectionPoolMaxSize()
+  {
+    return connectionPoolMaxSize;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getConnectionPoolIdleTimeout()
+  {
+    return connectionPoolIdleTimeout;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getConnectionPoolMaxLifetime()
+  {
+    return connectionPoolMaxLifetime;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getConnectionPoolBorrowTimeout()
+  {
+    return connectionPoolBorrowTimeout;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public boolean isAuthenticationCacheEnabled()
+  {
+    return authenticationCacheEnabled;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getAuthenticationCacheTtl()
+  {
+    return authenticationCacheTtl;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getAuthenticationCacheMaxEntries()
+  {
+    return authenticationCacheMaxEntries;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public boolean isGroupCacheEnabled()
+  {
+    return groupCacheEnabled;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getGroupCacheTtl()
+  {
+    return groupCacheTtl;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getGroupCacheRefresh()
+  {
+    return groupCacheRefresh;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getGroupCacheMaxWeight()
+  {
+    return groupCacheMaxWeight;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public boolean isUserCacheEnabled()
+  {
+    return userCacheEnabled;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getUserCacheTtl()
+  {
+    return userCacheTtl;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getUserCacheMaxEntries()
+  {
+    return userCacheMaxEntries;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public boolean isUnknownUserCacheEnabled()
+  {
+    return unknownUserCacheEnabled;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getUnknownUserCacheTtl()
+  {
+    return unknownUserCacheTtl;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getUnknownUserCacheMaxEntries()
+  {
+    return unknownUserCacheMaxEntries;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public ServerSelectionStrategy getServerSelectionStrategy()
+  {
+    return serverSelectionStrategy;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getHealthCheckInterval()
+  {
+    return healthCheckInterval;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getConnectTimeout()
+  {
+    return connectTimeout;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getReadTimeout()
+  {
+    return readTimeout;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getBindTimeout()
+  {
+    return bindTimeout;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getSearchTimeout()
+  {
+    return searchTimeout;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getLoginTimeout()
+  {
+    return loginTimeout;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public boolean isCircuitBreakerEnabled()
+  {
+    return circuitBreakerEnabled;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getCircuitBreakerFailureThreshold()
+  {
+    return circuitBreakerFailureThreshold;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getCircuitBreakerProbeInterval()
+  {
+    return circuitBreakerProbeInterval;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public boolean isOfflineAuthenticationEnabled()
+  {
+    return offlineAuthenticationEnabled;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getOfflineAuthenticationMaxAge()
+  {
+    return offlineAuthenticationMaxAge;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public ConnectionBackend getConnectionBackend()
+  {
+    return connectionBackend;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getGroupSearchPageSize()
+  {
+    return groupSearchPageSize;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public NestedADGroupStrategy getNestedADGroupStrategy()
+  {
+    return nestedADGroupStrategy;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public boolean isExpandNestedGroups()
+  {
+    return expandNestedGroups;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public int getNestedGroupMaxDepth()
+  {
+    return nestedGroupMaxDepth;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @return
+   */
+  public boolean isResolveGroupAttributeNames()
+  {
+    return resolveGroupAttributeNames;
+  }
+
   /**
    * Method description
    *
@@ -253,213 +660,647 @@ public class LdapConfig implements Validateable
   @Override
   public boolean isValid()
   {
-    return isValid(attributeNameId, attributeNameFullname, attributeNameMail,
-      hostUrl, searchFilter, searchScope);
+    return isValid(attributeNameId, attributeNameFullname, attributeNameMail,
+      hostUrl, searchFilter, searchScope) && hasValidLimits();
+  }
+
+  //~--- set methods ----------------------------------------------------------
+
+  /**
+   * Method description
+   *
+   *
+   * @param attributeNameFullname
+   */
+  public void setAttributeNameFullname(String attributeNameFullname)
+  {
+    this.attributeNameFullname = attributeNameFullname;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param attributeNameGroup
+   */
+  public void setAttributeNameGroup(String attributeNameGroup)
+  {
+    this.attributeNameGroup = attributeNameGroup;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param attributeNameId
+   */
+  public void setAttributeNameId(String attributeNameId)
+  {
+    this.attributeNameId = attributeNameId;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param attributeNameMail
+   */
+  public void setAttributeNameMail(String attributeNameMail)
+  {
+    this.attributeNameMail = attributeNameMail;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param baseDn
+   */
+  public void setBaseDn(String baseDn)
+  {
+    this.baseDn = baseDn;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param connectionDn
+   */
+  public void setConnectionDn(String connectionDn)
+  {
+    this.connectionDn = connectionDn;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param connectionPassword
+   */
+  public void setConnectionPassword(String connectionPassword)
+  {
+    this.connectionPassword = connectionPassword;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param enableNestedADGroups
+   */
+  public void setEnableNestedADGroups(boolean enableNestedADGroups)
+  {
+    this.enableNestedADGroups = enableNestedADGroups;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param enableStartTls
+   */
+  public void setEnableStartTls(boolean enableStartTls)
+  {
+    this.enableStartTls = enableStartTls;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   *
+   * @param enabled
+   */
+  public void setEnabled(boolean enabled)
+  {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param hostUrl
+   */
+  public void setHostUrl(String hostUrl)
+  {
+    this.hostUrl = hostUrl;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param profile
+   */
+  public void setProfile(String profile)
+  {
+    this.profile = profile;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param referralStrategy
+   */
+  public void setReferralStrategy(ReferralStrategy referralStrategy)
+  {
+    this.referralStrategy = referralStrategy;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param searchFilter
+   */
+  public void setSearchFilter(String searchFilter)
+  {
+    this.searchFilter = searchFilter;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param searchFilterGroup
+   */
+  public void setSearchFilterGroup(String searchFilterGroup)
+  {
+    this.searchFilterGroup = searchFilterGroup;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param searchScope
+   */
+  public void setSearchScope(String searchScope)
+  {
+    this.searchScope = searchScope;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param unitGroup
+   */
+  public void setUnitGroup(String unitGroup)
+  {
+    this.unitGroup = unitGroup;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param unitPeople
+   */
+  public void setUnitPeople(String unitPeople)
+  {
+    this.unitPeople = unitPeople;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param connectionPoolEnabled
+   */
+  public void setConnectionPoolEnabled(boolean connectionPoolEnabled)
+  {
+    this.connectionPoolEnabled = connectionPoolEnabled;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param connectionPoolMinSize
+   */
+  public void setConnectionPoolMinSize(int connectionPoolMinSize)
+  {
+    this.connectionPoolMinSize = connectionPoolMinSize;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param connectionPoolMaxSize
+   */
+  public void setConnectionPoolMaxSize(int connectionPoolMaxSize)
+  {
+    this.connectionPoolMaxSize = connectionPoolMaxSize;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param connectionPoolIdleTimeout
+   */
+  public void setConnectionPoolIdleTimeout(int connectionPoolIdleTimeout)
+  {
+    this.connectionPoolIdleTimeout = connectionPoolIdleTimeout;
   }
 
-  //~--- set methods ----------------------------------------------------------
+  /**
+   * Method description
+   *
+   *
+   * @param connectionPoolMaxLifetime
+   */
+  public void setConnectionPoolMaxLifetime(int connectionPoolMaxLifetime)
+  {
+    this.connectionPoolMaxLifetime = connectionPoolMaxLifetime;
+  }
 
   /**
    * Method description
    *
    *
-   * @param attributeNameFullname
+   * @param connectionPoolBorrowTimeout
    */
-  public void setAttributeNameFullname(String attributeNameFullname)
+  public void setConnectionPoolBorrowTimeout(int connectionPoolBorrowTimeout)
   {
-    this.attributeNameFullname = attributeNameFullname;
+    this.connectionPoolBorrowTimeout = connectionPoolBorrowTimeout;
   }
 
   /**
    * Method description
    *
    *
-   * @param attributeNameGroup
+   * @param authenticationCacheEnabled
    */
-  public void setAttributeNameGroup(String attributeNameGroup)
+  public void setAuthenticationCacheEnabled(boolean authenticationCacheEnabled)
   {
-    this.attributeNameGroup = attributeNameGroup;
+    this.authenticationCacheEnabled = authenticationCacheEnabled;
   }
 
   /**
    * Method description
    *
    *
-   * @param attributeNameId
+   * @param authenticationCacheTtl
    */
-  public void setAttributeNameId(String attributeNameId)
+  public void setAuthenticationCacheTtl(int authenticationCacheTtl)
   {
-    this.attributeNameId = attributeNameId;
+    this.authenticationCacheTtl = authenticationCacheTtl;
   }
 
   /**
    * Method description
    *
    *
-   * @param attributeNameMail
+   * @param authenticationCacheMaxEntries
    */
-  public void setAttributeNameMail(String attributeNameMail)
+  public void setAuthenticationCacheMaxEntries(int authenticationCacheMaxEntries)
   {
-    this.attributeNameMail = attributeNameMail;
+    this.authenticationCacheMaxEntries = authenticationCacheMaxEntries;
   }
 
   /**
    * Method description
    *
    *
-   * @param baseDn
+   * @param groupCacheEnabled
    */
-  public void setBaseDn(String baseDn)
+  public void setGroupCacheEnabled(boolean groupCacheEnabled)
   {
-    this.baseDn = baseDn;
+    this.groupCacheEnabled = groupCacheEnabled;
   }
 
   /**
    * Method description
    *
    *
-   * @param connectionDn
+   * @param groupCacheTtl
    */
-  public void setConnectionDn(String connectionDn)
+  public void setGroupCacheTtl(int groupCacheTtl)
   {
-    this.connectionDn = connectionDn;
+    this.groupCacheTtl = groupCacheTtl;
   }
 
   /**
    * Method description
    *
    *
-   * @param connectionPassword
+   * @param groupCacheRefresh
    */
-  public void setConnectionPassword(String connectionPassword)
+  public void setGroupCacheRefresh(int groupCacheRefresh)
   {
-    this.connectionPassword = connectionPassword;
+    this.groupCacheRefresh = groupCacheRefresh;
   }
 
   /**
    * Method description
    *
    *
-   * @param enableNestedADGroups
+   * @param groupCacheMaxWeight
    */
-  public void setEnableNestedADGroups(boolean enableNestedADGroups)
+  public void setGroupCacheMaxWeight(int groupCacheMaxWeight)
   {
-    this.enableNestedADGroups = enableNestedADGroups;
+    this.groupCacheMaxWeight = groupCacheMaxWeight;
   }
 
   /**
    * Method description
    *
    *
-   * @param enableStartTls
+   * @param userCacheEnabled
    */
-  public void setEnableStartTls(boolean enableStartTls)
+  public void setUserCacheEnabled(boolean userCacheEnabled)
   {
-    this.enableStartTls = enableStartTls;
+    this.userCacheEnabled = userCacheEnabled;
   }
 
   /**
    * Method description
    *
    *
+   * @param userCacheTtl
+   */
+  public void setUserCacheTtl(int userCacheTtl)
+  {
+    this.userCacheTtl = userCacheTtl;
+  }
+
+  /**
+   * Method description
+   *
    *
-   * @param enabled
+   * @param userCacheMaxEntries
    */
-  public void setEnabled(boolean enabled)
+  public void setUserCacheMaxEntries(int userCacheMaxEntries)
   {
-    this.enabled = enabled;
+    this.userCacheMaxEntries = userCacheMaxEntries;
   }
 
   /**
    * Method description
    *
    *
-   * @param hostUrl
+   * @param unknownUserCacheEnabled
    */
-  public void setHostUrl(String hostUrl)
+  public void setUnknownUserCacheEnabled(boolean unknownUserCacheEnabled)
   {
-    this.hostUrl = hostUrl;
+    this.unknownUserCacheEnabled = unknownUserCacheEnabled;
   }
 
   /**
    * Method description
    *
    *
-   * @param profile
+   * @param unknownUserCacheTtl
    */
-  public void setProfile(String profile)
+  public void setUnknownUserCacheTtl(int unknownUserCacheTtl)
   {
-    this.profile = profile;
+    this.unknownUserCacheTtl = unknownUserCacheTtl;
   }
 
   /**
    * Method description
    *
    *
-   * @param referralStrategy
+   * @param unknownUserCacheMaxEntries
    */
-  public void setReferralStrategy(ReferralStrategy referralStrategy)
+  public void setUnknownUserCacheMaxEntries(int unknownUserCacheMaxEntries)
   {
-    this.referralStrategy = referralStrategy;
+    this.unknownUserCacheMaxEntries = unknownUserCacheMaxEntries;
   }
 
   /**
    * Method description
    *
    *
-   * @param searchFilter
+   * @param serverSelectionStrategy
    */
-  public void setSearchFilter(String searchFilter)
+  public void setServerSelectionStrategy(ServerSelectionStrategy serverSelectionStrategy)
   {
-    this.searchFilter = searchFilter;
+    this.serverSelectionStrategy = serverSelectionStrategy;
   }
 
   /**
    * Method description
    *
    *
-   * @param searchFilterGroup
+   * @param healthCheckInterval
    */
-  public void setSearchFilterGroup(String searchFilterGroup)
+  public void setHealthCheckInterval(int healthCheckInterval)
   {
-    this.searchFilterGroup = searchFilterGroup;
+    this.healthCheckInterval = healthCheckInterval;
   }
 
   /**
    * Method description
    *
    *
-   * @param searchScope
+   * @param connectTimeout
    */
-  public void setSearchScope(String searchScope)
+  public void setConnectTimeout(int connectTimeout)
   {
-    this.searchScope = searchScope;
+    this.connectTimeout = connectTimeout;
   }
 
   /**
    * Method description
    *
    *
-   * @param unitGroup
+   * @param readTimeout
    */
-  public void setUnitGroup(String unitGroup)
+  public void setReadTimeout(int readTimeout)
   {
-    this.unitGroup = unitGroup;
+    this.readTimeout = readTimeout;
   }
 
   /**
    * Method description
    *
    *
-   * @param unitPeople
+   * @param bindTimeout
    */
-  public void setUnitPeople(String unitPeople)
+  public void setBindTimeout(int bindTimeout)
   {
-    this.unitPeople = unitPeople;
+    this.bindTimeout = bindTimeout;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param searchTimeout
+   */
+  public void setSearchTimeout(int searchTimeout)
+  {
+    this.searchTimeout = searchTimeout;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param loginTimeout
+   */
+  public void setLoginTimeout(int loginTimeout)
+  {
+    this.loginTimeout = loginTimeout;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param circuitBreakerEnabled
+   */
+  public void setCircuitBreakerEnabled(boolean circuitBreakerEnabled)
+  {
+    this.circuitBreakerEnabled = circuitBreakerEnabled;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param circuitBreakerFailureThreshold
+   */
+  public void setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold)
+  {
+    this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param circuitBreakerProbeInterval
+   */
+  public void setCircuitBreakerProbeInterval(int circuitBreakerProbeInterval)
+  {
+    this.circuitBreakerProbeInterval = circuitBreakerProbeInterval;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param offlineAuthenticationEnabled
+   */
+  public void setOfflineAuthenticationEnabled(boolean offlineAuthenticationEnabled)
+  {
+    this.offlineAuthenticationEnabled = offlineAuthenticationEnabled;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param offlineAuthenticationMaxAge
+   */
+  public void setOfflineAuthenticationMaxAge(int offlineAuthenticationMaxAge)
+  {
+    this.offlineAuthenticationMaxAge = offlineAuthenticationMaxAge;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param connectionBackend
+   */
+  public void setConnectionBackend(ConnectionBackend connectionBackend)
+  {
+    this.connectionBackend = connectionBackend;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param groupSearchPageSize
+   */
+  public void setGroupSearchPageSize(int groupSearchPageSize)
+  {
+    this.groupSearchPageSize = groupSearchPageSize;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param nestedADGroupStrategy
+   */
+  public void setNestedADGroupStrategy(NestedADGroupStrategy nestedADGroupStrategy)
+  {
+    this.nestedADGroupStrategy = nestedADGroupStrategy;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param expandNestedGroups
+   */
+  public void setExpandNestedGroups(boolean expandNestedGroups)
+  {
+    this.expandNestedGroups = expandNestedGroups;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param nestedGroupMaxDepth
+   */
+  public void setNestedGroupMaxDepth(int nestedGroupMaxDepth)
+  {
+    this.nestedGroupMaxDepth = nestedGroupMaxDepth;
+  }
+
+  /**
+   * Method description
+   *
+   *
+   * @param resolveGroupAttributeNames
+   */
+  public void setResolveGroupAttributeNames(boolean resolveGroupAttributeNames)
+  {
+    this.resolveGroupAttributeNames = resolveGroupAttributeNames;
   }
 
   //~--- get methods ----------------------------------------------------------
 
+  /**
+   * Checks the numeric settings against the same bounds, which are enforced
+   * by the rest api, and the minimum pool size against the maximum.
+   *
+   *
+   * @return true if all numeric settings are within their bounds
+   */
+  private boolean hasValidLimits()
+  {
+    return connectionPoolMinSize >= 0 && connectionPoolMinSize <= 1000
+      && connectionPoolMaxSize >= 1 && connectionPoolMaxSize <= 1000
+      && connectionPoolMinSize <= connectionPoolMaxSize
+      && connectionPoolIdleTimeout >= 0 && connectionPoolMaxLifetime >= 0
+      && connectionPoolBorrowTimeout >= 0
+      && authenticationCacheTtl >= 1 && authenticationCacheMaxEntries >= 1
+      && groupCacheTtl >= 1 && groupCacheRefresh >= 0 && groupCacheMaxWeight >= 1
+      && userCacheTtl >= 1 && userCacheMaxEntries >= 1
+      && unknownUserCacheTtl >= 1 && unknownUserCacheMaxEntries >= 1
+      && healthCheckInterval >= 0
+      && connectTimeout >= 1 && readTimeout >= 1
+      && bindTimeout >= 0 && searchTimeout >= 0 && loginTimeout >= 0
+      && circuitBreakerFailureThreshold >= 1 && circuitBreakerProbeInterval >= 1
+      && offlineAuthenticationMaxAge >= 1
+      && groupSearchPageSize >= 0
+      && nestedGroupMaxDepth >= 1 && nestedGroupMaxDepth <= 100;
+  }
+
   /**
    * Method description
    *
@@ -561,4 +1402,152 @@ public class LdapConfig implements Validateable
   /** Field description */
   @XmlElement(name = "enable-nested-ad-groups")
   private boolean enableNestedADGroups = false;
+
+  /** Field description */
+  @XmlElement(name = "connection-pool-enabled")
+  private boolean connectionPoolEnabled = true;
+
+  /** Field description */
+  @XmlElement(name = "connection-pool-min-size")
+  private int connectionPoolMinSize = 0;
+
+  /** Field description */
+  @XmlElement(name = "connection-pool-max-size")
+  private int connectionPoolMaxSize = 10;
+
+  /** Field description */
+  @XmlElement(name = "connection-pool-idle-timeout")
+  private int connectionPoolIdleTimeout = 300;
+
+  /** Field description */
+  @XmlElement(name = "connection-pool-max-lifetime")
+  private int connectionPoolMaxLifetime = 1800;
+
+  /** Field description */
+  @XmlElement(name = "connection-pool-borrow-timeout")
+  private int connectionPoolBorrowTimeout = 5000;
+
+  /** Field description */
+  @XmlElement(name = "authentication-cache-enabled")
+  private boolean authenticationCacheEnabled = false;
+
+  /** Field description */
+  @XmlElement(name = "authentication-cache-ttl")
+  private int authenticationCacheTtl = 300;
+
+  /** Field description */
+  @XmlElement(name = "authentication-cache-max-entries")
+  private int authenticationCacheMaxEntries = 1000;
+
+  /** Field description */
+  @XmlElement(name = "group-cache-enabled")
+  private boolean groupCacheEnabled = false;
+
+  /** Field description */
+  @XmlElement(name = "group-cache-ttl")
+  private int groupCacheTtl = 600;
+
+  /** Field description */
+  @XmlElement(name = "group-cache-refresh")
+  private int groupCacheRefresh = 60;
+
+  /** Field description */
+  @XmlElement(name = "group-cache-max-weight")
+  private int groupCacheMaxWeight = 100000;
+
+  /** Field description */
+  @XmlElement(name = "user-cache-enabled")
+  private boolean userCacheEnabled = false;
+
+  /** Field description */
+  @XmlElement(name = "user-cache-ttl")
+  private int userCacheTtl = 600;
+
+  /** Field description */
+  @XmlElement(name = "user-cache-max-entries")
+  private int userCacheMaxEntries = 1000;
+
+  /** Field description */
+  @XmlElement(name = "unknown-user-cache-enabled")
+  private boolean unknownUserCacheEnabled = false;
+
+  /** Field description */
+  @XmlElement(name = "unknown-user-cache-ttl")
+  private int unknownUserCacheTtl = 60;
+
+  /** Field description */
+  @XmlElement(name = "unknown-user-cache-max-entries")
+  private int unknownUserCacheMaxEntries = 10000;
+
+  /** Field description */
+  @XmlElement(name = "server-selection-strategy")
+  private ServerSelectionStrategy serverSelectionStrategy = ServerSelectionStrategy.FAILOVER;
+
+  /** Field description */
+  @XmlElement(name = "health-check-interval")
+  private int healthCheckInterval = 30;
+
+  /** Field description */
+  @XmlElement(name = "connect-timeout")
+  private int connectTimeout = 5000;
+
+  /** Field description */
+  @XmlElement(name = "read-timeout")
+  private int readTimeout = 120000;
+
+  /** Field description */
+  @XmlElement(name = "bind-timeout")
+  private int bindTimeout = 0;
+
+  /** Field description */
+  @XmlElement(name = "search-timeout")
+  private int searchTimeout = 0;
+
+  /** Field description */
+  @XmlElement(name = "login-timeout")
+  private int loginTimeout = 0;
+
+  /** Field description */
+  @XmlElement(name = "circuit-breaker-enabled")
+  private boolean circuitBreakerEnabled = false;
+
+  /** Field description */
+  @XmlElement(name = "circuit-breaker-failure-threshold")
+  private int circuitBreakerFailureThreshold = 3;
+
+  /** Field description */
+  @XmlElement(name = "circuit-breaker-probe-interval")
+  private int circuitBreakerProbeInterval = 10;
+
+  /** Field description */
+  @XmlElement(name = "offline-authentication-enabled")
+  private boolean offlineAuthenticationEnabled = false;
+
+  /** Field description */
+  @XmlElement(name = "offline-authentication-max-age")
+  private int offlineAuthenticationMaxAge = 86400;
+
+  /** Field description */
+  @XmlElement(name = "connection-backend")
+  private ConnectionBackend connectionBackend = ConnectionBackend.JNDI;
+
+  /** Field description */
+  @XmlElement(name = "group-search-page-size")
+  private int groupSearchPageSize = 500;
+
+  /** Field description */
+  @XmlElement(name = "nested-ad-group-strategy")
+  private NestedADGroupStrategy nestedADGroupStrategy = NestedADGroupStrategy.MATCHING_RULE_IN_CHAIN;
+
+  /** Field description */
+  @XmlElement(name = "expand-nested-groups")
+  private boolean expandNestedGroups = false;
+
+  /** Field description */
+  @XmlElement(name = "nested-group-max-depth")
+  private int nestedGroupMaxDepth = 5;
+
+  /** Field description */
+  @XmlElement(name = "resolve-group-attribute-names")
+  private boolean resolveGroupAttributeNames = false;
 }
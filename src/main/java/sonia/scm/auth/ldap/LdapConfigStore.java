@@ -30,11 +30,17 @@ import sonia.scm.store.ConfigurationStoreFactory;
 import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.inject.Singleton;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 @Singleton
 public class LdapConfigStore implements Provider<LdapConfig> {
 
   private final ConfigurationStore<LdapConfig> configurationStore;
+  private final List<Consumer<LdapConfig>> changeListeners = new CopyOnWriteArrayList<>();
+
+  private volatile CompiledLdapConfig compiled;
 
   @Inject
   public LdapConfigStore(ConfigurationStoreFactory configurationStoreFactory) {
@@ -51,6 +57,37 @@ public class LdapConfigStore implements Provider<LdapConfig> {
   }
 
   public void set(LdapConfig config) {
-    configurationStore.set(config);
+    synchronized (this) {
+      configurationStore.set(config);
+      compiled = CompiledLdapConfig.compile(config);
+    }
+    changeListeners.forEach(listener -> listener.accept(config));
+  }
+
+  /**
+   * Returns the compiled snapshot of the current configuration. The snapshot is created when the configuration is
+   * loaded for the first time and is replaced whenever the configuration is stored.
+   */
+  CompiledLdapConfig getCompiled() {
+    CompiledLdapConfig current = compiled;
+    if (current == null) {
+      current = load();
+    }
+    return current;
+  }
+
+  private synchronized CompiledLdapConfig load() {
+    if (compiled == null) {
+      compiled = CompiledLdapConfig.compile(get());
+    }
+    return compiled;
+  }
+
+  /**
+   * Registers a listener which is called with the new configuration, every time the configuration is stored.
+   * Used by pools and caches to drop state which was derived from the old configuration.
+   */
+  void addChangeListener(Consumer<LdapConfig> listener) {
+    changeListeners.add(listener);
   }
 }
@@ -26,22 +26,21 @@ package sonia.scm.auth.ldap;
 //~--- non-JDK imports --------------------------------------------------------
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import sonia.scm.util.Util;
 
-import javax.naming.Context;
+import javax.naming.CommunicationException;
 import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
-import javax.naming.ldap.InitialLdapContext;
-import javax.naming.ldap.LdapContext;
-import javax.naming.ldap.StartTlsRequest;
-import javax.naming.ldap.StartTlsResponse;
 import javax.net.ssl.SSLContext;
 import java.io.Closeable;
 import java.io.IOException;
-import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 //~--- JDK imports ------------------------------------------------------------
 
@@ -50,132 +49,248 @@ import java.util.Hashtable;
  */
 class LdapConnection implements Closeable {
 
-  /**
-   * property for ldap connect timeout
-   */
-  private static final String PROPERTY_TIMEOUT_CONNECT =
-    "com.sun.jndi.ldap.connect.timeout";
-
-  /**
-   * property for ldap read timeout
-   */
-  private static final String PROPERTY_TIMEOUT_READ =
-    "com.sun.jndi.ldap.read.timeout";
-
-  /**
-   * connect timeout: 5sec
-   */
-  private static final String TIMEOUT_CONNECT = "5000";
-
-  /**
-   * read timeout: 2min
-   */
-  private static final String TIMEOUT_READ = "120000";
-
   /**
    * the logger for LDAPConnection
    */
   private static final Logger logger =
     LoggerFactory.getLogger(LdapConnection.class);
 
-  private final LdapContext context;
-  private StartTlsResponse tls;
+  private final BackendConnection backend;
+  private final int searchTimeout;
+
+  private final long createdAt = System.currentTimeMillis();
+  // written by the borrowing thread, read by the maintenance of the pool
+  private volatile long lastUsedAt = createdAt;
+  private LdapConnectionPool pool;
+  private volatile boolean broken;
+  private boolean userBound;
 
   static LdapConnection createBindConnection(LdapConfig config) {
+    return createBindConnection(config, config.getHostUrl());
+  }
+
+  static LdapConnection createBindConnection(LdapConfig config, String hostUrl) {
     try {
-      return new LdapConnection(config, null, config.getConnectionDn(), config.getConnectionPassword());
+      return new LdapConnection(
+        config, hostUrl, config.getReadTimeout(), null, config.getConnectionDn(), config.getConnectionPassword()
+      );
     } catch (IOException | NamingException ex) {
       throw new BindConnectionFailedException("failed to create bind connection for " + config.getConnectionDn(), ex);
     }
   }
 
   static LdapConnection createUserConnection(LdapConfig config, String userDn, String password) {
+    return createUserConnection(config, config.getHostUrl(), userDn, password);
+  }
+
+  static LdapConnection createUserConnection(LdapConfig config, String hostUrl, String userDn, String password) {
+    checkPassword(userDn, password);
     try {
-      return new LdapConnection(config, null, userDn, password);
+      return new LdapConnection(config, hostUrl, getBindTimeout(config), null, userDn, password);
     } catch (IOException | NamingException ex) {
       throw new UserAuthenticationFailedException("failed to authenticate user " + userDn, ex);
     }
   }
 
-  @VisibleForTesting
-  LdapConnection(LdapConfig config, SSLContext sslContext, String userDN, String password) throws NamingException, IOException {
-    context = new InitialLdapContext(createConnectionProperties(config, userDN, password), null);
+  /**
+   * Creates an anonymous connection, which is used to verify user credentials with {@link #bindUser(String, String)}.
+   */
+  static LdapConnection createVerificationConnection(LdapConfig config, String hostUrl) {
+    try {
+      return new LdapConnection(config, hostUrl, getBindTimeout(config), null, null, null);
+    } catch (IOException | NamingException ex) {
+      throw new UserAuthenticationFailedException("failed to open connection for user authentication", ex);
+    }
+  }
 
-    if (config.isEnableStartTls()) {
-      startTLS(config, sslContext, userDN, password);
+  /**
+   * Most servers accept a bind with an empty password as anonymous bind (RFC 4513, section 5.1.2), which would
+   * authenticate every existing user without a password.
+   */
+  private static void checkPassword(String userDn, String password) {
+    if (Strings.isNullOrEmpty(password)) {
+      throw new UserAuthenticationFailedException("empty password is not allowed for user " + userDn);
     }
   }
 
-  private void startTLS(LdapConfig config, SSLContext sslContext, String userDN, String password) throws NamingException, IOException {
-    logger.debug("send starttls request");
+  /**
+   * Connections which are used to verify user credentials, are mostly used for binds and get the bind timeout as
+   * read timeout.
+   */
+  private static int getBindTimeout(LdapConfig config) {
+    return config.getBindTimeout() > 0 ? config.getBindTimeout() : config.getReadTimeout();
+  }
 
-    tls = (StartTlsResponse) context.extendedOperation(new StartTlsRequest());
+  @VisibleForTesting
+  LdapConnection(LdapConfig config, SSLContext sslContext, String userDN, String password) throws NamingException, IOException {
+    this(config, config.getHostUrl(), config.getReadTimeout(), sslContext, userDN, password);
+  }
 
-    if (sslContext != null) {
-      tls.negotiate(sslContext.getSocketFactory());
+  private LdapConnection(LdapConfig config, String hostUrl, int readTimeout, SSLContext sslContext, String userDN, String password) throws NamingException, IOException {
+    this.searchTimeout = config.getSearchTimeout();
+    // the read timeout is fixed for the lifetime of the connection, so only the connect timeout is limited by the
+    // deadline of the current login, searches and binds check the deadline themselves
+    int connectTimeout = LoginDeadline.limit(config.getConnectTimeout(), "connect");
+    if (config.getConnectionBackend() == ConnectionBackend.UNBOUNDID) {
+      logger.trace("open connection to {} with unboundid backend", hostUrl);
+      backend = new UnboundIdBackendConnection(config, hostUrl, connectTimeout, readTimeout, sslContext, userDN, password);
     } else {
-      tls.negotiate();
+      backend = new JndiBackendConnection(config, hostUrl, connectTimeout, readTimeout, sslContext, userDN, password);
+    }
+  }
+
+  AutoCloseableNamingEnumeration<SearchResult> search(String name, String filter, SearchControls cons)
+    throws NamingException {
+    applyTimeLimit(cons);
+    try {
+      return new AutoCloseableNamingEnumeration<>(backend.search(name, filter, cons));
+    } catch (CommunicationException | ServiceUnavailableException ex) {
+      broken = true;
+      throw ex;
     }
+  }
 
-    // authenticate after bind
-    if (userDN != null) {
-      logger.debug("set bind credentials for dn {}", userDN);
+  /**
+   * Searches page by page with the paged results control and passes every result to the consumer.
+   */
+  void searchPaged(String name, String filter, SearchControls cons, int pageSize, Consumer<SearchResult> consumer)
+    throws NamingException {
+    applyTimeLimit(cons);
+    try {
+      backend.searchPaged(name, filter, cons, pageSize, consumer);
+    } catch (CommunicationException | ServiceUnavailableException ex) {
+      broken = true;
+      throw ex;
+    }
+  }
 
-      context.addToEnvironment(Context.SECURITY_AUTHENTICATION, "simple");
-      context.addToEnvironment(Context.SECURITY_PRINCIPAL, userDN);
+  /**
+   * Returns {@code true} if {@link #searchAsync(String, String, SearchControls, int)} returns before the server has
+   * answered.
+   */
+  boolean isAsynchronous() {
+    return backend.isAsynchronous();
+  }
 
-      if (password != null) {
-        context.addToEnvironment(Context.SECURITY_CREDENTIALS, password);
-      } else {
-        logger.debug("try to bind user {} without password", userDN);
+  /**
+   * Starts a search without waiting for its result. With a backend without asynchronous operations, the search is
+   * executed before the method returns.
+   *
+   * @param pageSize size of the result pages, zero or less to search without paging
+   */
+  CompletableFuture<List<SearchResult>> searchAsync(String name, String filter, SearchControls cons, int pageSize) {
+    applyTimeLimit(cons);
+    CompletableFuture<List<SearchResult>> future = backend.searchAsync(name, filter, cons, pageSize);
+    future.whenComplete((results, ex) -> {
+      if (ex instanceof CommunicationException || ex instanceof ServiceUnavailableException) {
+        broken = true;
       }
+    });
+    return future;
+  }
 
-      // force bind
-      logger.trace("fetch dn of {} to force bind", config.getBaseDn());
-      context.getAttributes(config.getBaseDn(), new String[]{"dn"});
+  private void applyTimeLimit(SearchControls cons) {
+    int timeLimit = LoginDeadline.limit(searchTimeout, "search");
+    if (timeLimit > 0) {
+      cons.setTimeLimit(timeLimit);
     }
   }
 
-  @SuppressWarnings("squid:S1149") // we have to use hashtable, because it is required by jndi
-  private Hashtable<String, String> createConnectionProperties(LdapConfig config, String userDN, String password) {
-    Hashtable<String, String> ldapProperties = new Hashtable<>(11);
-
-    ldapProperties.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
-    ldapProperties.put(Context.PROVIDER_URL, config.getHostUrl());
-
-    // apply timeout for read and connect
-    // see https://groups.google.com/d/topic/scmmanager/QTimDQM2Wfw/discussion
-    ldapProperties.put(PROPERTY_TIMEOUT_CONNECT, TIMEOUT_CONNECT);
-    ldapProperties.put(PROPERTY_TIMEOUT_READ, TIMEOUT_READ);
+  /**
+   * Checks if the connection is still usable, by reading the root dse of the server.
+   *
+   * @return {@code true} if the server has answered
+   */
+  boolean isAlive() {
+    if (broken) {
+      return false;
+    }
+    try {
+      backend.readRootDse();
+      return true;
+    } catch (NamingException ex) {
+      logger.debug("pooled connection is no longer alive", ex);
+      broken = true;
+      return false;
+    }
+  }
 
-    if (Util.isNotEmpty(userDN) && Util.isNotEmpty(password) && !config.isEnableStartTls()) {
-      logger.debug("create context for dn {}", userDN);
+  /**
+   * Binds the existing connection with the given user dn and password, without opening a new socket.
+   *
+   * @throws UserAuthenticationFailedException if the credentials are wrong or the server could not be reached
+   */
+  void bindUser(String userDN, String password) {
+    checkPassword(userDN, password);
+    LoginDeadline.check("bind");
+    logger.debug("bind pooled connection with dn {}", userDN);
+    userBound = true;
+    try {
+      backend.bind(userDN, password);
+    } catch (CommunicationException | ServiceUnavailableException ex) {
+      broken = true;
+      throw new UserAuthenticationFailedException("failed to authenticate user " + userDN, ex);
+    } catch (NamingException ex) {
+      throw new UserAuthenticationFailedException("failed to authenticate user " + userDN, ex);
+    }
+  }
 
-      ldapProperties.put(Context.SECURITY_AUTHENTICATION, "simple");
-      ldapProperties.put(Context.SECURITY_PRINCIPAL, userDN);
-      ldapProperties.put(Context.SECURITY_CREDENTIALS, password);
-    } else {
-      logger.debug("create anonymous context");
+  /**
+   * Removes a user binding from the connection, by binding anonymously again.
+   *
+   * @return {@code true} if the connection is anonymous again and can be reused
+   */
+  boolean resetUserBinding() {
+    if (!userBound) {
+      return true;
     }
+    try {
+      backend.bindAnonymously();
+      userBound = false;
+      return true;
+    } catch (NamingException ex) {
+      logger.debug("failed to reset binding of pooled connection", ex);
+      broken = true;
+      return false;
+    }
+  }
 
-    String referral = config.getReferralStrategy().getContextValue();
+  boolean isBroken() {
+    return broken;
+  }
 
-    logger.debug("use {} as referral strategy", referral);
+  long getCreatedAt() {
+    return createdAt;
+  }
 
-    ldapProperties.put(Context.REFERRAL, referral);
-    ldapProperties.put("java.naming.ldap.version", "3");
+  long getLastUsedAt() {
+    return lastUsedAt;
+  }
 
-    return ldapProperties;
+  void touch() {
+    lastUsedAt = System.currentTimeMillis();
   }
 
-  AutoCloseableNamingEnumeration<SearchResult> search(String name, String filter, SearchControls cons)
-    throws NamingException {
-    return new AutoCloseableNamingEnumeration<>(context.search(name, filter, cons));
+  void setPool(LdapConnectionPool pool) {
+    this.pool = pool;
   }
 
+  /**
+   * Returns pooled connections to their pool and closes all others.
+   */
   @Override
   public void close() {
-    LdapUtil.close(tls);
-    LdapUtil.close(context);
+    if (pool != null) {
+      pool.release(this);
+    } else {
+      destroy();
+    }
+  }
+
+  /**
+   * Closes the underlying connection, even if the connection is part of a pool.
+   */
+  void destroy() {
+    backend.close();
   }
 }
@@ -0,0 +1,275 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+/**
+ * A bounded pool of already opened connections for one {@link Key}. Connections are handed out with
+ * {@link #borrow()} and are returned to the pool by calling {@link LdapConnection#close()}. Connections which were
+ * bound as a user, are bound anonymously again before they are returned to the pool.
+ */
+class LdapConnectionPool implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(LdapConnectionPool.class);
+
+  /**
+   * idle connections which were not used within this period are validated before they are handed out
+   */
+  private static final long VALIDATION_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+  private final LdapConfig config;
+  private final LdapServer server;
+  private final BiFunction<LdapConfig, String, LdapConnection> connectionOpener;
+  private final Key key;
+  private final int minSize;
+  private final int maxSize;
+  private final long idleTimeout;
+  private final long maxLifetime;
+  private final int borrowTimeout;
+
+  private final Deque<LdapConnection> idle = new LinkedBlockingDeque<>();
+  private final AtomicInteger size = new AtomicInteger();
+  private final Semaphore permits;
+
+  private volatile boolean closed = false;
+  private volatile long lastBorrowedAt = System.currentTimeMillis();
+
+  LdapConnectionPool(LdapConfig config, LdapServer server, BiFunction<LdapConfig, String, LdapConnection> connectionOpener) {
+    this.config = config;
+    this.server = server;
+    this.connectionOpener = connectionOpener;
+    this.key = Key.of(config, server.getUrl());
+    this.maxSize = Math.max(1, config.getConnectionPoolMaxSize());
+    this.minSize = Math.min(Math.max(0, config.getConnectionPoolMinSize()), maxSize);
+    this.idleTimeout = TimeUnit.SECONDS.toMillis(config.getConnectionPoolIdleTimeout());
+    this.maxLifetime = TimeUnit.SECONDS.toMillis(config.getConnectionPoolMaxLifetime());
+    this.borrowTimeout = config.getConnectionPoolBorrowTimeout();
+    this.permits = new Semaphore(maxSize, true);
+  }
+
+  LdapConnection borrow() {
+    acquirePermit();
+    try {
+      lastBorrowedAt = System.currentTimeMillis();
+      LdapConnection connection;
+      while ((connection = idle.pollFirst()) != null) {
+        if (isUsable(connection)) {
+          logger.trace("reuse pooled connection for {}", key);
+          server.connectionAcquired();
+          return connection;
+        }
+        discard(connection);
+      }
+      connection = create();
+      server.connectionAcquired();
+      return connection;
+    } catch (RuntimeException ex) {
+      permits.release();
+      throw ex;
+    }
+  }
+
+  /**
+   * Waits for a free connection, at most for the borrow timeout and the remaining time of the login deadline. A borrow
+   * timeout of zero waits without limit, like the other timeouts of the configuration.
+   */
+  private void acquirePermit() {
+    try {
+      int timeout = LoginDeadline.limit(borrowTimeout, "borrowing a connection");
+      if (timeout <= 0) {
+        permits.acquire();
+      } else if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+        throw new BindConnectionFailedException(
+          "timeout after " + timeout + "ms waiting for a pooled connection for " + key
+        );
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new BindConnectionFailedException("interrupted while waiting for a pooled connection for " + key, ex);
+    }
+  }
+
+  void release(LdapConnection connection) {
+    try {
+      long now = System.currentTimeMillis();
+      if (closed || connection.isBroken() || isExpired(connection, now) || size.get() > maxSize
+        || !connection.resetUserBinding()) {
+        discard(connection);
+      } else {
+        connection.touch();
+        idle.offerFirst(connection);
+      }
+    } finally {
+      server.connectionReleased();
+      permits.release();
+    }
+  }
+
+  /**
+   * Removes idle and expired connections and fills the pool up to its minimum size.
+   * Called periodically by {@link PooledLdapConnectionFactory}.
+   */
+  void maintain() {
+    long now = System.currentTimeMillis();
+    Iterator<LdapConnection> it = idle.descendingIterator();
+    while (it.hasNext()) {
+      LdapConnection connection = it.next();
+      boolean idleTooLong = size.get() > minSize && now - connection.getLastUsedAt() > idleTimeout;
+      if ((idleTooLong || isExpired(connection, now)) && idle.remove(connection)) {
+        logger.debug("evict pooled connection for {}", key);
+        discard(connection);
+      }
+    }
+    while (!closed && server.isHealthy() && size.get() < minSize && permits.tryAcquire()) {
+      try {
+        LdapConnection connection = create();
+        connection.touch();
+        idle.offerLast(connection);
+      } catch (LdapException ex) {
+        logger.warn("failed to fill connection pool for {}", key, ex);
+        break;
+      } finally {
+        permits.release();
+      }
+    }
+  }
+
+  boolean isUnused() {
+    return size.get() == 0 && System.currentTimeMillis() - lastBorrowedAt > idleTimeout;
+  }
+
+  int getSize() {
+    return size.get();
+  }
+
+  int getIdleCount() {
+    return idle.size();
+  }
+
+  private boolean isUsable(LdapConnection connection) {
+    long now = System.currentTimeMillis();
+    if (connection.isBroken() || isExpired(connection, now) || now - connection.getLastUsedAt() > idleTimeout) {
+      return false;
+    }
+    return now - connection.getLastUsedAt() < VALIDATION_INTERVAL || connection.isAlive();
+  }
+
+  private boolean isExpired(LdapConnection connection, long now) {
+    return maxLifetime > 0 && now - connection.getCreatedAt() > maxLifetime;
+  }
+
+  private LdapConnection create() {
+    logger.debug("open new pooled connection for {}", key);
+    LdapConnection connection = connectionOpener.apply(config, server.getUrl());
+    connection.setPool(this);
+    size.incrementAndGet();
+    return connection;
+  }
+
+  private void discard(LdapConnection connection) {
+    size.decrementAndGet();
+    connection.destroy();
+  }
+
+  /**
+   * Closes all idle connections. Borrowed connections are closed as soon as they are released.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    LdapConnection connection;
+    while ((connection = idle.pollFirst()) != null) {
+      discard(connection);
+    }
+  }
+
+  /**
+   * Identifies the pool for a configuration and one of its servers: only connections with the same server,
+   * credentials, transport settings and backend can be shared.
+   */
+  static final class Key {
+
+    private final String hostUrl;
+    private final String connectionDn;
+    private final String connectionPassword;
+    private final String baseDn;
+    private final boolean enableStartTls;
+    private final ReferralStrategy referralStrategy;
+    private final ConnectionBackend connectionBackend;
+
+    private Key(LdapConfig config, String hostUrl) {
+      this.hostUrl = hostUrl;
+      this.connectionDn = config.getConnectionDn();
+      this.connectionPassword = config.getConnectionPassword();
+      this.baseDn = config.getBaseDn();
+      this.enableStartTls = config.isEnableStartTls();
+      this.referralStrategy = config.getReferralStrategy();
+      this.connectionBackend = config.getConnectionBackend();
+    }
+
+    static Key of(LdapConfig config, String hostUrl) {
+      return new Key(config, hostUrl);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key other = (Key) o;
+      return enableStartTls == other.enableStartTls
+        && Objects.equals(hostUrl, other.hostUrl)
+        && Objects.equals(connectionDn, other.connectionDn)
+        && Objects.equals(connectionPassword, other.connectionPassword)
+        && Objects.equals(baseDn, other.baseDn)
+        && referralStrategy == other.referralStrategy
+        && connectionBackend == other.connectionBackend;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(hostUrl, connectionDn, connectionPassword, baseDn, enableStartTls, referralStrategy, connectionBackend);
+    }
+
+    @Override
+    public String toString() {
+      return connectionDn + "@" + hostUrl + (enableStartTls ? " (starttls)" : "");
+    }
+  }
+}
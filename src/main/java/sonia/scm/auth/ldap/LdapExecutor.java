@@ -0,0 +1,151 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Bounded executor for the asynchronous ldap operations. Virtual threads are used, if the runtime supports them,
+ * otherwise a fixed number of daemon threads. Requests which exceed the bound are rejected with an
+ * {@link LdapException} instead of queuing up without limit.
+ */
+final class LdapExecutor implements Executor {
+
+  private static final Logger logger = LoggerFactory.getLogger(LdapExecutor.class);
+
+  /**
+   * maximum number of platform threads
+   */
+  @VisibleForTesting
+  static final int MAX_THREADS = 32;
+
+  /**
+   * maximum number of operations which are waiting for or running on a thread
+   */
+  @VisibleForTesting
+  static final int MAX_PENDING = 1024;
+
+  private static LdapExecutor instance;
+
+  private final Executor executor;
+  private final int maxPending;
+  private final Semaphore pending;
+
+  @VisibleForTesting
+  LdapExecutor(Executor executor, int maxPending) {
+    this.executor = executor;
+    this.maxPending = maxPending;
+    this.pending = new Semaphore(maxPending);
+  }
+
+  static synchronized LdapExecutor getInstance() {
+    if (instance == null) {
+      instance = new LdapExecutor(createExecutor(), MAX_PENDING);
+    }
+    return instance;
+  }
+
+  /**
+   * Shuts down the shared executor, if it was created. Running operations are completed, new operations are
+   * rejected. A later call of {@link #getInstance()} creates a new executor.
+   */
+  static synchronized void shutdownInstance() {
+    if (instance != null) {
+      instance.shutdown();
+      instance = null;
+    }
+  }
+
+  @VisibleForTesting
+  void shutdown() {
+    if (executor instanceof ExecutorService) {
+      logger.debug("shutdown executor for asynchronous ldap operations");
+      ((ExecutorService) executor).shutdown();
+    }
+  }
+
+  /**
+   * Runs the supplier on the executor. The returned future fails with an {@link LdapException}, if too many
+   * operations are pending.
+   */
+  <T> CompletableFuture<T> supply(Supplier<T> supplier) {
+    try {
+      return CompletableFuture.supplyAsync(supplier, this);
+    } catch (RejectedExecutionException ex) {
+      CompletableFuture<T> future = new CompletableFuture<>();
+      future.completeExceptionally(new LdapException("too many pending ldap operations", ex));
+      return future;
+    }
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    if (!pending.tryAcquire()) {
+      throw new RejectedExecutionException("more than " + maxPending + " pending ldap operations");
+    }
+    try {
+      executor.execute(() -> {
+        try {
+          command.run();
+        } finally {
+          pending.release();
+        }
+      });
+    } catch (RejectedExecutionException ex) {
+      pending.release();
+      throw ex;
+    }
+  }
+
+  private static Executor createExecutor() {
+    try {
+      ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+        .invoke(null);
+      logger.debug("use virtual threads for asynchronous ldap operations");
+      return executor;
+    } catch (ReflectiveOperationException ex) {
+      logger.debug("virtual threads are not supported, use platform threads for asynchronous ldap operations");
+    }
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+      MAX_THREADS, MAX_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+      new ThreadFactoryBuilder().setNameFormat("ldap-async-%d").setDaemon(true).build()
+    );
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Caches the groups of principals. Entries which are older than the refresh time are still returned, but are
+ * reloaded in the background. Entries which are older than the ttl are removed. The size of the cache is limited by
+ * the sum of all cached group memberships.
+ */
+class LdapGroupCache implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(LdapGroupCache.class);
+
+  private final Function<String, Set<String>> loader;
+  private final Executor refreshExecutor;
+  private final Ticker ticker;
+
+  private LoadingCache<String, Set<String>> cache;
+  private int ttl = -1;
+  private int refresh = -1;
+  private int maxWeight = -1;
+
+  LdapGroupCache(Function<String, Set<String>> loader) {
+    this(loader, createRefreshExecutor(), Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  LdapGroupCache(Function<String, Set<String>> loader, Executor refreshExecutor, Ticker ticker) {
+    this.loader = loader;
+    this.refreshExecutor = refreshExecutor;
+    this.ticker = ticker;
+  }
+
+  private static Executor createRefreshExecutor() {
+    return new ThreadPoolExecutor(
+      1, 2, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1000),
+      new ThreadFactoryBuilder().setNameFormat("ldap-group-refresh-%d").setDaemon(true).build()
+    );
+  }
+
+  /**
+   * Returns the cached groups of the principal or loads them.
+   *
+   * @throws LdapException if the groups could not be loaded
+   */
+  Set<String> get(LdapConfig config, String principal) {
+    try {
+      return getCache(config).getUnchecked(principal);
+    } catch (UncheckedExecutionException ex) {
+      if (ex.getCause() instanceof LdapException) {
+        throw (LdapException) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+
+  void put(LdapConfig config, String principal, Set<String> groups) {
+    getCache(config).put(principal, groups);
+  }
+
+  synchronized void invalidateAll() {
+    if (cache != null) {
+      cache.invalidateAll();
+    }
+  }
+
+  /**
+   * Stops the background refresh and removes all entries.
+   */
+  @Override
+  public void close() {
+    if (refreshExecutor instanceof ExecutorService) {
+      ((ExecutorService) refreshExecutor).shutdownNow();
+    }
+    invalidateAll();
+  }
+
+  private synchronized LoadingCache<String, Set<String>> getCache(LdapConfig config) {
+    if (cache == null || ttl != config.getGroupCacheTtl() || refresh != config.getGroupCacheRefresh()
+      || maxWeight != config.getGroupCacheMaxWeight()) {
+      ttl = config.getGroupCacheTtl();
+      refresh = config.getGroupCacheRefresh();
+      maxWeight = config.getGroupCacheMaxWeight();
+      logger.debug("create group cache with ttl of {}s, refresh after {}s and max weight of {}", ttl, refresh, maxWeight);
+      CacheBuilder<String, Set<String>> builder = CacheBuilder.newBuilder()
+        .weigher((String principal, Set<String> groups) -> groups.size() + 1)
+        .maximumWeight(Math.max(0, maxWeight))
+        .expireAfterWrite(Math.max(0, ttl), TimeUnit.SECONDS)
+        .ticker(ticker);
+      if (refresh > 0 && refresh < ttl) {
+        builder.refreshAfterWrite(refresh, TimeUnit.SECONDS);
+      }
+      cache = builder.build(CacheLoader.asyncReloading(CacheLoader.from(this::load), refreshExecutor));
+    }
+    return cache;
+  }
+
+  private Set<String> load(String principal) {
+    logger.trace("load groups of {}", principal);
+    return Collections.unmodifiableSet(loader.apply(principal));
+  }
+}
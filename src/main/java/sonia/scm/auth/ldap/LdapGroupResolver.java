@@ -23,7 +23,9 @@
  */
 package sonia.scm.auth.ldap;
 
-import com.google.common.base.Strings;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.inject.util.Providers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,52 +35,130 @@ import sonia.scm.util.Util;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
-import javax.naming.NamingEnumeration;
+import javax.inject.Singleton;
 import javax.naming.NamingException;
-import javax.naming.directory.Attribute;
+import javax.naming.SizeLimitExceededException;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
-import java.text.MessageFormat;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 import static sonia.scm.auth.ldap.LdapUtil.*;
 
+@Singleton
 @Extension
 public class LdapGroupResolver implements GroupResolver {
 
   private static final Logger LOG = LoggerFactory.getLogger(LdapGroupResolver.class);
 
   private static final String ATTRIBUTE_GROUP_NAME = "cn";
-  private static final String NESTEDGROUP_MATCHINGRULE = ":1.2.840.113556.1.4.1941:=";
 
-  private final Provider<LdapConfig> store;
+  /**
+   * seconds the groups which were resolved during a login are kept, if the group cache is disabled
+   */
+  private static final long LOGIN_GROUPS_TTL = 10;
+
+  private final Supplier<CompiledLdapConfig> compiledConfig;
+  private final LdapConnectionFactory connectionFactory;
+  private final LdapGroupCache groupCache;
+  private final LdapUnknownUserCache unknownUserCache;
+  private final LdapOfflineCredentialStore offlineCredentialStore;
+  private final Cache<String, Set<String>> loginGroups = CacheBuilder.newBuilder()
+    .expireAfterWrite(LOGIN_GROUPS_TTL, TimeUnit.SECONDS)
+    .maximumSize(1000)
+    .build();
+  private final SingleFlight<String, Set<String>> resolutions = new SingleFlight<>();
+  private final TokenGroupResolver tokenGroupResolver = new TokenGroupResolver();
+  private final NestedGroupExpander nestedGroupExpander = new NestedGroupExpander();
+  private final GroupNameResolver groupNameResolver = new GroupNameResolver();
 
   @Inject
-  public LdapGroupResolver(LdapConfigStore store) {
-    this((Provider<LdapConfig>) store);
+  public LdapGroupResolver(LdapConfigStore store, PooledLdapConnectionFactory connectionFactory,
+                           LdapUnknownUserCache unknownUserCache, LdapOfflineCredentialStore offlineCredentialStore) {
+    this.compiledConfig = store::getCompiled;
+    this.connectionFactory = connectionFactory;
+    this.unknownUserCache = unknownUserCache;
+    this.offlineCredentialStore = offlineCredentialStore;
+    this.groupCache = new LdapGroupCache(principal -> resolveGroups(compiledConfig.get(), principal));
+    store.addChangeListener(config -> {
+      groupCache.invalidateAll();
+      loginGroups.invalidateAll();
+      tokenGroupResolver.invalidateAll();
+      nestedGroupExpander.invalidateAll();
+      groupNameResolver.invalidateAll();
+    });
+  }
+
+  @VisibleForTesting
+  LdapGroupResolver(Provider<LdapConfig> store, LdapConnectionFactory connectionFactory) {
+    this.compiledConfig = () -> CompiledLdapConfig.compile(store.get());
+    this.connectionFactory = connectionFactory;
+    this.unknownUserCache = null;
+    this.offlineCredentialStore = null;
+    this.groupCache = null;
   }
 
-  private LdapGroupResolver(Provider<LdapConfig> store) {
-    this.store = store;
+  /**
+   * Stops the background refresh of the group cache.
+   */
+  void close() {
+    if (groupCache != null) {
+      groupCache.close();
+    }
   }
 
   public static LdapGroupResolver from(LdapConfig config) {
-    return new LdapGroupResolver(Providers.of(config));
+    return new LdapGroupResolver(Providers.of(config), DirectLdapConnectionFactory.INSTANCE);
+  }
+
+  /**
+   * Resolves the groups on the shared ldap executor, so that the caller can do other work in the meantime.
+   */
+  public CompletableFuture<Set<String>> resolveAsync(String principal) {
+    return LdapExecutor.getInstance().supply(() -> resolve(principal));
   }
 
   @Override
   public Set<String> resolve(String principal) {
-    LdapConfig config = store.get();
+    CompiledLdapConfig compiled = compiledConfig.get();
+    LdapConfig config = compiled.getConfig();
     if (config.isEnabled()) {
       try {
-        return resolveGroups(config, principal);
+        if (unknownUserCache != null && unknownUserCache.isUnknown(config, principal)) {
+          LOG.debug("principal {} is not known by ldap, returning empty set of groups", principal);
+          return Collections.emptySet();
+        }
+        Set<String> groups = loginGroups.getIfPresent(principal);
+        if (groups != null) {
+          LOG.trace("use groups of {} which were resolved during login", principal);
+          return groups;
+        }
+        if (groupCache != null && config.isGroupCacheEnabled()) {
+          return groupCache.get(config, principal);
+        }
+        try (LoginDeadline deadline = LoginDeadline.start(config.getLoginTimeout())) {
+          return resolutions.execute(principal, () -> resolveGroups(compiled, principal));
+        }
+      } catch (DirectoryUnavailableException ex) {
+        Optional<Set<String>> offlineGroups = getOfflineGroups(config, principal);
+        if (offlineGroups.isPresent()) {
+          LOG.warn("directory is unavailable, use groups of last login for {}", principal);
+          return offlineGroups.get();
+        }
+        LOG.error("failed to resolve groups for principal: {}", principal, ex);
       } catch (LdapException ex) {
-        LOG.error("failed to resolve groups for principal: {}", ex);
+        LOG.error("failed to resolve groups for principal: {}", principal, ex);
       }
     } else {
       LOG.debug("ldap is disabled, returning empty set of groups");
@@ -86,98 +166,256 @@ public class LdapGroupResolver implements GroupResolver {
     return Collections.emptySet();
   }
 
-  private Set<String> resolveGroups(LdapConfig config, String principal) {
-    try (LdapConnection bindConnection = LdapConnection.createBindConnection(config)) {
-      UserSearcher searcher = new UserSearcher(config, bindConnection);
-      Optional<SearchResult> optionalSearchResult = searcher.search(principal, config.getAttributeNameGroup(), config.getAttributeNameMail());
+  private Optional<Set<String>> getOfflineGroups(LdapConfig config, String principal) {
+    if (offlineCredentialStore == null) {
+      return Optional.empty();
+    }
+    return offlineCredentialStore.getGroups(config, principal);
+  }
+
+  @VisibleForTesting
+  Set<String> resolveGroups(CompiledLdapConfig compiled, String principal) {
+    LdapConfig config = compiled.getConfig();
+    try (LoginDeadline deadline = LoginDeadline.start(config.getLoginTimeout());
+         LdapConnection bindConnection = connectionFactory.createBindConnection(config)) {
+      CompletableFuture<List<SearchResult>> groupSearch = null;
+      if (bindConnection.isAsynchronous() && isGroupSearchIndependentOfUserEntry(compiled)) {
+        // the group search does not need the user entry, so it is sent before the user search and both are answered
+        // in one round trip
+        groupSearch = startGroupSearch(compiled, bindConnection, principal);
+      }
+      UserSearcher searcher = new UserSearcher(compiled, bindConnection);
+      Optional<SearchResult> optionalSearchResult;
+      try {
+        optionalSearchResult = searcher.search(principal, compiled.getGroupResolutionAttributes());
+      } catch (RuntimeException ex) {
+        cancel(groupSearch);
+        throw ex;
+      }
       if (optionalSearchResult.isPresent()) {
         SearchResult searchResult = optionalSearchResult.get();
-
-        Attributes attributes = searchResult.getAttributes();
-        String userDn = searchResult.getNameInNamespace();
-        String mailAttribute = getAttribute(attributes, config.getAttributeNameMail());
-        Set<String> groups = fetchGroups(bindConnection, userDn, principal, mailAttribute);
-        groups.addAll(getGroups(attributes));
-        return groups;
+        if (groupSearch != null) {
+          Map<String, String> groups = awaitGroups(config, principal, groupSearch);
+          groups.putAll(getGroups(config, bindConnection, searchResult.getNameInNamespace(), searchResult.getAttributes()));
+          return expandGroups(compiled, bindConnection, groups);
+        }
+        return resolveGroups(compiled, bindConnection, principal, searchResult);
       }
+      cancel(groupSearch);
+    }
+    if (unknownUserCache != null) {
+      unknownUserCache.markUnknown(config, principal);
     }
     return Collections.emptySet();
   }
 
-  private Set<String> getGroups(Attributes attributes) {
-    Set<String> groups = new HashSet<>();
+  /**
+   * Returns {@code true} if the group search filter uses only the name of the user. The dn ({0}) and the mail
+   * address ({2}) are only known after the user search.
+   */
+  static boolean isGroupSearchIndependentOfUserEntry(CompiledLdapConfig config) {
+    if (isTokenGroupsEnabled(config.getConfig())) {
+      return false;
+    }
+    return config.getGroupFilter()
+      .map(filter -> filter.uses(1) && !filter.uses(0) && !filter.uses(2))
+      .orElse(false);
+  }
+
+  private CompletableFuture<List<SearchResult>> startGroupSearch(CompiledLdapConfig config, LdapConnection connection, String uid) {
+    String filter = createGroupSearchFilter(config, "", uid, null).orElseThrow(IllegalStateException::new);
+    String searchDN = config.getGroupDn();
+    LOG.debug("start search for groups of user {} at {} with filter {}", uid, searchDN, filter);
+    return connection.searchAsync(searchDN, filter, createGroupSearchControls(), config.getConfig().getGroupSearchPageSize());
+  }
+
+  /**
+   * Waits for the result of a pipelined group search, at most for the remaining time of the login deadline or the
+   * read timeout. Like {@link #fetchGroups(CompiledLdapConfig, LdapConnection, String, String, String)}, the groups
+   * which were found until the size limit of the server was exceeded are used, other failures are thrown, so that
+   * they are not cached as if the user had no groups.
+   */
+  private Map<String, String> awaitGroups(LdapConfig config, String uid, CompletableFuture<List<SearchResult>> groupSearch) {
+    Map<String, String> groups = new HashMap<>();
+    int timeout = LoginDeadline.limit(config.getReadTimeout(), "group search");
+    try {
+      List<SearchResult> results = timeout > 0 ? groupSearch.get(timeout, TimeUnit.MILLISECONDS) : groupSearch.get();
+      for (SearchResult searchResult : results) {
+        addGroup(groups, searchResult);
+      }
+    } catch (ExecutionException ex) {
+      if (!(ex.getCause() instanceof PartialSizeLimitExceededException)) {
+        throw new LdapException("could not find groups of user " + uid, ex.getCause());
+      }
+      for (SearchResult searchResult : ((PartialSizeLimitExceededException) ex.getCause()).getResults()) {
+        addGroup(groups, searchResult);
+      }
+      warnSizeLimitExceeded(config, uid, groups.size());
+    } catch (TimeoutException ex) {
+      cancel(groupSearch);
+      throw new LdapException("group search of user " + uid + " did not finish within " + timeout + "ms", ex);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      cancel(groupSearch);
+      throw new LdapException("interrupted while waiting for the groups of user " + uid, ex);
+    }
+    return groups;
+  }
+
+  /**
+   * Warns about an incomplete group search. The pipelined and the synchronous search both use the configured page
+   * size, so paging is the remedy for both.
+   */
+  private static void warnSizeLimitExceeded(LdapConfig config, String uid, int count) {
+    if (config.getGroupSearchPageSize() > 0) {
+      LOG.warn(
+        "group search for user {} exceeded the size limit of the server, only {} groups are used; "
+          + "decrease the group search page size below the size limit or increase the size limit of the server",
+        uid, count
+      );
+    } else {
+      LOG.warn(
+        "group search for user {} exceeded the size limit of the server, only {} groups are used; "
+          + "enable paging with a group search page size below the size limit or increase the size limit of the server",
+        uid, count
+      );
+    }
+  }
+
+  /**
+   * Abandons a pipelined group search, whose result is no longer needed, e.g. because the user was not found.
+   */
+  private static void cancel(CompletableFuture<List<SearchResult>> groupSearch) {
+    if (groupSearch != null) {
+      groupSearch.cancel(false);
+    }
+  }
+
+  /**
+   * Resolves the groups of a user, which was already found by the login, so that the login and the group resolution
+   * share the same user search. The groups are kept for a short time or are stored in the group cache, so that the
+   * following call of {@link #resolve(String)} does not have to contact the directory again.
+   */
+  void resolveFromLogin(CompiledLdapConfig compiled, LdapConnection connection, String principal, SearchResult searchResult) {
+    LdapConfig config = compiled.getConfig();
+    Set<String> groups = Collections.unmodifiableSet(resolveGroups(compiled, connection, principal, searchResult));
+    LOG.debug("resolved groups of {} during login", principal);
+    if (groupCache != null && config.isGroupCacheEnabled()) {
+      groupCache.put(config, principal, groups);
+    } else {
+      loginGroups.put(principal, groups);
+    }
+  }
+
+  private Set<String> resolveGroups(CompiledLdapConfig compiled, LdapConnection connection, String principal,
+                                    SearchResult searchResult) {
+    LdapConfig config = compiled.getConfig();
+    Attributes attributes = searchResult.getAttributes();
+    String userDn = searchResult.getNameInNamespace();
+    if (isTokenGroupsEnabled(config)) {
+      Set<String> groups = fetchTokenGroups(compiled, connection, userDn);
+      groups.addAll(getGroups(config, connection, userDn, attributes).values());
+      return groups;
+    }
+    String mailAttribute = getAttribute(attributes, config.getAttributeNameMail());
+    Map<String, String> groups = fetchGroups(compiled, connection, userDn, principal, mailAttribute);
+    groups.putAll(getGroups(config, connection, userDn, attributes));
+    return expandGroups(compiled, connection, groups);
+  }
+
+  /**
+   * Returns the names of the groups and, if enabled, the names of the groups they are nested in.
+   *
+   * @param groups dn to name of the direct groups of the user
+   */
+  private Set<String> expandGroups(CompiledLdapConfig config, LdapConnection connection, Map<String, String> groups) {
+    Set<String> names = new HashSet<>(groups.values());
+    if (isNestedGroupExpansionEnabled(config.getConfig()) && !groups.isEmpty()) {
+      names.addAll(nestedGroupExpander.expand(config, connection, groups.keySet()));
+    }
+    return names;
+  }
+
+  /**
+   * The expansion is not required for active directory, which expands nested groups on the server.
+   */
+  private static boolean isNestedGroupExpansionEnabled(LdapConfig config) {
+    return config.isExpandNestedGroups() && !config.isEnableNestedADGroups() && Util.isNotEmpty(config.getSearchFilterGroup());
+  }
+
+  private static boolean isTokenGroupsEnabled(LdapConfig config) {
+    return config.isEnableNestedADGroups() && config.getNestedADGroupStrategy() == NestedADGroupStrategy.TOKEN_GROUPS;
+  }
+
+  /**
+   * Fails instead of returning an empty set, so that an error is not cached as if the user had no groups.
+   */
+  private Set<String> fetchTokenGroups(CompiledLdapConfig config, LdapConnection connection, String userDN) {
+    LOG.trace("try to fetch token groups for user {}", userDN);
+    try {
+      return tokenGroupResolver.resolve(config, connection, userDN);
+    } catch (NamingException ex) {
+      throw new LdapException("could not resolve token groups of user " + userDN, ex);
+    }
+  }
+
+  /**
+   * Returns the groups of the group attribute of the user, as dn to name.
+   */
+  private Map<String, String> getGroups(LdapConfig config, LdapConnection connection, String userDn, Attributes attributes) {
+    Map<String, String> groups = new HashMap<>();
 
-    LdapConfig config = store.get();
     String groupAttribute = config.getAttributeNameGroup();
 
     if (Util.isNotEmpty(groupAttribute)) {
       LOG.trace("try to get groups from group attribute {}", groupAttribute);
-      NamingEnumeration<?> userGroupsEnm = null;
 
       try {
-        Attribute groupsAttribute = attributes.get(groupAttribute);
-        if (groupsAttribute != null) {
-          userGroupsEnm = groupsAttribute.getAll();
-
-          while (userGroupsEnm.hasMore()) {
-            String group = (String) userGroupsEnm.next();
-
-            group = getName(group);
-            LOG.debug("append group {} to user result", group);
-            groups.add(group);
-          }
-        } else {
+        // large attributes are returned in ranges by active directory
+        RangedAttributeReader.read(connection, userDn, attributes, groupAttribute, value -> {
+          String groupDn = (String) value;
+
+          String group = getName(groupDn);
+          LOG.debug("append group {} to user result", group);
+          groups.put(groupDn, group);
+        });
+        if (groups.isEmpty()) {
           LOG.debug("user has no group attributes assigned");
         }
       } catch (NamingException ex) {
         LOG.warn("could not read group attribute", ex);
-      } finally {
-        close(userGroupsEnm);
       }
     } else {
       LOG.debug("group attribute is empty");
     }
+    if (config.isResolveGroupAttributeNames() && !groups.isEmpty()) {
+      return groupNameResolver.resolve(connection, groups.keySet());
+    }
     return groups;
   }
 
-  private Set<String> fetchGroups(LdapConnection connection, String userDN, String uid, String mail) {
-    Set<String> groups = new HashSet<>();
+  /**
+   * Searches the groups of the user. If the size limit of the server is exceeded, the groups found until then are
+   * used. Other failures are thrown, so that they are not cached as if the user had no groups.
+   */
+  private Map<String, String> fetchGroups(CompiledLdapConfig config, LdapConnection connection, String userDN, String uid, String mail) {
+    Map<String, String> groups = new HashMap<>();
 
-    Optional<String> optionalFilter = createGroupSearchFilter(userDN, uid, mail);
+    Optional<String> optionalFilter = createGroupSearchFilter(config, userDN, uid, mail);
     if (optionalFilter.isPresent()) {
       LOG.trace("try to fetch groups for user {}", uid);
 
-
-      // read group of unique names
-      SearchControls searchControls = new SearchControls();
-
-      searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
-
-      // make group name attribute configurable?
-      searchControls.setReturningAttributes(new String[]{ATTRIBUTE_GROUP_NAME});
-
       String filter = optionalFilter.get();
 
-      LdapConfig config = store.get();
-      String searchDN = LdapUtil.createDN(config, config.getUnitGroup());
+      String searchDN = config.getGroupDn();
       LOG.debug("search groups for user {} at {} with filter {}", userDN, searchDN, filter);
 
-      try (AutoCloseableNamingEnumeration<SearchResult> searchResultEnm = connection.search(searchDN, filter, searchControls)) {
-        while (searchResultEnm.hasMore()) {
-          SearchResult searchResult = searchResultEnm.next();
-          Attributes groupAttributes = searchResult.getAttributes();
-          String name = getAttribute(groupAttributes,
-            ATTRIBUTE_GROUP_NAME);
-
-          if (Util.isNotEmpty(name)) {
-            LOG.trace("append group {} with name {} to user result", searchResult.getNameInNamespace(), name);
-            groups.add(name);
-          } else {
-            LOG.debug("could not read group name from {}", searchResult.getNameInNamespace());
-          }
-        }
+      try {
+        searchGroups(config, connection, searchDN, filter, groups);
+      } catch (SizeLimitExceededException ex) {
+        warnSizeLimitExceeded(config.getConfig(), uid, groups.size());
       } catch (NamingException ex) {
-        LOG.debug("could not find groups", ex);
+        throw new LdapException("could not find groups of user " + uid, ex);
       }
     } else {
       LOG.debug("group filter is empty");
@@ -185,63 +423,53 @@ public class LdapGroupResolver implements GroupResolver {
     return groups;
   }
 
-  private Optional<String> createGroupSearchFilter(String userDN, String uid, String mail) {
-    LdapConfig config = store.get();
-    String filterPattern = config.getSearchFilterGroup();
+  private void searchGroups(CompiledLdapConfig config, LdapConnection connection, String searchDN, String filter,
+                            Map<String, String> groups) throws NamingException {
+    int pageSize = config.getConfig().getGroupSearchPageSize();
+    if (pageSize > 0) {
+      connection.searchPaged(searchDN, filter, createGroupSearchControls(), pageSize, result -> addGroup(groups, result));
+    } else {
+      try (AutoCloseableNamingEnumeration<SearchResult> searchResultEnm = connection.search(searchDN, filter, createGroupSearchControls())) {
+        while (searchResultEnm.hasMore()) {
+          addGroup(groups, searchResultEnm.next());
+        }
+      }
+    }
+  }
+
+  private SearchControls createGroupSearchControls() {
+    // read group of unique names
+    SearchControls searchControls = new SearchControls();
 
-    if (Util.isNotEmpty(filterPattern)) {
+    searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
 
-      if (config.isEnableNestedADGroups()) {
-        filterPattern = prepareFilterPatternForNestedGroups(filterPattern,
-          escapeLDAPSearchFilter(userDN));
-      }
-      String filter = MessageFormat.format(filterPattern, escapeLDAPSearchFilter(userDN), uid, Strings.nullToEmpty(mail));
-      LOG.debug("search-filter for group search: {}", filter);
+    // make group name attribute configurable?
+    searchControls.setReturningAttributes(new String[]{ATTRIBUTE_GROUP_NAME});
+    return searchControls;
+  }
 
-      return Optional.of(filter);
+  private void addGroup(Map<String, String> groups, SearchResult searchResult) {
+    String name = getAttribute(searchResult.getAttributes(), ATTRIBUTE_GROUP_NAME);
+
+    if (Util.isNotEmpty(name)) {
+      LOG.trace("append group {} with name {} to user result", searchResult.getNameInNamespace(), name);
+      groups.put(searchResult.getNameInNamespace(), name);
     } else {
-      LOG.debug("search-filter for groups not defined");
+      LOG.debug("could not read group name from {}", searchResult.getNameInNamespace());
     }
-    return Optional.empty();
   }
 
-  private String prepareFilterPatternForNestedGroups(String filterPattern, String userDN) {
-    return filterPattern.replaceAll(Pattern.quote("={0}"),
-      NESTEDGROUP_MATCHINGRULE.concat(userDN));
-  }
+  private Optional<String> createGroupSearchFilter(CompiledLdapConfig config, String userDN, String uid, String mail) {
+    Optional<FilterTemplate> filterTemplate = config.getGroupFilter();
 
-  /**
-   * Sanitize LDAP search filter to prevent LDAP injection.
-   * Source: https://www.owasp.org/index.php/Preventing_LDAP_Injection_in_Java
-   * \\\\ is there because java.MessageFormat.format() is suppressing \\ to \
-   *
-   * @param filter
-   * @return
-   */
-  public String escapeLDAPSearchFilter(String filter) {
-    StringBuilder sb = new StringBuilder();
-    for (int i = 0; i < filter.length(); i++) {
-      char curChar = filter.charAt(i);
-      switch (curChar) {
-        case '\\':
-          sb.append("\\\\5c");
-          break;
-        case '*':
-          sb.append("\\\\2a");
-          break;
-        case '(':
-          sb.append("\\\\28");
-          break;
-        case ')':
-          sb.append("\\\\29");
-          break;
-        case '\u0000':
-          sb.append("\\\\00");
-          break;
-        default:
-          sb.append(curChar);
-      }
+    if (filterTemplate.isPresent()) {
+      String filter = filterTemplate.get().format(userDN, uid, mail);
+      LOG.debug("search-filter for group search: {}", filter);
+
+      return Optional.of(filter);
+    } else {
+      LOG.debug("search-filter for groups not defined");
     }
-    return sb.toString();
+    return Optional.empty();
   }
 }
@@ -0,0 +1,66 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package sonia.scm.auth.ldap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.plugin.Extension;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Releases the connections and threads of the plugin, when the context is destroyed.
+ */
+@Singleton
+@Extension
+public class LdapLifecycle implements ServletContextListener {
+
+  private static final Logger logger = LoggerFactory.getLogger(LdapLifecycle.class);
+
+  private final PooledLdapConnectionFactory connectionFactory;
+  private final LdapGroupResolver groupResolver;
+
+  @Inject
+  LdapLifecycle(PooledLdapConnectionFactory connectionFactory, LdapGroupResolver groupResolver) {
+    this.connectionFactory = connectionFactory;
+    this.groupResolver = groupResolver;
+  }
+
+  @Override
+  public void contextInitialized(ServletContextEvent sce) {
+    // nothing to do
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent sce) {
+    logger.debug("stop group cache refresh, asynchronous operations and close ldap connection pools");
+    groupResolver.close();
+    LdapExecutor.shutdownInstance();
+    connectionFactory.close();
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.store.DataStore;
+import sonia.scm.store.DataStoreFactory;
+import sonia.scm.user.User;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent store of {@link OfflineCredential}s of recently successful logins. The credentials are only used while
+ * the circuits of all ldap servers are open, and only if the last successful login of the user is not older than the
+ * configured maximum offline age. The store is cleared whenever the configuration is stored.
+ */
+@Singleton
+class LdapOfflineCredentialStore {
+
+  private static final Logger logger = LoggerFactory.getLogger(LdapOfflineCredentialStore.class);
+
+  /**
+   * unchanged credentials are written at most once within this period, to update the time of the last login
+   */
+  private static final long WRITE_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+  private static final int MAX_WRITE_MARKERS = 10000;
+
+  private final DataStore<OfflineCredential> store;
+
+  /**
+   * digests of the last written credentials, which allow to skip unchanged writes without the slow password hash
+   */
+  private final Cache<String, WriteMarker> writeMarkers = CacheBuilder.newBuilder()
+    .expireAfterWrite(WRITE_INTERVAL, TimeUnit.MILLISECONDS)
+    .maximumSize(MAX_WRITE_MARKERS)
+    .build();
+  private final byte[] markerSalt = new byte[16];
+
+  @Inject
+  LdapOfflineCredentialStore(DataStoreFactory dataStoreFactory, LdapConfigStore configStore) {
+    this(dataStoreFactory.withType(OfflineCredential.class).withName("ldap-offline-credentials").build());
+    configStore.addChangeListener(config -> clear());
+  }
+
+  @VisibleForTesting
+  LdapOfflineCredentialStore(DataStore<OfflineCredential> store) {
+    this.store = store;
+    new SecureRandom().nextBytes(markerSalt);
+  }
+
+  /**
+   * Remembers the credentials and groups of a user after a successful login against the directory.
+   */
+  void remember(LdapConfig config, String username, char[] password, User user, Set<String> groups) {
+    if (!config.isOfflineAuthenticationEnabled()) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    byte[] digest = digest(username, password, user, groups);
+    WriteMarker marker = writeMarkers.getIfPresent(username);
+    if (marker != null && now - marker.written < WRITE_INTERVAL && MessageDigest.isEqual(marker.digest, digest)) {
+      return;
+    }
+    logger.trace("store offline credentials of {}", username);
+    store.put(username, new OfflineCredential(user, PasswordFingerprint.of(password), groups, now));
+    writeMarkers.put(username, new WriteMarker(now, digest));
+  }
+
+  /**
+   * Authenticates the user with the stored credentials.
+   *
+   * @return the user of the last successful login or an empty optional, if there are no valid credentials or the
+   * password does not match
+   */
+  Optional<User> authenticate(LdapConfig config, String username, char[] password) {
+    Optional<OfflineCredential> credential = get(config, username);
+    if (credential.isPresent() && credential.get().getFingerprint().matches(password)) {
+      return Optional.of(credential.get().toUser());
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Returns {@code true} if there are valid credentials of the user, regardless of the password.
+   */
+  boolean hasCredentials(LdapConfig config, String username) {
+    return get(config, username).isPresent();
+  }
+
+  /**
+   * Returns the groups of the last successful login of the user.
+   */
+  Optional<Set<String>> getGroups(LdapConfig config, String username) {
+    return get(config, username).map(OfflineCredential::getGroups);
+  }
+
+  private Optional<OfflineCredential> get(LdapConfig config, String username) {
+    if (!config.isOfflineAuthenticationEnabled()) {
+      return Optional.empty();
+    }
+    OfflineCredential credential = store.get(username);
+    if (credential == null) {
+      return Optional.empty();
+    }
+    long maxAge = TimeUnit.SECONDS.toMillis(config.getOfflineAuthenticationMaxAge());
+    if (System.currentTimeMillis() - credential.getLastLogin() > maxAge) {
+      logger.debug("offline credentials of {} are too old, remove them", username);
+      store.remove(username);
+      return Optional.empty();
+    }
+    return Optional.of(credential);
+  }
+
+  void clear() {
+    logger.debug("remove all offline credentials");
+    writeMarkers.invalidateAll();
+    store.clear();
+  }
+
+  private byte[] digest(String username, char[] password, User user, Set<String> groups) {
+    try {
+      MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+      messageDigest.update(markerSalt);
+      update(messageDigest, username);
+      update(messageDigest, new String(password));
+      update(messageDigest, user.getName());
+      update(messageDigest, user.getDisplayName());
+      update(messageDigest, user.getMail());
+      for (String group : new TreeSet<>(groups)) {
+        update(messageDigest, group);
+      }
+      return messageDigest.digest();
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException("SHA-256 is not available", ex);
+    }
+  }
+
+  private static void update(MessageDigest messageDigest, String value) {
+    if (value != null) {
+      messageDigest.update(value.getBytes(StandardCharsets.UTF_8));
+    }
+    // separator, to distinguish "ab" + "c" from "a" + "bc"
+    messageDigest.update((byte) 0);
+  }
+
+  private static final class WriteMarker {
+
+    private final long written;
+    private final byte[] digest;
+
+    private WriteMarker(long written, byte[] digest) {
+      this.written = written;
+      this.digest = digest;
+    }
+  }
+}
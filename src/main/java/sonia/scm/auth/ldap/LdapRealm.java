@@ -27,6 +27,7 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import org.apache.shiro.authc.AuthenticationInfo;
 import org.apache.shiro.authc.AuthenticationToken;
+import org.apache.shiro.authc.IncorrectCredentialsException;
 import org.apache.shiro.authc.UnknownAccountException;
 import org.apache.shiro.authc.UsernamePasswordToken;
 import org.apache.shiro.authc.credential.AllowAllCredentialsMatcher;
@@ -37,6 +38,12 @@ import sonia.scm.plugin.Extension;
 import sonia.scm.security.SyncingRealmHelper;
 import sonia.scm.user.User;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Optional;
+
 import static com.google.common.base.Preconditions.checkArgument;
 
 @Singleton
@@ -49,18 +56,35 @@ public class LdapRealm extends AuthenticatingRealm {
 
   private final SyncingRealmHelper syncingRealmHelper;
   private final LdapConfigStore configStore;
+  private final LdapConnectionFactory connectionFactory;
+  private final LdapAuthenticationCache authenticationCache;
+  private final LdapUserCache userCache;
+  private final LdapUnknownUserCache unknownUserCache;
+  private final LdapGroupResolver groupResolver;
+  private final LdapOfflineCredentialStore offlineCredentialStore;
+  private final SingleFlight<LoginKey, User> logins = new SingleFlight<>();
 
   @Inject
-  public LdapRealm(LdapConfigStore configStore, SyncingRealmHelper syncingRealmHelper) {
+  public LdapRealm(LdapConfigStore configStore, SyncingRealmHelper syncingRealmHelper,
+                   PooledLdapConnectionFactory connectionFactory, LdapAuthenticationCache authenticationCache,
+                   LdapUserCache userCache, LdapUnknownUserCache unknownUserCache,
+                   LdapGroupResolver groupResolver, LdapOfflineCredentialStore offlineCredentialStore) {
     this.configStore = configStore;
     this.syncingRealmHelper = syncingRealmHelper;
+    this.connectionFactory = connectionFactory;
+    this.authenticationCache = authenticationCache;
+    this.userCache = userCache;
+    this.unknownUserCache = unknownUserCache;
+    this.groupResolver = groupResolver;
+    this.offlineCredentialStore = offlineCredentialStore;
     setAuthenticationTokenClass(UsernamePasswordToken.class);
     setCredentialsMatcher(new AllowAllCredentialsMatcher());
   }
 
   @Override
   protected AuthenticationInfo doGetAuthenticationInfo(AuthenticationToken token) {
-    LdapConfig config = configStore.get();
+    CompiledLdapConfig compiled = configStore.getCompiled();
+    LdapConfig config = compiled.getConfig();
     if (!config.isEnabled()) {
       logger.debug("ldap not enabled - skipping authentication");
       return null;
@@ -72,11 +96,101 @@ public class LdapRealm extends AuthenticatingRealm {
     String username = upt.getUsername();
     char[] password = upt.getPassword();
 
-    LdapAuthenticator authenticator = new LdapAuthenticator(config);
-    User user = authenticator.authenticate(username, new String(password))
-      .orElseThrow(() -> new UnknownAccountException("could not find account with name " + username));
+    Optional<User> cachedUser = authenticationCache.get(config, username, password);
+    if (cachedUser.isPresent()) {
+      logger.debug("use cached authentication for {}", username);
+      return syncingRealmHelper.createAuthenticationInfo(TYPE, cachedUser.get());
+    }
 
-    syncingRealmHelper.store(user);
+    if (unknownUserCache.isUnknown(config, username)) {
+      throw new UnknownAccountException("could not find account with name " + username);
+    }
+
+    User user;
+    // the deadline limits the login as well as the wait for a concurrent login with the same credentials
+    try (LoginDeadline deadline = LoginDeadline.start(config.getLoginTimeout())) {
+      user = logins.execute(new LoginKey(username, password), () -> authenticate(compiled, username, password));
+    } catch (DirectoryUnavailableException ex) {
+      user = authenticateOffline(config, username, password, ex);
+    }
     return syncingRealmHelper.createAuthenticationInfo(TYPE, user);
   }
+
+  private User authenticateOffline(LdapConfig config, String username, char[] password, DirectoryUnavailableException ex) {
+    if (!offlineCredentialStore.hasCredentials(config, username)) {
+      throw ex;
+    }
+    Optional<User> user = offlineCredentialStore.authenticate(config, username, password);
+    if (!user.isPresent()) {
+      logger.debug("directory is unavailable and password of {} does not match offline credentials", username);
+      throw new IncorrectCredentialsException("password of " + username + " does not match offline credentials");
+    }
+    logger.warn("directory is unavailable, authenticated {} with offline credentials", username);
+    return user.get();
+  }
+
+  private User authenticate(CompiledLdapConfig compiled, String username, char[] password) {
+    LdapConfig config = compiled.getConfig();
+    LdapAuthenticator authenticator = new LdapAuthenticator(compiled, connectionFactory, userCache, groupResolver);
+    Optional<User> optionalUser = authenticator.authenticate(username, new String(password));
+    if (!optionalUser.isPresent()) {
+      unknownUserCache.markUnknown(config, username);
+      throw new UnknownAccountException("could not find account with name " + username);
+    }
+
+    User user = optionalUser.get();
+
+    syncingRealmHelper.store(user);
+    authenticationCache.put(config, username, password, user);
+    if (config.isOfflineAuthenticationEnabled()) {
+      offlineCredentialStore.remember(config, username, password, user, groupResolver.resolve(user.getName()));
+    }
+    return user;
+  }
+
+  /**
+   * Identifies concurrent logins with the same credentials. Only a digest of the password is kept, as long as the
+   * login is in progress.
+   */
+  private static final class LoginKey {
+
+    private final String username;
+    private final byte[] passwordDigest;
+
+    private LoginKey(String username, char[] password) {
+      this.username = username;
+      this.passwordDigest = digest(password);
+    }
+
+    private static byte[] digest(char[] password) {
+      try {
+        MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+        return messageDigest.digest(new String(password).getBytes(StandardCharsets.UTF_8));
+      } catch (NoSuchAlgorithmException ex) {
+        throw new IllegalStateException("SHA-256 is not available", ex);
+      }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      LoginKey other = (LoginKey) o;
+      return username.equals(other.username) && MessageDigest.isEqual(passwordDigest, other.passwordDigest);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * username.hashCode() + Arrays.hashCode(passwordDigest);
+    }
+
+    @Override
+    public String toString() {
+      return "login of " + username;
+    }
+  }
 }
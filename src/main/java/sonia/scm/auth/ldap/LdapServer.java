@@ -0,0 +1,239 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.CommunicationException;
+import javax.naming.ServiceUnavailableException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State of one of the configured ldap servers: a circuit breaker which shows whether the server can be used, how
+ * fast it has answered and how many connections to it are currently in use.
+ * <p>
+ * The circuit is {@link State#CLOSED closed} as long as the server answers. After the configured number of
+ * consecutive connection failures it is {@link State#OPEN opened} and the server is no longer used. Once the probe
+ * interval has passed, the circuit is {@link State#HALF_OPEN half open} while a single health probe checks the
+ * server, which closes the circuit again on success or reopens it on failure.
+ * <p>
+ * The transitions are logged together with the number of openings and of the requests, which were rejected while
+ * the circuit was open. There is no other metrics surface for these counters.
+ */
+class LdapServer {
+
+  private static final Logger logger = LoggerFactory.getLogger(LdapServer.class);
+
+  /**
+   * weight of a new latency measurement in the moving average
+   */
+  private static final double LATENCY_WEIGHT = 0.3;
+
+  enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final String url;
+  private final int failureThreshold;
+  private final long probeInterval;
+  private final AtomicInteger activeConnections = new AtomicInteger();
+  private final AtomicLong rejectedRequests = new AtomicLong();
+
+  private volatile State state = State.CLOSED;
+  private volatile long latency = -1;
+  private volatile long lastCheckedAt;
+  private volatile long stateChangedAt = System.currentTimeMillis();
+  // written only while holding the lock, read without it on the fast path of recordAvailable
+  private volatile int consecutiveFailures;
+  private long openCount;
+
+  LdapServer(String url) {
+    this(url, 1, 0);
+  }
+
+  /**
+   * @param url              url of the server
+   * @param failureThreshold consecutive failures after which the circuit is opened
+   * @param probeInterval    milliseconds after which an open circuit is probed again
+   */
+  LdapServer(String url, int failureThreshold, long probeInterval) {
+    this.url = url;
+    this.failureThreshold = Math.max(1, failureThreshold);
+    this.probeInterval = Math.max(0, probeInterval);
+  }
+
+  /**
+   * Returns {@code true} if the exception, or one of its causes, shows that the server could not be reached.
+   */
+  static boolean isConnectionFailure(Throwable throwable) {
+    Throwable cause = throwable;
+    while (cause != null) {
+      if (cause instanceof CommunicationException || cause instanceof ServiceUnavailableException
+        || cause instanceof IOException) {
+        return true;
+      }
+      cause = cause.getCause();
+    }
+    return false;
+  }
+
+  /**
+   * Records a successful health probe with its latency in nanoseconds and closes the circuit.
+   */
+  void recordSuccess(long latencyNanos) {
+    long current = latency;
+    latency = current < 0 ? latencyNanos : (long) (LATENCY_WEIGHT * latencyNanos + (1 - LATENCY_WEIGHT) * current);
+    lastCheckedAt = System.currentTimeMillis();
+    recordAvailable();
+  }
+
+  /**
+   * Records that a connection to the server could be opened and closes the circuit. This is called for every new
+   * connection, so the lock is only taken if the circuit is not closed or a failure has to be reset.
+   */
+  void recordAvailable() {
+    if (state == State.CLOSED && consecutiveFailures == 0) {
+      return;
+    }
+    synchronized (this) {
+      consecutiveFailures = 0;
+      if (state != State.CLOSED) {
+        transition(State.CLOSED, null);
+      }
+    }
+  }
+
+  /**
+   * Records that the server could not be reached, which opens the circuit if the failure threshold is reached or if
+   * the circuit was half open.
+   */
+  synchronized void recordFailure(Throwable cause) {
+    lastCheckedAt = System.currentTimeMillis();
+    consecutiveFailures++;
+    if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+      transition(State.OPEN, cause);
+    }
+  }
+
+  /**
+   * Moves an open circuit to half open, if the probe interval has passed since it was opened or last probed.
+   *
+   * @return {@code true} if the caller should probe the server
+   */
+  synchronized boolean tryHalfOpen() {
+    long now = System.currentTimeMillis();
+    if (state == State.OPEN && now - Math.max(stateChangedAt, lastCheckedAt) >= probeInterval) {
+      transition(State.HALF_OPEN, null);
+      return true;
+    }
+    // a probe which has not finished within the interval, is replaced by a new one
+    return state == State.HALF_OPEN && now - stateChangedAt >= probeInterval;
+  }
+
+  private void transition(State newState, Throwable cause) {
+    State oldState = state;
+    state = newState;
+    stateChangedAt = System.currentTimeMillis();
+    if (newState == State.OPEN) {
+      if (oldState == State.CLOSED) {
+        openCount++;
+      }
+      logger.warn(
+        "circuit of ldap server {} changed from {} to {} after {} consecutive failures, opened {} times",
+        url, oldState, newState, consecutiveFailures, openCount, cause
+      );
+    } else if (newState == State.CLOSED) {
+      logger.info(
+        "circuit of ldap server {} changed from {} to {}, {} requests were rejected while it was open",
+        url, oldState, newState, rejectedRequests.get()
+      );
+    } else {
+      logger.info("circuit of ldap server {} changed from {} to {}", url, oldState, newState);
+    }
+  }
+
+  void recordRejected() {
+    rejectedRequests.incrementAndGet();
+  }
+
+  void connectionAcquired() {
+    activeConnections.incrementAndGet();
+  }
+
+  void connectionReleased() {
+    activeConnections.decrementAndGet();
+  }
+
+  String getUrl() {
+    return url;
+  }
+
+  State getState() {
+    return state;
+  }
+
+  /**
+   * Returns {@code true} if the circuit is closed.
+   */
+  boolean isHealthy() {
+    return state == State.CLOSED;
+  }
+
+  /**
+   * Returns the moving average of the measured latency in nanoseconds or {@code -1}, if it was not measured yet.
+   */
+  long getLatency() {
+    return latency;
+  }
+
+  long getLastCheckedAt() {
+    return lastCheckedAt;
+  }
+
+  int getActiveConnections() {
+    return activeConnections.get();
+  }
+
+  @VisibleForTesting
+  long getRejectedRequests() {
+    return rejectedRequests.get();
+  }
+
+  @VisibleForTesting
+  synchronized long getOpenCount() {
+    return openCount;
+  }
+
+  @Override
+  public String toString() {
+    return url + " (" + state + ")"
+      + (latency >= 0 ? ", " + TimeUnit.NANOSECONDS.toMillis(latency) + "ms" : "")
+      + ", " + activeConnections.get() + " active";
+  }
+}
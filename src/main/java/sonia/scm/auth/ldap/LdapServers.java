@@ -0,0 +1,160 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import com.google.common.base.Splitter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the state of all ldap servers, which are configured in the host url, and orders them for a request according
+ * to the configured {@link ServerSelectionStrategy}. Multiple servers are separated by spaces, which is the same format
+ * that jndi uses for its own failover.
+ */
+class LdapServers {
+
+  private static final Logger logger = LoggerFactory.getLogger(LdapServers.class);
+
+  private static final Splitter URL_SPLITTER = Splitter.onPattern("\\s+").omitEmptyStrings().trimResults();
+
+  private final ConcurrentMap<String, LdapServer> servers = new ConcurrentHashMap<>();
+  private final AtomicInteger roundRobinCounter = new AtomicInteger();
+
+  static List<String> parseUrls(String hostUrl) {
+    if (hostUrl == null) {
+      return Collections.emptyList();
+    }
+    return URL_SPLITTER.splitToList(hostUrl);
+  }
+
+  /**
+   * Returns all configured servers in the order in which they should be tried. Servers with closed circuit are
+   * ordered by the configured strategy. Servers with open circuit are skipped, or follow in their configured order as
+   * a last resort if the circuit breaker is disabled.
+   *
+   * @throws DirectoryUnavailableException if the circuit breaker is enabled and the circuits of all servers are open
+   */
+  List<LdapServer> select(LdapConfig config) {
+    List<LdapServer> configured = getServers(config);
+    if (configured.isEmpty()) {
+      return configured;
+    }
+
+    List<LdapServer> healthy = new ArrayList<>(configured.size());
+    List<LdapServer> unhealthy = new ArrayList<>();
+    for (LdapServer server : configured) {
+      if (server.isHealthy()) {
+        healthy.add(server);
+      } else {
+        unhealthy.add(server);
+      }
+    }
+
+    order(config.getServerSelectionStrategy(), healthy);
+    if (!config.isCircuitBreakerEnabled()) {
+      healthy.addAll(unhealthy);
+      return healthy;
+    }
+    for (LdapServer server : unhealthy) {
+      server.recordRejected();
+    }
+    if (healthy.isEmpty()) {
+      throw new DirectoryUnavailableException("circuit is open for all ldap servers: " + unhealthy);
+    }
+    return healthy;
+  }
+
+  private void order(ServerSelectionStrategy strategy, List<LdapServer> candidates) {
+    if (strategy == null || candidates.size() < 2) {
+      return;
+    }
+    switch (strategy) {
+      case ROUND_ROBIN:
+        Collections.rotate(candidates, -Math.floorMod(roundRobinCounter.getAndIncrement(), candidates.size()));
+        break;
+      case FEWEST_CONNECTIONS:
+        candidates.sort(Comparator.comparingInt(LdapServer::getActiveConnections));
+        break;
+      case LOWEST_LATENCY:
+        // servers without measurement are tried after the measured ones
+        candidates.sort(Comparator.comparingLong(server -> server.getLatency() < 0 ? Long.MAX_VALUE : server.getLatency()));
+        break;
+      default:
+        // failover uses the configured order
+        break;
+    }
+  }
+
+  /**
+   * Returns all servers which should be probed now: servers with open circuit whose probe interval has passed, these
+   * are moved to half open, and if more than one server is configured, all servers whose last health check is older
+   * than the health check interval.
+   */
+  List<LdapServer> getServersToCheck(LdapConfig config) {
+    List<LdapServer> configured = getServers(config);
+    long interval = TimeUnit.SECONDS.toMillis(config.getHealthCheckInterval());
+    boolean checkHealthy = configured.size() > 1 && interval > 0;
+    long now = System.currentTimeMillis();
+    List<LdapServer> due = new ArrayList<>();
+    for (LdapServer server : configured) {
+      if (server.isHealthy()) {
+        if (checkHealthy && now - server.getLastCheckedAt() >= interval) {
+          due.add(server);
+        }
+      } else if (server.tryHalfOpen()) {
+        due.add(server);
+      }
+    }
+    return due;
+  }
+
+  List<LdapServer> getServers(LdapConfig config) {
+    List<String> urls = parseUrls(config.getHostUrl());
+    List<LdapServer> configured = new ArrayList<>(urls.size());
+    for (String url : urls) {
+      configured.add(servers.computeIfAbsent(url, key -> createServer(config, key)));
+    }
+    return configured;
+  }
+
+  private LdapServer createServer(LdapConfig config, String url) {
+    return new LdapServer(
+      url, config.getCircuitBreakerFailureThreshold(), TimeUnit.SECONDS.toMillis(config.getCircuitBreakerProbeInterval())
+    );
+  }
+
+  void clear() {
+    logger.debug("reset state of ldap servers");
+    servers.clear();
+  }
+}
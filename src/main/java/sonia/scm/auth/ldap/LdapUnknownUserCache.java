@@ -0,0 +1,88 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers for a short time principals which could not be found in the directory, e.g. local users or mistyped
+ * usernames, so that repeated requests for them do not cause a user search each time. The cache is cleared whenever
+ * the configuration is stored.
+ */
+@Singleton
+class LdapUnknownUserCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(LdapUnknownUserCache.class);
+
+  private Cache<String, Boolean> cache;
+  private int ttl = -1;
+  private int maxEntries = -1;
+
+  @Inject
+  LdapUnknownUserCache(LdapConfigStore configStore) {
+    configStore.addChangeListener(config -> invalidateAll());
+  }
+
+  @VisibleForTesting
+  LdapUnknownUserCache() {
+  }
+
+  boolean isUnknown(LdapConfig config, String principal) {
+    return config.isUnknownUserCacheEnabled() && getCache(config).getIfPresent(principal) != null;
+  }
+
+  void markUnknown(LdapConfig config, String principal) {
+    if (config.isUnknownUserCacheEnabled()) {
+      logger.trace("remember {} as unknown principal", principal);
+      getCache(config).put(principal, Boolean.TRUE);
+    }
+  }
+
+  synchronized void invalidateAll() {
+    if (cache != null) {
+      cache.invalidateAll();
+    }
+  }
+
+  private synchronized Cache<String, Boolean> getCache(LdapConfig config) {
+    if (cache == null || ttl != config.getUnknownUserCacheTtl() || maxEntries != config.getUnknownUserCacheMaxEntries()) {
+      ttl = config.getUnknownUserCacheTtl();
+      maxEntries = config.getUnknownUserCacheMaxEntries();
+      logger.debug("create unknown user cache with ttl of {}s and {} max entries", ttl, maxEntries);
+      cache = CacheBuilder.newBuilder()
+        .expireAfterWrite(Math.max(0, ttl), TimeUnit.SECONDS)
+        .maximumSize(Math.max(0, maxEntries))
+        .build();
+    }
+    return cache;
+  }
+}
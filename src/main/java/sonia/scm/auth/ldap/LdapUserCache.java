@@ -0,0 +1,122 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchResult;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the dn and the id, name and mail attributes of users which have successfully logged in, so that the next
+ * login of the user can go straight to the bind. Group attributes are not cached, because group memberships have to be
+ * read from the directory or the group cache, which has its own ttl. The cache is cleared whenever the configuration
+ * is stored.
+ */
+@Singleton
+class LdapUserCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(LdapUserCache.class);
+
+  private Cache<String, SearchResult> cache;
+  private int ttl = -1;
+  private int maxEntries = -1;
+
+  @Inject
+  LdapUserCache(LdapConfigStore configStore) {
+    configStore.addChangeListener(config -> invalidateAll());
+  }
+
+  @VisibleForTesting
+  LdapUserCache() {
+  }
+
+  Optional<SearchResult> get(LdapConfig config, String username) {
+    if (!config.isUserCacheEnabled()) {
+      return Optional.empty();
+    }
+    return Optional.ofNullable(getCache(config).getIfPresent(username));
+  }
+
+  void put(LdapConfig config, String username, SearchResult searchResult) {
+    if (config.isUserCacheEnabled()) {
+      getCache(config).put(username, copyUserAttributes(config, searchResult));
+    }
+  }
+
+  private static SearchResult copyUserAttributes(LdapConfig config, SearchResult searchResult) {
+    Attributes attributes = new BasicAttributes(true);
+    copy(searchResult.getAttributes(), attributes, config.getAttributeNameId());
+    copy(searchResult.getAttributes(), attributes, config.getAttributeNameFullname());
+    copy(searchResult.getAttributes(), attributes, config.getAttributeNameMail());
+    SearchResult copy = new SearchResult(searchResult.getName(), null, attributes);
+    copy.setNameInNamespace(searchResult.getNameInNamespace());
+    return copy;
+  }
+
+  private static void copy(Attributes source, Attributes target, String attributeName) {
+    if (source != null && !Strings.isNullOrEmpty(attributeName)) {
+      Attribute attribute = source.get(attributeName);
+      if (attribute != null) {
+        target.put(attribute);
+      }
+    }
+  }
+
+  synchronized void invalidate(String username) {
+    if (cache != null) {
+      cache.invalidate(username);
+    }
+  }
+
+  synchronized void invalidateAll() {
+    if (cache != null) {
+      cache.invalidateAll();
+    }
+  }
+
+  private synchronized Cache<String, SearchResult> getCache(LdapConfig config) {
+    if (cache == null || ttl != config.getUserCacheTtl() || maxEntries != config.getUserCacheMaxEntries()) {
+      ttl = config.getUserCacheTtl();
+      maxEntries = config.getUserCacheMaxEntries();
+      logger.debug("create user cache with ttl of {}s and {} max entries", ttl, maxEntries);
+      cache = CacheBuilder.newBuilder()
+        .expireAfterWrite(Math.max(0, ttl), TimeUnit.SECONDS)
+        .maximumSize(Math.max(0, maxEntries))
+        .build();
+    }
+    return cache;
+  }
+}
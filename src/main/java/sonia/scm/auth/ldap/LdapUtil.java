@@ -33,13 +33,18 @@ import sonia.scm.util.Util;
 //~--- JDK imports ------------------------------------------------------------
 
 import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
 
 import javax.naming.Context;
+import javax.naming.InvalidNameException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.SearchControls;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
 import javax.naming.ldap.StartTlsResponse;
 
 /**
@@ -59,54 +64,6 @@ class LdapUtil {
   private LdapUtil() {
   }
 
-  /**
-   * Sanitize LDAP search filter to prevent LDAP injection.
-   * Source: https://www.owasp.org/index.php/Preventing_LDAP_Injection_in_Java
-   * \\\\ is there because java.MessageFormat.format() is suppressing \\ to \
-   *
-   * @param filter
-   * @return
-   */
-  static String escapeSearchFilter(String filter) {
-    StringBuilder sb = new StringBuilder();
-
-    for (int i = 0; i < filter.length(); i++) {
-      char curChar = filter.charAt(i);
-
-      switch (curChar) {
-        case '\\':
-          sb.append("\\5c");
-
-          break;
-
-        case '*':
-          sb.append("\\2a");
-
-          break;
-
-        case '(':
-          sb.append("\\28");
-
-          break;
-
-        case ')':
-          sb.append("\\29");
-
-          break;
-
-        case '\u0000':
-          sb.append("\\00");
-
-          break;
-
-        default:
-          sb.append(curChar);
-      }
-    }
-
-    return sb.toString();
-  }
-
   /**
    * Method description
    *
@@ -182,12 +139,25 @@ class LdapUtil {
   }
 
   /**
-   * Method description
+   * Returns the value of the first rdn of the dn, e.g. HeartOfGold for cn=HeartOfGold,ou=Groups,dc=hitchhiker,dc=com.
+   * Escaped characters in the value are unescaped.
    *
    * @param dn
    * @return
    */
   public static String getName(String dn) {
+    try {
+      LdapName name = new LdapName(dn);
+      if (!name.isEmpty()) {
+        return String.valueOf(name.getRdn(name.size() - 1).getValue());
+      }
+    } catch (InvalidNameException ex) {
+      logger.debug("could not parse dn {}", dn, ex);
+    }
+    return getNameWithoutParsing(dn);
+  }
+
+  private static String getNameWithoutParsing(String dn) {
     String name = dn;
     int start = dn.indexOf('=');
 
@@ -206,6 +176,31 @@ class LdapUtil {
     return name;
   }
 
+  /**
+   * Normalizes a dn, so that dns which differ only in case or in whitespace between the rdns are equal.
+   *
+   * @param dn
+   * @return
+   */
+  static String normalizeDn(String dn) {
+    try {
+      List<Rdn> rdns = new LdapName(dn).getRdns();
+      StringBuilder builder = new StringBuilder();
+      for (int i = rdns.size() - 1; i >= 0; i--) {
+        Rdn rdn = rdns.get(i);
+        if (builder.length() > 0) {
+          builder.append(',');
+        }
+        builder.append(rdn.getType().toLowerCase(Locale.ENGLISH)).append('=')
+          .append(Rdn.escapeValue(rdn.getValue()).toLowerCase(Locale.ENGLISH));
+      }
+      return builder.toString();
+    } catch (InvalidNameException ex) {
+      logger.debug("could not parse dn {}", dn, ex);
+      return dn.toLowerCase(Locale.ENGLISH);
+    }
+  }
+
   /**
    * Method description
    *
@@ -251,16 +246,4 @@ class LdapUtil {
 
     return scopeString;
   }
-
-  static String createDN(LdapConfig config, String prefix) {
-    if (Util.isNotEmpty(config.getBaseDn())) {
-      if (Util.isNotEmpty(prefix)) {
-        return prefix.concat(",").concat(config.getBaseDn());
-      } else {
-        return config.getBaseDn();
-      }
-    } else {
-      throw new ConfigurationException("base dn was not configured");
-    }
-  }
 }
@@ -0,0 +1,110 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time budget of a login. The deadline is bound to the current thread with {@link #start(long)} and every step of the
+ * login (connect, StartTLS, bind and searches) limits its own timeout to the remaining budget and fails with a
+ * {@link LoginDeadlineExceededException}, if the budget is already spent.
+ */
+final class LoginDeadline implements AutoCloseable {
+
+  private static final ThreadLocal<LoginDeadline> CURRENT = new ThreadLocal<>();
+
+  private static final LoginDeadline NONE = new LoginDeadline(Long.MAX_VALUE, null);
+
+  private final long expiresAt;
+  private final LoginDeadline previous;
+
+  private LoginDeadline(long expiresAt, LoginDeadline previous) {
+    this.expiresAt = expiresAt;
+    this.previous = previous;
+  }
+
+  /**
+   * Starts a deadline for the current thread, which ends when the returned deadline is closed. A timeout of zero or
+   * less starts no deadline. A nested deadline can not extend an outer one.
+   *
+   * @param timeoutMillis budget in milliseconds
+   */
+  static LoginDeadline start(long timeoutMillis) {
+    if (timeoutMillis <= 0) {
+      return NONE;
+    }
+    LoginDeadline previous = CURRENT.get();
+    long expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    if (previous != null && previous.expiresAt - expiresAt < 0) {
+      expiresAt = previous.expiresAt;
+    }
+    LoginDeadline deadline = new LoginDeadline(expiresAt, previous);
+    CURRENT.set(deadline);
+    return deadline;
+  }
+
+  /**
+   * Throws a {@link LoginDeadlineExceededException}, if the deadline of the current thread has passed.
+   *
+   * @param operation name of the next operation, used for the exception message
+   */
+  static void check(String operation) {
+    limit(0, operation);
+  }
+
+  /**
+   * Limits the timeout of an operation to the remaining time of the deadline of the current thread.
+   *
+   * @param timeoutMillis timeout of the operation in milliseconds, zero or less for no timeout
+   * @param operation     name of the operation, used for the exception message
+   *
+   * @return the timeout for the operation in milliseconds, zero or less if there is neither a timeout nor a deadline
+   */
+  static int limit(int timeoutMillis, String operation) {
+    LoginDeadline deadline = CURRENT.get();
+    if (deadline == null) {
+      return timeoutMillis;
+    }
+    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline.expiresAt - System.nanoTime());
+    if (remaining <= 0) {
+      throw new LoginDeadlineExceededException("login deadline exceeded before " + operation);
+    }
+    if (timeoutMillis > 0 && timeoutMillis < remaining) {
+      return timeoutMillis;
+    }
+    return (int) Math.min(remaining, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public void close() {
+    if (this == NONE) {
+      return;
+    }
+    if (previous != null) {
+      CURRENT.set(previous);
+    } else {
+      CURRENT.remove();
+    }
+  }
+}
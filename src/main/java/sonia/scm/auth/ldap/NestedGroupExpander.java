@@ -0,0 +1,203 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.NamingException;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Expands nested groups for directories without a server side expansion. The parent groups are searched level by
+ * level with the group search filter, one OR filter per level for all groups which were found on the previous level.
+ * The parents of each group are cached, so that groups which are shared by many users are only searched once.
+ */
+class NestedGroupExpander {
+
+  private static final Logger LOG = LoggerFactory.getLogger(NestedGroupExpander.class);
+
+  private static final String ATTRIBUTE_GROUP_NAME = "cn";
+
+  /**
+   * finds the membership attribute in a group search filter like (uniqueMember={0})
+   */
+  private static final Pattern MEMBERSHIP_ATTRIBUTE = Pattern.compile("\\(([\\w;.-]+)=\\{0\\}\\)");
+
+  /**
+   * maximum number of groups in the filter of one search
+   */
+  private static final int BATCH_SIZE = 100;
+
+  /**
+   * normalized dn of a group to the parent groups (dn to name)
+   */
+  private final Cache<String, Map<String, String>> parents = CacheBuilder.newBuilder()
+    .expireAfterWrite(10, TimeUnit.MINUTES)
+    .maximumSize(10000)
+    .build();
+
+  /**
+   * Returns the names of all groups, the given groups are direct or indirect members of.
+   *
+   * The groups which have a group as member, are searched with the group search filter and the dn of the group.
+   *
+   * @param groupDns dns of the direct groups of the user
+   */
+  Set<String> expand(CompiledLdapConfig config, LdapConnection connection, Collection<String> groupDns) {
+    Optional<String> membershipAttribute = getMembershipAttribute(config.getConfig().getSearchFilterGroup());
+    Optional<FilterTemplate> memberFilter = config.getGroupFilter();
+    if (!membershipAttribute.isPresent() || !memberFilter.isPresent()) {
+      LOG.debug("group search filter does not contain a membership attribute with the dn, skip nested groups");
+      return new HashSet<>();
+    }
+
+    Set<String> names = new HashSet<>();
+    Set<String> visited = new HashSet<>();
+    List<String> level = new ArrayList<>();
+    for (String dn : groupDns) {
+      if (visited.add(LdapUtil.normalizeDn(dn))) {
+        level.add(dn);
+      }
+    }
+
+    int depth = 0;
+    while (!level.isEmpty() && depth < config.getConfig().getNestedGroupMaxDepth()) {
+      depth++;
+      List<String> nextLevel = new ArrayList<>();
+      for (Map<String, String> groupParents : getParents(config, connection, level, membershipAttribute.get(), memberFilter.get())) {
+        for (Map.Entry<String, String> parent : groupParents.entrySet()) {
+          // a group which was already visited is a cycle or a diamond, both need no further expansion
+          if (visited.add(LdapUtil.normalizeDn(parent.getKey()))) {
+            names.add(parent.getValue());
+            nextLevel.add(parent.getKey());
+          }
+        }
+      }
+      level = nextLevel;
+    }
+    if (!level.isEmpty()) {
+      LOG.warn("stopped expansion of nested groups at max depth of {}, {} groups are not expanded", depth, level.size());
+    }
+    return names;
+  }
+
+  void invalidateAll() {
+    parents.invalidateAll();
+  }
+
+  private List<Map<String, String>> getParents(CompiledLdapConfig config, LdapConnection connection, List<String> groupDns,
+                                               String membershipAttribute, FilterTemplate memberFilter) {
+    List<Map<String, String>> result = new ArrayList<>();
+    List<String> uncached = new ArrayList<>();
+    for (String dn : groupDns) {
+      Map<String, String> cached = parents.getIfPresent(LdapUtil.normalizeDn(dn));
+      if (cached != null) {
+        result.add(cached);
+      } else {
+        uncached.add(dn);
+      }
+    }
+    for (List<String> batch : Lists.partition(uncached, BATCH_SIZE)) {
+      try {
+        result.addAll(searchParents(config, connection, batch, membershipAttribute, memberFilter));
+      } catch (NamingException ex) {
+        // an incomplete expansion would be cached as the groups of the user
+        throw new LdapException("could not search parents of " + batch.size() + " groups", ex);
+      }
+    }
+    return result;
+  }
+
+  private Collection<Map<String, String>> searchParents(CompiledLdapConfig config, LdapConnection connection, List<String> groupDns,
+                                                        String membershipAttribute, FilterTemplate memberFilter) throws NamingException {
+    Map<String, Map<String, String>> found = new HashMap<>();
+    StringBuilder filter = new StringBuilder("(|");
+    for (String dn : groupDns) {
+      found.put(LdapUtil.normalizeDn(dn), new HashMap<>());
+      memberFilter.appendTo(filter, dn, "", null);
+    }
+    filter.append(')');
+
+    SearchControls searchControls = new SearchControls();
+    searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+    searchControls.setReturningAttributes(new String[]{ATTRIBUTE_GROUP_NAME, membershipAttribute});
+
+    String searchDN = config.getGroupDn();
+    LOG.debug("search parents of {} groups at {} with filter {}", groupDns.size(), searchDN, filter);
+    try (AutoCloseableNamingEnumeration<SearchResult> enm = connection.search(searchDN, filter.toString(), searchControls)) {
+      while (enm.hasMore()) {
+        SearchResult searchResult = enm.next();
+        String name = LdapUtil.getAttribute(searchResult.getAttributes(), ATTRIBUTE_GROUP_NAME);
+        if (name != null) {
+          String parentDn = searchResult.getNameInNamespace();
+          RangedAttributeReader.read(
+            connection, parentDn, searchResult.getAttributes(), membershipAttribute,
+            member -> addParent(found, parentDn, name, String.valueOf(member))
+          );
+        }
+      }
+    }
+    for (Map.Entry<String, Map<String, String>> entry : found.entrySet()) {
+      parents.put(entry.getKey(), entry.getValue());
+    }
+    return found.values();
+  }
+
+  /**
+   * Assigns the parent to the searched group, if the member is one of them.
+   */
+  private void addParent(Map<String, Map<String, String>> found, String parentDn, String parentName, String member) {
+    Map<String, String> groupParents = found.get(LdapUtil.normalizeDn(member));
+    if (groupParents != null) {
+      LOG.trace("found parent group {} ({})", parentName, parentDn);
+      groupParents.put(parentDn, parentName);
+    }
+  }
+
+  static Optional<String> getMembershipAttribute(String filterPattern) {
+    if (filterPattern != null) {
+      Matcher matcher = MEMBERSHIP_ATTRIBUTE.matcher(filterPattern);
+      if (matcher.find()) {
+        return Optional.of(matcher.group(1));
+      }
+    }
+    return Optional.empty();
+  }
+}
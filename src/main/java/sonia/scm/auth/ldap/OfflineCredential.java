@@ -0,0 +1,90 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import sonia.scm.user.User;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementWrapper;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Persisted data of a successful login, which allows the user to log in while the directory is unavailable. The
+ * password is only stored as salted and slow hashed {@link PasswordFingerprint}.
+ */
+@XmlRootElement(name = "offline-credential")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class OfflineCredential {
+
+  private String name;
+  @XmlElement(name = "display-name")
+  private String displayName;
+  private String mail;
+  private byte[] salt;
+  private byte[] hash;
+  private int iterations;
+  @XmlElementWrapper(name = "groups")
+  @XmlElement(name = "group")
+  private Set<String> groups = new HashSet<>();
+  @XmlElement(name = "last-login")
+  private long lastLogin;
+
+  OfflineCredential() {
+    // required by jaxb
+  }
+
+  OfflineCredential(User user, PasswordFingerprint fingerprint, Set<String> groups, long lastLogin) {
+    this.name = user.getName();
+    this.displayName = user.getDisplayName();
+    this.mail = user.getMail();
+    this.salt = fingerprint.getSalt();
+    this.hash = fingerprint.getHash();
+    this.iterations = fingerprint.getIterations();
+    this.groups = new HashSet<>(groups);
+    this.lastLogin = lastLogin;
+  }
+
+  User toUser() {
+    User user = new User(name, displayName, mail);
+    user.setType(LdapRealm.TYPE);
+    return user;
+  }
+
+  PasswordFingerprint getFingerprint() {
+    return PasswordFingerprint.restore(salt, hash, iterations);
+  }
+
+  Set<String> getGroups() {
+    return groups != null ? Collections.unmodifiableSet(groups) : Collections.emptySet();
+  }
+
+  long getLastLogin() {
+    return lastLogin;
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * Salted and slow hashed representation of a password, which can be kept in memory to verify the password later
+ * without storing the password itself.
+ */
+final class PasswordFingerprint {
+
+  private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+  private static final int ITERATIONS = 10000;
+  private static final int KEY_LENGTH = 256;
+  private static final int SALT_LENGTH = 16;
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private final byte[] salt;
+  private final byte[] hash;
+  private final int iterations;
+
+  private PasswordFingerprint(byte[] salt, byte[] hash, int iterations) {
+    this.salt = salt;
+    this.hash = hash;
+    this.iterations = iterations;
+  }
+
+  static PasswordFingerprint of(char[] password) {
+    byte[] salt = new byte[SALT_LENGTH];
+    RANDOM.nextBytes(salt);
+    return new PasswordFingerprint(salt, hash(password, salt, ITERATIONS), ITERATIONS);
+  }
+
+  /**
+   * Restores a fingerprint from its stored parts.
+   */
+  static PasswordFingerprint restore(byte[] salt, byte[] hash, int iterations) {
+    return new PasswordFingerprint(salt.clone(), hash.clone(), iterations);
+  }
+
+  boolean matches(char[] password) {
+    return MessageDigest.isEqual(hash, hash(password, salt, iterations));
+  }
+
+  byte[] getSalt() {
+    return salt.clone();
+  }
+
+  byte[] getHash() {
+    return hash.clone();
+  }
+
+  int getIterations() {
+    return iterations;
+  }
+
+  private static byte[] hash(char[] password, byte[] salt, int iterations) {
+    PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, KEY_LENGTH);
+    try {
+      return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+    } catch (GeneralSecurityException ex) {
+      throw new IllegalStateException("failed to create password fingerprint", ex);
+    } finally {
+      spec.clearPassword();
+    }
+  }
+}
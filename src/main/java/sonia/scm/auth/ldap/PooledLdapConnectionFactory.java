@@ -0,0 +1,256 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.naming.CommunicationException;
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Hands out bind connections from a {@link LdapConnectionPool} per effective configuration and server. User
+ * credentials are verified by re-binding connections of a second pool of anonymous connections. If the host url
+ * contains more than one server, the server is chosen by the configured {@link ServerSelectionStrategy} and
+ * unreachable servers are skipped. All pools are closed, if the configuration is changed or the factory is closed.
+ */
+@Singleton
+class PooledLdapConnectionFactory implements LdapConnectionFactory, Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(PooledLdapConnectionFactory.class);
+
+  private static final long MAINTENANCE_INTERVAL = 30;
+
+  /**
+   * interval in seconds in which we look for servers, whose health check is due
+   */
+  private static final long HEALTH_CHECK_TICK = 5;
+
+  private final ConcurrentMap<LdapConnectionPool.Key, LdapConnectionPool> pools = new ConcurrentHashMap<>();
+  private final ConcurrentMap<LdapConnectionPool.Key, LdapConnectionPool> verificationPools = new ConcurrentHashMap<>();
+  private final LdapServers servers = new LdapServers();
+  private final ScheduledExecutorService executor;
+
+  @Inject
+  PooledLdapConnectionFactory(LdapConfigStore configStore) {
+    this(Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setNameFormat("ldap-pool-maintenance").setDaemon(true).build()
+    ));
+    configStore.addChangeListener(config -> clear());
+    executor.scheduleWithFixedDelay(this::maintain, MAINTENANCE_INTERVAL, MAINTENANCE_INTERVAL, TimeUnit.SECONDS);
+    executor.scheduleWithFixedDelay(() -> {
+      try {
+        LdapConfig config = configStore.get();
+        if (config.isEnabled()) {
+          checkHealth(config);
+        }
+      } catch (Exception ex) {
+        logger.warn("failed to check health of ldap servers", ex);
+      }
+    }, HEALTH_CHECK_TICK, HEALTH_CHECK_TICK, TimeUnit.SECONDS);
+  }
+
+  @VisibleForTesting
+  PooledLdapConnectionFactory() {
+    this((ScheduledExecutorService) null);
+  }
+
+  private PooledLdapConnectionFactory(ScheduledExecutorService executor) {
+    this.executor = executor;
+  }
+
+  @Override
+  public LdapConnection createBindConnection(LdapConfig config) {
+    return open(config, server -> {
+      if (!config.isConnectionPoolEnabled()) {
+        return LdapConnection.createBindConnection(config, server.getUrl());
+      }
+      return getPool(pools, config, server, LdapConnection::createBindConnection).borrow();
+    });
+  }
+
+  @Override
+  public LdapConnection createUserConnection(LdapConfig config, String userDn, String password) {
+    return open(config, server -> {
+      if (!config.isConnectionPoolEnabled()) {
+        return LdapConnection.createUserConnection(config, server.getUrl(), userDn, password);
+      }
+      LdapConnectionPool pool = getPool(verificationPools, config, server, LdapConnection::createVerificationConnection);
+      try {
+        return bindUser(pool.borrow(), userDn, password);
+      } catch (UserAuthenticationFailedException ex) {
+        if (ex.getCause() instanceof CommunicationException) {
+          logger.debug("pooled connection was broken, retry authentication with a new connection");
+          return bindUser(pool.borrow(), userDn, password);
+        }
+        throw ex;
+      }
+    });
+  }
+
+  /**
+   * Opens a connection to the first server, which can be reached. The servers are tried in the order of the
+   * configured {@link ServerSelectionStrategy}. Connection failures are counted by the circuit breaker of the server,
+   * which takes the server out of rotation until the next successful health probe.
+   */
+  private LdapConnection open(LdapConfig config, Function<LdapServer, LdapConnection> opener) {
+    List<LdapServer> candidates = servers.select(config);
+    if (candidates.isEmpty()) {
+      return opener.apply(new LdapServer(config.getHostUrl()));
+    }
+    LdapException failure = null;
+    for (LdapServer server : candidates) {
+      try {
+        LdapConnection connection = opener.apply(server);
+        server.recordAvailable();
+        return connection;
+      } catch (LdapException ex) {
+        if (!LdapServer.isConnectionFailure(ex)) {
+          throw ex;
+        }
+        server.recordFailure(ex);
+        failure = ex;
+      }
+    }
+    throw failure;
+  }
+
+  private LdapConnectionPool getPool(ConcurrentMap<LdapConnectionPool.Key, LdapConnectionPool> pools, LdapConfig config,
+                                     LdapServer server, BiFunction<LdapConfig, String, LdapConnection> opener) {
+    return pools.computeIfAbsent(
+      LdapConnectionPool.Key.of(config, server.getUrl()), key -> new LdapConnectionPool(config, server, opener)
+    );
+  }
+
+  private LdapConnection bindUser(LdapConnection connection, String userDn, String password) {
+    try {
+      connection.bindUser(userDn, password);
+      return connection;
+    } catch (UserAuthenticationFailedException ex) {
+      connection.close();
+      throw ex;
+    }
+  }
+
+  /**
+   * Probes all servers, whose last health check is older than the configured interval or whose open circuit should
+   * be checked again, by reading the root dse with an anonymous connection.
+   */
+  @VisibleForTesting
+  void checkHealth(LdapConfig config) {
+    for (LdapServer server : servers.getServersToCheck(config)) {
+      probe(config, server);
+    }
+  }
+
+  private void probe(LdapConfig config, LdapServer server) {
+    long start = System.nanoTime();
+    LdapConnection connection = null;
+    try {
+      connection = LdapConnection.createVerificationConnection(config, server.getUrl());
+      if (connection.isAlive()) {
+        server.recordSuccess(System.nanoTime() - start);
+      } else {
+        server.recordFailure(null);
+      }
+    } catch (LdapException ex) {
+      server.recordFailure(ex);
+    } finally {
+      if (connection != null) {
+        connection.destroy();
+      }
+    }
+    logger.trace("health check of ldap server {}", server);
+  }
+
+  @VisibleForTesting
+  LdapServers getServers() {
+    return servers;
+  }
+
+  @VisibleForTesting
+  void maintain() {
+    maintain(pools);
+    maintain(verificationPools);
+  }
+
+  private void maintain(ConcurrentMap<LdapConnectionPool.Key, LdapConnectionPool> pools) {
+    Iterator<LdapConnectionPool> it = pools.values().iterator();
+    while (it.hasNext()) {
+      LdapConnectionPool pool = it.next();
+      try {
+        pool.maintain();
+        if (pool.isUnused()) {
+          it.remove();
+          pool.close();
+        }
+      } catch (Exception ex) {
+        logger.warn("failed to maintain connection pool", ex);
+      }
+    }
+  }
+
+  /**
+   * Stops the maintenance and health checks and closes all pools.
+   */
+  @Override
+  public void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    clear();
+  }
+
+  /**
+   * Closes all pools. Connections which are currently in use, are closed as soon as they are released.
+   */
+  void clear() {
+    logger.debug("close all ldap connection pools");
+    clear(pools);
+    clear(verificationPools);
+    servers.clear();
+  }
+
+  private void clear(ConcurrentMap<LdapConnectionPool.Key, LdapConnectionPool> pools) {
+    Iterator<LdapConnectionPool> it = pools.values().iterator();
+    while (it.hasNext()) {
+      LdapConnectionPool pool = it.next();
+      it.remove();
+      pool.close();
+    }
+  }
+}
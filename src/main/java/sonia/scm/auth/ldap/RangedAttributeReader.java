@@ -0,0 +1,128 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads all values of a multi-valued attribute, which active directory returns in ranges
+ * (e.g. memberOf;range=0-1499), if the attribute has more values than the MaxValRange of the server. The following
+ * ranges are requested with base scope searches on the entry and every value is passed on as soon as it was read.
+ */
+final class RangedAttributeReader {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RangedAttributeReader.class);
+
+  private static final String RANGE_OPTION = ";range=";
+  private static final Pattern RANGE = Pattern.compile(";range=(\\d+)-(\\d+|\\*)$", Pattern.CASE_INSENSITIVE);
+
+  private static final long COMPLETE = -1;
+
+  private RangedAttributeReader() {
+  }
+
+  /**
+   * Passes every value of the attribute to the consumer, including the values of ranges which were not part of the
+   * given attributes.
+   *
+   * @param dn dn of the entry, used to read the following ranges
+   */
+  static void read(LdapConnection connection, String dn, Attributes attributes, String attributeName,
+                   Consumer<Object> consumer) throws NamingException {
+    Attribute attribute = attributes.get(attributeName);
+    if (attribute != null) {
+      forEach(attribute, consumer);
+    }
+    long next = readRanges(attributes, attributeName, consumer);
+    while (next != COMPLETE) {
+      String rangedName = attributeName + RANGE_OPTION + next + "-*";
+      LOG.trace("read range {} of {}", rangedName, dn);
+
+      SearchControls searchControls = new SearchControls();
+      searchControls.setSearchScope(SearchControls.OBJECT_SCOPE);
+      searchControls.setReturningAttributes(new String[]{rangedName});
+
+      long current = next;
+      try (AutoCloseableNamingEnumeration<SearchResult> enm = connection.search(dn, "(objectClass=*)", searchControls)) {
+        next = enm.hasMore() ? readRanges(enm.next().getAttributes(), attributeName, consumer) : COMPLETE;
+      }
+      if (next != COMPLETE && next <= current) {
+        LOG.warn("server returned range of {} for {} which does not advance, stop reading", attributeName, dn);
+        break;
+      }
+    }
+  }
+
+  /**
+   * Reads the values of all ranges of the attribute.
+   *
+   * @return start of the next range or {@link #COMPLETE} if the last range was read or no range was found
+   */
+  private static long readRanges(Attributes attributes, String attributeName, Consumer<Object> consumer) throws NamingException {
+    String prefix = (attributeName + RANGE_OPTION).toLowerCase(Locale.ENGLISH);
+    long next = COMPLETE;
+    boolean last = false;
+    NamingEnumeration<? extends Attribute> enm = attributes.getAll();
+    try {
+      while (enm.hasMore()) {
+        Attribute attribute = enm.next();
+        Matcher matcher = RANGE.matcher(attribute.getID());
+        if (attribute.getID().toLowerCase(Locale.ENGLISH).startsWith(prefix) && matcher.find()) {
+          forEach(attribute, consumer);
+          if ("*".equals(matcher.group(2))) {
+            last = true;
+          } else {
+            next = Math.max(next, Long.parseLong(matcher.group(2)) + 1);
+          }
+        }
+      }
+    } finally {
+      LdapUtil.close(enm);
+    }
+    return last ? COMPLETE : next;
+  }
+
+  private static void forEach(Attribute attribute, Consumer<Object> consumer) throws NamingException {
+    NamingEnumeration<?> values = attribute.getAll();
+    try {
+      while (values.hasMore()) {
+        consumer.accept(values.next());
+      }
+    } finally {
+      LdapUtil.close(values);
+    }
+  }
+}
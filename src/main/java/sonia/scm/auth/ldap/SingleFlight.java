@@ -0,0 +1,108 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent executions of the same operation. The first caller for a key executes the operation, every
+ * caller which arrives with the same key while the operation is still running waits for it and receives the same
+ * result or exception. Waiting callers give up at the {@link LoginDeadline} of their thread, so that a hanging
+ * operation does not block them beyond their own timeout. Results are not kept after the operation has finished.
+ *
+ * @param <K> type of key
+ * @param <V> type of result
+ */
+class SingleFlight<K, V> {
+
+  private static final Logger logger = LoggerFactory.getLogger(SingleFlight.class);
+
+  private final ConcurrentMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+
+  V execute(K key, Supplier<V> operation) {
+    Flight<V> flight = new Flight<>();
+    Flight<V> inFlight = flights.putIfAbsent(key, flight);
+    if (inFlight != null) {
+      return inFlight.await(key);
+    }
+    try {
+      V value = operation.get();
+      flight.future.complete(value);
+      return value;
+    } catch (RuntimeException | Error ex) {
+      flight.future.completeExceptionally(ex);
+      throw ex;
+    } finally {
+      flights.remove(key, flight);
+      int waiters = flight.waiters.get();
+      if (waiters > 0) {
+        logger.debug("coalesced {} concurrent requests with {}", waiters, key);
+      }
+    }
+  }
+
+  @VisibleForTesting
+  int getWaiters(K key) {
+    Flight<V> flight = flights.get(key);
+    return flight != null ? flight.waiters.get() : 0;
+  }
+
+  private static final class Flight<V> {
+
+    private final CompletableFuture<V> future = new CompletableFuture<>();
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    V await(Object key) {
+      waiters.incrementAndGet();
+      int timeout = LoginDeadline.limit(0, "waiting for " + key);
+      try {
+        return timeout > 0 ? future.get(timeout, TimeUnit.MILLISECONDS) : future.get();
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw new IllegalStateException(ex);
+      } catch (TimeoutException ex) {
+        throw new LoginDeadlineExceededException("login deadline exceeded while waiting for " + key);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new LdapException("interrupted while waiting for " + key, ex);
+      }
+    }
+  }
+}
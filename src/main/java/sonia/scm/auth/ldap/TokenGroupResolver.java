@@ -0,0 +1,201 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves the nested groups of an active directory user with the constructed tokenGroups attribute. The attribute
+ * contains the sids of all security groups the user is a direct or indirect member of. The sids are resolved to group
+ * names with one search per batch, and the names are cached, because most users share the same groups.
+ * <p>
+ * The group search filter is not applied, because it describes the direct membership of a user. Every security group
+ * below the group unit is returned, distribution groups are not part of the tokenGroups attribute.
+ */
+class TokenGroupResolver {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TokenGroupResolver.class);
+
+  static final String ATTRIBUTE_TOKEN_GROUPS = "tokenGroups";
+  static final String ATTRIBUTE_OBJECT_SID = "objectSid";
+
+  private static final String ATTRIBUTE_GROUP_NAME = "cn";
+
+  /**
+   * maximum number of sids in the filter of one search
+   */
+  private static final int BATCH_SIZE = 200;
+
+  /**
+   * cached for sids which do not belong to a group below the group unit, e.g. builtin groups
+   */
+  private static final String UNKNOWN = "";
+
+  private final Cache<String, String> groupNames = CacheBuilder.newBuilder()
+    .expireAfterWrite(1, TimeUnit.HOURS)
+    .maximumSize(10000)
+    .build();
+
+  Set<String> resolve(CompiledLdapConfig config, LdapConnection connection, String userDn) throws NamingException {
+    Set<String> groups = new HashSet<>();
+    List<byte[]> unresolved = new ArrayList<>();
+    for (byte[] sid : readTokenGroups(connection, userDn)) {
+      String name = groupNames.getIfPresent(toString(sid));
+      if (name == null) {
+        unresolved.add(sid);
+      } else if (!UNKNOWN.equals(name)) {
+        groups.add(name);
+      }
+    }
+    LOG.trace("found {} cached and {} unresolved token groups for {}", groups.size(), unresolved.size(), userDn);
+    for (List<byte[]> batch : Lists.partition(unresolved, BATCH_SIZE)) {
+      resolveNames(config, connection, batch, groups);
+    }
+    return groups;
+  }
+
+  void invalidateAll() {
+    groupNames.invalidateAll();
+  }
+
+  private List<byte[]> readTokenGroups(LdapConnection connection, String userDn) throws NamingException {
+    SearchControls searchControls = new SearchControls();
+    // tokenGroups is a constructed attribute, which can only be read with a base scope search
+    searchControls.setSearchScope(SearchControls.OBJECT_SCOPE);
+    searchControls.setReturningAttributes(new String[]{ATTRIBUTE_TOKEN_GROUPS});
+
+    List<byte[]> sids = new ArrayList<>();
+    try (AutoCloseableNamingEnumeration<SearchResult> enm = connection.search(userDn, "(objectClass=*)", searchControls)) {
+      if (enm.hasMore()) {
+        Attribute attribute = enm.next().getAttributes().get(ATTRIBUTE_TOKEN_GROUPS);
+        if (attribute != null) {
+          for (int i = 0; i < attribute.size(); i++) {
+            Object value = attribute.get(i);
+            if (value instanceof byte[] && isValid((byte[]) value)) {
+              sids.add((byte[]) value);
+            } else {
+              LOG.warn("skip malformed token group of user {}", userDn);
+            }
+          }
+        }
+      }
+    }
+    return sids;
+  }
+
+  private void resolveNames(CompiledLdapConfig config, LdapConnection connection, List<byte[]> sids, Set<String> groups) throws NamingException {
+    StringBuilder filter = new StringBuilder("(|");
+    for (byte[] sid : sids) {
+      filter.append('(').append(ATTRIBUTE_OBJECT_SID).append('=').append(escape(sid)).append(')');
+    }
+    filter.append(')');
+
+    SearchControls searchControls = new SearchControls();
+    searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+    searchControls.setReturningAttributes(new String[]{ATTRIBUTE_GROUP_NAME, ATTRIBUTE_OBJECT_SID});
+
+    Set<String> found = new HashSet<>();
+    String searchDN = config.getGroupDn();
+    try (AutoCloseableNamingEnumeration<SearchResult> enm = connection.search(searchDN, filter.toString(), searchControls)) {
+      while (enm.hasMore()) {
+        SearchResult searchResult = enm.next();
+        Attribute sidAttribute = searchResult.getAttributes().get(ATTRIBUTE_OBJECT_SID);
+        Object sidValue = sidAttribute != null ? sidAttribute.get() : null;
+        String name = LdapUtil.getAttribute(searchResult.getAttributes(), ATTRIBUTE_GROUP_NAME);
+        if (name != null && sidValue instanceof byte[] && isValid((byte[]) sidValue)) {
+          String sid = toString((byte[]) sidValue);
+          LOG.trace("resolved token group {} to {}", sid, name);
+          groupNames.put(sid, name);
+          found.add(sid);
+          groups.add(name);
+        }
+      }
+    }
+    for (byte[] sid : sids) {
+      String value = toString(sid);
+      if (!found.contains(value)) {
+        LOG.trace("token group {} is not a group below {}", value, searchDN);
+        groupNames.put(value, UNKNOWN);
+      }
+    }
+  }
+
+  /**
+   * Escapes every byte of the binary sid for the usage in a search filter.
+   */
+  private static String escape(byte[] sid) {
+    StringBuilder builder = new StringBuilder(sid.length * 3);
+    for (byte b : sid) {
+      builder.append('\\').append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Returns {@code true} if the binary sid has the header of 8 bytes and exactly the number of sub authorities, which
+   * is declared in the header.
+   */
+  static boolean isValid(byte[] sid) {
+    return sid.length >= 8 && sid.length == 8 + 4 * (sid[1] & 0xFF);
+  }
+
+  /**
+   * Converts a binary sid to its string representation, e.g. S-1-5-21-1-2-3-1000.
+   *
+   * @throws IllegalArgumentException if the sid is malformed
+   */
+  static String toString(byte[] sid) {
+    if (!isValid(sid)) {
+      throw new IllegalArgumentException("malformed sid with " + sid.length + " bytes");
+    }
+    StringBuilder builder = new StringBuilder("S-").append(sid[0] & 0xFF);
+    long authority = 0;
+    for (int i = 2; i < 8; i++) {
+      authority = (authority << 8) | (sid[i] & 0xFF);
+    }
+    builder.append('-').append(authority);
+    ByteBuffer subAuthorities = ByteBuffer.wrap(sid, 8, sid.length - 8).order(ByteOrder.LITTLE_ENDIAN);
+    int count = sid[1] & 0xFF;
+    for (int i = 0; i < count; i++) {
+      builder.append('-').append(subAuthorities.getInt() & 0xFFFFFFFFL);
+    }
+    return builder.toString();
+  }
+}
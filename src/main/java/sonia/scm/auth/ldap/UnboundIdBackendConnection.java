@@ -0,0 +1,508 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import com.google.common.collect.ImmutableSet;
+import com.unboundid.asn1.ASN1OctetString;
+import com.unboundid.ldap.sdk.AsyncRequestID;
+import com.unboundid.ldap.sdk.AsyncSearchResultListener;
+import com.unboundid.ldap.sdk.ExtendedResult;
+import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.LDAPConnectionOptions;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.LDAPSearchException;
+import com.unboundid.ldap.sdk.LDAPURL;
+import com.unboundid.ldap.sdk.ResultCode;
+import com.unboundid.ldap.sdk.SearchRequest;
+import com.unboundid.ldap.sdk.SearchResultEntry;
+import com.unboundid.ldap.sdk.SearchResultListener;
+import com.unboundid.ldap.sdk.SearchResultReference;
+import com.unboundid.ldap.sdk.SearchScope;
+import com.unboundid.ldap.sdk.controls.SimplePagedResultsControl;
+import com.unboundid.ldap.sdk.extensions.StartTLSExtendedRequest;
+import com.unboundid.util.ssl.HostNameSSLSocketVerifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.util.Util;
+
+import javax.naming.AuthenticationException;
+import javax.naming.CommunicationException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.NoPermissionException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.SizeLimitExceededException;
+import javax.naming.TimeLimitExceededException;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.InvalidSearchFilterException;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * {@link BackendConnection} which uses the UnboundID LDAP SDK. Searches can be executed asynchronously, without
+ * blocking the calling thread until the server has answered. The entries are converted to jndi {@link SearchResult}s
+ * for the callers, so the backend allocates more per entry than the sdk alone would.
+ */
+class UnboundIdBackendConnection implements BackendConnection {
+
+  private static final Logger logger = LoggerFactory.getLogger(UnboundIdBackendConnection.class);
+
+  private static final String SCHEME_LDAPS = "ldaps";
+
+  /**
+   * attribute list which requests no attributes at all
+   */
+  private static final String NO_ATTRIBUTES = "1.1";
+
+  private static final Set<String> BINARY_ATTRIBUTE_NAMES = ImmutableSet.copyOf(
+    BINARY_ATTRIBUTES.toLowerCase(Locale.ENGLISH).split(" ")
+  );
+
+  private final LDAPConnection connection;
+
+  UnboundIdBackendConnection(LdapConfig config, String hostUrl, int connectTimeout, int readTimeout,
+                             SSLContext sslContext, String userDN, String password) throws NamingException, IOException {
+    LDAPConnectionOptions options = new LDAPConnectionOptions();
+    options.setConnectTimeoutMillis(Math.max(0, connectTimeout));
+    options.setResponseTimeoutMillis(Math.max(0, readTimeout));
+    options.setFollowReferrals(config.getReferralStrategy() == ReferralStrategy.FOLLOW);
+    // like jndi, verify that the certificate was issued for the host, for ldaps as well as for starttls
+    options.setSSLSocketVerifier(new HostNameSSLSocketVerifier(true));
+
+    connection = connect(hostUrl, options, sslContext);
+    try {
+      if (config.isEnableStartTls()) {
+        startTLS(sslContext);
+      }
+      if (Util.isNotEmpty(userDN) && Util.isNotEmpty(password)) {
+        logger.debug("bind connection with dn {}", userDN);
+        connection.bind(userDN, password);
+      } else {
+        logger.debug("create anonymous connection");
+      }
+    } catch (LDAPException ex) {
+      close();
+      throw toNamingException(ex);
+    }
+  }
+
+  /**
+   * Connects to the first reachable server of the host url, like jndi does for a list of urls.
+   */
+  private static LDAPConnection connect(String hostUrl, LDAPConnectionOptions options, SSLContext sslContext) throws NamingException, IOException {
+    NamingException failure = new CommunicationException("no ldap server configured");
+    for (String url : LdapServers.parseUrls(hostUrl)) {
+      try {
+        LDAPURL ldapUrl = new LDAPURL(url);
+        SocketFactory socketFactory = SocketFactory.getDefault();
+        if (SCHEME_LDAPS.equalsIgnoreCase(ldapUrl.getScheme())) {
+          socketFactory = getSslContext(sslContext).getSocketFactory();
+        }
+        return new LDAPConnection(socketFactory, options, ldapUrl.getHost(), ldapUrl.getPort());
+      } catch (LDAPException ex) {
+        logger.debug("failed to connect to {}", url, ex);
+        failure = toNamingException(ex);
+      }
+    }
+    throw failure;
+  }
+
+  private void startTLS(SSLContext sslContext) throws LDAPException, IOException {
+    LoginDeadline.check("starttls");
+    logger.debug("send starttls request");
+    ExtendedResult result = connection.processExtendedOperation(new StartTLSExtendedRequest(getSslContext(sslContext)));
+    if (result.getResultCode() != ResultCode.SUCCESS) {
+      throw new LDAPException(result);
+    }
+  }
+
+  private static SSLContext getSslContext(SSLContext sslContext) throws IOException {
+    if (sslContext != null) {
+      return sslContext;
+    }
+    try {
+      return SSLContext.getDefault();
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IOException("could not create default ssl context", ex);
+    }
+  }
+
+  @Override
+  public NamingEnumeration<SearchResult> search(String name, String filter, SearchControls controls) throws NamingException {
+    try {
+      com.unboundid.ldap.sdk.SearchResult result = connection.search(createRequest(null, name, filter, controls));
+      return new ResultEnumeration(convert(result.getSearchEntries()), null);
+    } catch (LDAPSearchException ex) {
+      if (isLimitExceeded(ex.getResultCode()) && ex.getSearchEntries() != null) {
+        // jndi returns the entries found so far and throws the exception at the end of the enumeration
+        return new ResultEnumeration(convert(ex.getSearchEntries()), toNamingException(ex));
+      }
+      throw toNamingException(ex);
+    } catch (LDAPException ex) {
+      throw toNamingException(ex);
+    }
+  }
+
+  @Override
+  public void searchPaged(String name, String filter, SearchControls controls, int pageSize,
+                          Consumer<SearchResult> consumer) throws NamingException {
+    try {
+      ASN1OctetString cookie = null;
+      do {
+        SearchRequest request = createRequest(null, name, filter, controls);
+        request.setControls(new SimplePagedResultsControl(pageSize, cookie, false));
+        com.unboundid.ldap.sdk.SearchResult result;
+        try {
+          result = connection.search(request);
+        } catch (LDAPSearchException ex) {
+          if (ex.getSearchEntries() != null) {
+            convert(ex.getSearchEntries()).forEach(consumer);
+          }
+          throw ex;
+        }
+        convert(result.getSearchEntries()).forEach(consumer);
+        SimplePagedResultsControl response = SimplePagedResultsControl.get(result);
+        cookie = response != null && response.moreResultsToReturn() ? response.getCookie() : null;
+      } while (cookie != null);
+    } catch (LDAPException ex) {
+      throw toNamingException(ex);
+    }
+  }
+
+  @Override
+  public boolean isAsynchronous() {
+    return true;
+  }
+
+  @Override
+  public CompletableFuture<List<SearchResult>> searchAsync(String name, String filter, SearchControls controls,
+                                                           int pageSize) {
+    CompletableFuture<List<SearchResult>> future = new CompletableFuture<>();
+    FutureListener listener = new FutureListener(future, name, filter, controls, pageSize);
+    // the search is abandoned on the server, if its result is no longer needed
+    future.whenComplete((results, ex) -> {
+      if (future.isCancelled()) {
+        listener.abandon();
+      }
+    });
+    listener.sendPage(null);
+    return future;
+  }
+
+  private static SearchRequest createRequest(SearchResultListener listener, String name, String filter,
+                                             SearchControls controls) throws LDAPException {
+    String[] attributes = getAttributes(controls.getReturningAttributes());
+    SearchScope scope = getScope(controls.getSearchScope());
+    SearchRequest request;
+    if (listener != null) {
+      request = new SearchRequest(listener, name, scope, filter, attributes);
+    } else {
+      request = new SearchRequest(name, scope, filter, attributes);
+    }
+    request.setSizeLimit((int) Math.min(controls.getCountLimit(), Integer.MAX_VALUE));
+    if (controls.getTimeLimit() > 0) {
+      // jndi unit is milliseconds, ldap unit is seconds
+      request.setTimeLimitSeconds(controls.getTimeLimit() / 1000 + 1);
+    }
+    return request;
+  }
+
+  private static String[] getAttributes(String[] returningAttributes) {
+    if (returningAttributes == null) {
+      // jndi returns all attributes for null, unboundid for an empty list
+      return new String[0];
+    }
+    if (returningAttributes.length == 0) {
+      return new String[]{NO_ATTRIBUTES};
+    }
+    return returningAttributes;
+  }
+
+  private static SearchScope getScope(int scope) {
+    switch (scope) {
+      case SearchControls.OBJECT_SCOPE:
+        return SearchScope.BASE;
+      case SearchControls.ONELEVEL_SCOPE:
+        return SearchScope.ONE;
+      default:
+        return SearchScope.SUB;
+    }
+  }
+
+  private static boolean isLimitExceeded(ResultCode resultCode) {
+    return resultCode == ResultCode.SIZE_LIMIT_EXCEEDED || resultCode == ResultCode.TIME_LIMIT_EXCEEDED;
+  }
+
+  private static List<SearchResult> convert(List<SearchResultEntry> entries) {
+    List<SearchResult> results = new ArrayList<>(entries.size());
+    for (SearchResultEntry entry : entries) {
+      results.add(convert(entry));
+    }
+    return results;
+  }
+
+  private static SearchResult convert(SearchResultEntry entry) {
+    BasicAttributes attributes = new BasicAttributes(true);
+    for (com.unboundid.ldap.sdk.Attribute attribute : entry.getAttributes()) {
+      BasicAttribute converted = new BasicAttribute(attribute.getName());
+      if (isBinary(attribute.getBaseName())) {
+        for (byte[] value : attribute.getValueByteArrays()) {
+          converted.add(value);
+        }
+      } else {
+        for (String value : attribute.getValues()) {
+          converted.add(value);
+        }
+      }
+      attributes.put(converted);
+    }
+    SearchResult result = new SearchResult(entry.getDN(), null, attributes, false);
+    result.setNameInNamespace(entry.getDN());
+    return result;
+  }
+
+  private static boolean isBinary(String attributeName) {
+    return BINARY_ATTRIBUTE_NAMES.contains(attributeName.toLowerCase(Locale.ENGLISH));
+  }
+
+  /**
+   * Maps the result code of an unboundid exception to the jndi exception, which jndi would have thrown.
+   */
+  static NamingException toNamingException(LDAPException ex) {
+    ResultCode resultCode = ex.getResultCode();
+    NamingException namingException;
+    if (resultCode == ResultCode.SERVER_DOWN || resultCode == ResultCode.CONNECT_ERROR
+      || resultCode == ResultCode.TIMEOUT) {
+      namingException = new CommunicationException(ex.getMessage());
+    } else if (resultCode == ResultCode.UNAVAILABLE || resultCode == ResultCode.BUSY) {
+      namingException = new ServiceUnavailableException(ex.getMessage());
+    } else if (resultCode == ResultCode.INVALID_CREDENTIALS
+      || resultCode == ResultCode.INAPPROPRIATE_AUTHENTICATION) {
+      namingException = new AuthenticationException(ex.getMessage());
+    } else if (resultCode == ResultCode.SIZE_LIMIT_EXCEEDED) {
+      namingException = new SizeLimitExceededException(ex.getMessage());
+    } else if (resultCode == ResultCode.TIME_LIMIT_EXCEEDED) {
+      namingException = new TimeLimitExceededException(ex.getMessage());
+    } else if (resultCode == ResultCode.NO_SUCH_OBJECT) {
+      namingException = new NameNotFoundException(ex.getMessage());
+    } else if (resultCode == ResultCode.INSUFFICIENT_ACCESS_RIGHTS) {
+      namingException = new NoPermissionException(ex.getMessage());
+    } else if (resultCode == ResultCode.FILTER_ERROR) {
+      namingException = new InvalidSearchFilterException(ex.getMessage());
+    } else {
+      namingException = new NamingException(ex.getMessage());
+    }
+    namingException.setRootCause(ex);
+    return namingException;
+  }
+
+  @Override
+  public void readRootDse() throws NamingException {
+    try {
+      connection.getRootDSE();
+    } catch (LDAPException ex) {
+      throw toNamingException(ex);
+    }
+  }
+
+  @Override
+  public void bind(String dn, String password) throws NamingException {
+    try {
+      connection.bind(dn, password);
+    } catch (LDAPException ex) {
+      throw toNamingException(ex);
+    }
+  }
+
+  @Override
+  public void bindAnonymously() throws NamingException {
+    try {
+      connection.bind("", "");
+    } catch (LDAPException ex) {
+      throw toNamingException(ex);
+    }
+  }
+
+  @Override
+  public void close() {
+    connection.close();
+  }
+
+  /**
+   * Collects the entries of an asynchronous search and completes the future with them. With a page size, the next
+   * page is requested as soon as the previous one was received, without blocking the reader thread of the connection.
+   */
+  private class FutureListener implements AsyncSearchResultListener {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient CompletableFuture<List<SearchResult>> future;
+    private final transient List<SearchResult> results = Collections.synchronizedList(new ArrayList<>());
+    private final String name;
+    private final String filter;
+    private final transient SearchControls controls;
+    private final int pageSize;
+    private transient volatile AsyncRequestID requestID;
+
+    private FutureListener(CompletableFuture<List<SearchResult>> future, String name, String filter,
+                           SearchControls controls, int pageSize) {
+      this.future = future;
+      this.name = name;
+      this.filter = filter;
+      this.controls = controls;
+      this.pageSize = pageSize;
+    }
+
+    private void sendPage(ASN1OctetString cookie) {
+      try {
+        SearchRequest request = createRequest(this, name, filter, controls);
+        if (pageSize > 0) {
+          request.setControls(new SimplePagedResultsControl(pageSize, cookie, false));
+        }
+        requestID = connection.asyncSearch(request);
+      } catch (LDAPException ex) {
+        future.completeExceptionally(toNamingException(ex));
+      }
+    }
+
+    private void abandon() {
+      AsyncRequestID id = requestID;
+      if (id != null) {
+        try {
+          connection.abandon(id);
+        } catch (LDAPException ex) {
+          logger.debug("failed to abandon search {}", filter, ex);
+        }
+      }
+    }
+
+    @Override
+    public void searchEntryReturned(SearchResultEntry entry) {
+      results.add(convert(entry));
+    }
+
+    @Override
+    public void searchReferenceReturned(SearchResultReference reference) {
+      logger.trace("ignore search reference {}", reference);
+    }
+
+    @Override
+    public void searchResultReceived(AsyncRequestID requestID, com.unboundid.ldap.sdk.SearchResult result) {
+      if (future.isDone()) {
+        logger.trace("ignore result of abandoned search {}", filter);
+      } else if (result.getResultCode() == ResultCode.SUCCESS) {
+        ASN1OctetString cookie = getNextPageCookie(result);
+        if (cookie != null) {
+          sendPage(cookie);
+        } else {
+          future.complete(new ArrayList<>(results));
+        }
+      } else {
+        NamingException failure = toNamingException(new LDAPException(result));
+        if (failure instanceof SizeLimitExceededException) {
+          failure = new PartialSizeLimitExceededException(failure.getMessage(), new ArrayList<>(results));
+        }
+        future.completeExceptionally(failure);
+      }
+    }
+
+    private ASN1OctetString getNextPageCookie(com.unboundid.ldap.sdk.SearchResult result) {
+      if (pageSize <= 0) {
+        return null;
+      }
+      try {
+        SimplePagedResultsControl response = SimplePagedResultsControl.get(result);
+        return response != null && response.moreResultsToReturn() ? response.getCookie() : null;
+      } catch (LDAPException ex) {
+        logger.debug("failed to read paged results control of search {}", filter, ex);
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Enumeration over already received results, which throws the exception of the search after the last result.
+   */
+  private static class ResultEnumeration implements NamingEnumeration<SearchResult> {
+
+    private final Iterator<SearchResult> iterator;
+    private NamingException exception;
+
+    private ResultEnumeration(List<SearchResult> results, NamingException exception) {
+      this.iterator = results.iterator();
+      this.exception = exception;
+    }
+
+    @Override
+    public SearchResult next() throws NamingException {
+      if (!hasMore()) {
+        throw new NoSuchElementException();
+      }
+      return iterator.next();
+    }
+
+    @Override
+    public boolean hasMore() throws NamingException {
+      if (iterator.hasNext()) {
+        return true;
+      }
+      if (exception != null) {
+        NamingException pending = exception;
+        exception = null;
+        throw pending;
+      }
+      return false;
+    }
+
+    @Override
+    public void close() {
+      exception = null;
+    }
+
+    @Override
+    public boolean hasMoreElements() {
+      return iterator.hasNext();
+    }
+
+    @Override
+    public SearchResult nextElement() {
+      return iterator.next();
+    }
+  }
+}
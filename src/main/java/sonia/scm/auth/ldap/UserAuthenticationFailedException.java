@@ -26,6 +26,10 @@ package sonia.scm.auth.ldap;
 @SuppressWarnings("squid:MaximumInheritanceDepth")
 public class UserAuthenticationFailedException extends LdapException {
 
+  public UserAuthenticationFailedException(String message) {
+    super(message);
+  }
+
   public UserAuthenticationFailedException(String message, Throwable cause) {
     super(message, cause);
   }
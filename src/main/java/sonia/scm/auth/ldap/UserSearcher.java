@@ -25,40 +25,41 @@ package sonia.scm.auth.ldap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import sonia.scm.util.Util;
 
 import javax.naming.NamingException;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
-import java.text.MessageFormat;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Optional;
 
 class UserSearcher {
 
   private static final Logger logger = LoggerFactory.getLogger(UserSearcher.class);
 
-  private final LdapConfig config;
+  private final CompiledLdapConfig config;
   private final LdapConnection connection;
 
-  UserSearcher(LdapConfig config, LdapConnection connection) {
+  UserSearcher(CompiledLdapConfig config, LdapConnection connection) {
     this.config = config;
     this.connection = connection;
   }
 
-  Optional<SearchResult> search(String username, String... attributes) {
+  /**
+   * Searches the user with the given name.
+   *
+   * @param attributes attributes to return, one of the precomputed arrays of {@link CompiledLdapConfig}
+   */
+  Optional<SearchResult> search(String username, String[] attributes) {
     SearchControls searchControls = new SearchControls();
-    int scope = LdapUtil.getSearchScope(config.getSearchScope());
+    int scope = config.getUserSearchScope();
 
     logger.debug("using scope {} for user search", LdapUtil.getSearchScope(scope));
 
     searchControls.setSearchScope(scope);
     searchControls.setCountLimit(1);
-    searchControls.setReturningAttributes(getReturnAttributes(attributes));
+    searchControls.setReturningAttributes(attributes);
 
     String filter = createUserSearchFilter(username);
-    String baseDn = LdapUtil.createDN(config, config.getUnitPeople());
+    String baseDn = config.getPeopleDn();
 
     try (AutoCloseableNamingEnumeration<SearchResult> searchResultEnm = connection.search(baseDn, filter, searchControls)) {
       if (searchResultEnm.hasMore()) {
@@ -72,30 +73,10 @@ class UserSearcher {
     }
   }
 
-  private String[] getReturnAttributes(String[] attributes) {
-    List<String> list = new ArrayList<>();
-    for (String attribute : attributes) {
-      appendAttribute(list, attribute);
-    }
-    return list.toArray(new String[0]);
-  }
-
-  private void appendAttribute(List<String> list, String attribute) {
-    if (Util.isNotEmpty(attribute)) {
-      list.add(attribute);
-    }
-  }
-
   private String createUserSearchFilter(String username) {
-    if (Util.isNotEmpty(config.getSearchFilter())) {
-      String filter = MessageFormat.format(
-        config.getSearchFilter(), LdapUtil.escapeSearchFilter(username)
-      );
-      logger.debug("search-filter for user search: {}", filter);
-      return filter;
-    } else {
-      throw new ConfigurationException("search filter not defined");
-    }
+    String filter = config.getUserFilter().format(username);
+    logger.debug("search-filter for user search: {}", filter);
+    return filter;
   }
 
 }
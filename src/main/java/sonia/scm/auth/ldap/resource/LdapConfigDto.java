@@ -30,9 +30,13 @@ import lombok.NoArgsConstructor;
 import lombok.Setter;
 import org.hibernate.validator.constraints.NotEmpty;
 
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+
 @Getter
 @Setter
 @NoArgsConstructor
+@ValidPoolSize
 @SuppressWarnings("squid:S2160") // No need for equals and hash code here, never compared, never hashed
 public class LdapConfigDto extends HalRepresentation {
   @NotEmpty
@@ -50,7 +54,9 @@ public class LdapConfigDto extends HalRepresentation {
   private String profile;
   private String referralStrategy;
   @NotEmpty
+  @ValidFilter(arguments = 1)
   private String searchFilter;
+  @ValidFilter(arguments = 3)
   private String searchFilterGroup;
   @NotEmpty
   private String searchScope;
@@ -59,6 +65,72 @@ public class LdapConfigDto extends HalRepresentation {
   private boolean enabled;
   private boolean enableStartTls;
   private boolean enableNestedADGroups;
+  // the following settings keep their stored value, if they are missing in the request
+  private Boolean connectionPoolEnabled;
+  @Min(0)
+  @Max(1000)
+  private Integer connectionPoolMinSize;
+  @Min(1)
+  @Max(1000)
+  private Integer connectionPoolMaxSize;
+  @Min(0)
+  private Integer connectionPoolIdleTimeout;
+  @Min(0)
+  private Integer connectionPoolMaxLifetime;
+  @Min(0)
+  private Integer connectionPoolBorrowTimeout;
+  private Boolean authenticationCacheEnabled;
+  @Min(1)
+  private Integer authenticationCacheTtl;
+  @Min(1)
+  private Integer authenticationCacheMaxEntries;
+  private Boolean groupCacheEnabled;
+  @Min(1)
+  private Integer groupCacheTtl;
+  @Min(0)
+  private Integer groupCacheRefresh;
+  @Min(1)
+  private Integer groupCacheMaxWeight;
+  private Boolean userCacheEnabled;
+  @Min(1)
+  private Integer userCacheTtl;
+  @Min(1)
+  private Integer userCacheMaxEntries;
+  private Boolean unknownUserCacheEnabled;
+  @Min(1)
+  private Integer unknownUserCacheTtl;
+  @Min(1)
+  private Integer unknownUserCacheMaxEntries;
+  private String serverSelectionStrategy;
+  @Min(0)
+  private Integer healthCheckInterval;
+  @Min(1)
+  private Integer connectTimeout;
+  @Min(1)
+  private Integer readTimeout;
+  @Min(0)
+  private Integer bindTimeout;
+  @Min(0)
+  private Integer searchTimeout;
+  @Min(0)
+  private Integer loginTimeout;
+  private Boolean circuitBreakerEnabled;
+  @Min(1)
+  private Integer circuitBreakerFailureThreshold;
+  @Min(1)
+  private Integer circuitBreakerProbeInterval;
+  private Boolean offlineAuthenticationEnabled;
+  @Min(1)
+  private Integer offlineAuthenticationMaxAge;
+  private String connectionBackend;
+  @Min(0)
+  private Integer groupSearchPageSize;
+  private String nestedADGroupStrategy;
+  private Boolean expandNestedGroups;
+  @Min(1)
+  @Max(100)
+  private Integer nestedGroupMaxDepth;
+  private Boolean resolveGroupAttributeNames;
 
   public LdapConfigDto(Links links) {
     super(links);
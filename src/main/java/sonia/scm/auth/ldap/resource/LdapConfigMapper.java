@@ -52,8 +52,19 @@ public abstract class LdapConfigMapper {
 
   public abstract LdapConfigDto map(LdapConfig config);
 
+  /**
+   * Maps the dto onto a copy of the stored configuration, so that settings which are missing in the request keep
+   * their stored value.
+   */
   public abstract LdapConfig map(LdapConfigDto dto, @Context LdapConfig oldConfig);
 
+  abstract LdapConfig copy(LdapConfig config);
+
+  @ObjectFactory
+  LdapConfig createConfig(@Context LdapConfig oldConfig) {
+    return copy(oldConfig);
+  }
+
   @ObjectFactory
   LdapConfigDto createDto(LdapConfig config) {
     Links.Builder linksBuilder = linkingTo().self(self());
@@ -43,9 +43,46 @@ type LdapConfiguration = {
   unitPeople: string;
   unitGroup: string;
   referralStrategy: string;
+  serverSelectionStrategy: string;
+  connectionBackend: string;
+  groupSearchPageSize: number;
+  healthCheckInterval: number;
+  connectTimeout: number;
+  readTimeout: number;
+  bindTimeout: number;
+  searchTimeout: number;
+  loginTimeout: number;
+  circuitBreakerEnabled: boolean;
+  circuitBreakerFailureThreshold: number;
+  circuitBreakerProbeInterval: number;
+  offlineAuthenticationEnabled: boolean;
+  offlineAuthenticationMaxAge: number;
   enableNestedADGroups: boolean;
+  nestedADGroupStrategy: string;
+  expandNestedGroups: boolean;
+  nestedGroupMaxDepth: number;
+  resolveGroupAttributeNames: boolean;
   enableStartTls: boolean;
   enabled: boolean;
+  connectionPoolEnabled: boolean;
+  connectionPoolMinSize: number;
+  connectionPoolMaxSize: number;
+  connectionPoolIdleTimeout: number;
+  connectionPoolMaxLifetime: number;
+  connectionPoolBorrowTimeout: number;
+  authenticationCacheEnabled: boolean;
+  authenticationCacheTtl: number;
+  authenticationCacheMaxEntries: number;
+  groupCacheEnabled: boolean;
+  groupCacheTtl: number;
+  groupCacheRefresh: number;
+  groupCacheMaxWeight: number;
+  userCacheEnabled: boolean;
+  userCacheTtl: number;
+  userCacheMaxEntries: number;
+  unknownUserCacheEnabled: boolean;
+  unknownUserCacheTtl: number;
+  unknownUserCacheMaxEntries: number;
 };
 
 type Props = WithTranslation & {
@@ -148,12 +185,54 @@ class LdapConfigurationForm extends React.Component<Props, State> {
         {this.createDropDown("searchScope", ["object", "one", "sub"])}
         {this.createInputField("unitPeople")}
         {this.createInputField("unitGroup")}
+        {this.createInputField("groupSearchPageSize", "number")}
         {this.createDropDown("referralStrategy", ["FOLLOW", "IGNORE", "THROW"])}
+        {this.createDropDown("serverSelectionStrategy", [
+          "FAILOVER",
+          "ROUND_ROBIN",
+          "FEWEST_CONNECTIONS",
+          "LOWEST_LATENCY"
+        ])}
+        {this.createInputField("healthCheckInterval", "number")}
+        {this.createDropDown("connectionBackend", ["JNDI", "UNBOUNDID"])}
+        {this.createInputField("connectTimeout", "number")}
+        {this.createInputField("readTimeout", "number")}
+        {this.createInputField("bindTimeout", "number")}
+        {this.createInputField("searchTimeout", "number")}
+        {this.createInputField("loginTimeout", "number")}
+        <div className="column is-full">{this.createCheckbox("circuitBreakerEnabled")}</div>
+        {this.createInputField("circuitBreakerFailureThreshold", "number")}
+        {this.createInputField("circuitBreakerProbeInterval", "number")}
+        <div className="column is-full">{this.createCheckbox("offlineAuthenticationEnabled")}</div>
+        {this.createInputField("offlineAuthenticationMaxAge", "number")}
         <div className="column is-full">
           {this.createCheckbox("enableNestedADGroups")}
           {this.createCheckbox("enableStartTls")}
           {this.createCheckbox("enabled")}
         </div>
+        {this.createDropDown("nestedADGroupStrategy", ["MATCHING_RULE_IN_CHAIN", "TOKEN_GROUPS"])}
+        <div className="column is-full">{this.createCheckbox("expandNestedGroups")}</div>
+        {this.createInputField("nestedGroupMaxDepth", "number")}
+        <div className="column is-full">{this.createCheckbox("resolveGroupAttributeNames")}</div>
+        <div className="column is-full">{this.createCheckbox("connectionPoolEnabled")}</div>
+        {this.createInputField("connectionPoolMinSize", "number")}
+        {this.createInputField("connectionPoolMaxSize", "number")}
+        {this.createInputField("connectionPoolIdleTimeout", "number")}
+        {this.createInputField("connectionPoolMaxLifetime", "number")}
+        {this.createInputField("connectionPoolBorrowTimeout", "number")}
+        <div className="column is-full">{this.createCheckbox("authenticationCacheEnabled")}</div>
+        {this.createInputField("authenticationCacheTtl", "number")}
+        {this.createInputField("authenticationCacheMaxEntries", "number")}
+        <div className="column is-full">{this.createCheckbox("groupCacheEnabled")}</div>
+        {this.createInputField("groupCacheTtl", "number")}
+        {this.createInputField("groupCacheRefresh", "number")}
+        {this.createInputField("groupCacheMaxWeight", "number")}
+        <div className="column is-full">{this.createCheckbox("userCacheEnabled")}</div>
+        {this.createInputField("userCacheTtl", "number")}
+        {this.createInputField("userCacheMaxEntries", "number")}
+        <div className="column is-full">{this.createCheckbox("unknownUserCacheEnabled")}</div>
+        {this.createInputField("unknownUserCacheTtl", "number")}
+        {this.createInputField("unknownUserCacheMaxEntries", "number")}
         <div className="column is-full">
           <Button
             label={t("scm-ldap-plugin.form.testButton")}
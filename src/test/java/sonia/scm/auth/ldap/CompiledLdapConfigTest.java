@@ -0,0 +1,155 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sonia.scm.store.InMemoryConfigurationStore;
+
+import javax.naming.directory.SearchControls;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CompiledLdapConfigTest {
+
+  private LdapConfig config;
+
+  @BeforeEach
+  void setUpConfig() {
+    config = new LdapConfig();
+    config.setBaseDn("dc=hitchhiker,dc=com");
+    config.setUnitPeople("ou=People");
+    config.setUnitGroup("ou=Groups");
+    config.setSearchScope("sub");
+    config.setSearchFilter("(&(objectClass=person)(uid={0}))");
+    config.setSearchFilterGroup("(&(objectClass=group)(member={0}))");
+    config.setAttributeNameId("uid");
+    config.setAttributeNameFullname("cn");
+    config.setAttributeNameMail("mail");
+    config.setAttributeNameGroup("memberOf");
+  }
+
+  @Test
+  void shouldDeriveValues() {
+    CompiledLdapConfig compiled = CompiledLdapConfig.compile(config);
+
+    assertThat(compiled.getUserSearchScope()).isEqualTo(SearchControls.SUBTREE_SCOPE);
+    assertThat(compiled.getPeopleDn()).isEqualTo("ou=People,dc=hitchhiker,dc=com");
+    assertThat(compiled.getGroupDn()).isEqualTo("ou=Groups,dc=hitchhiker,dc=com");
+    assertThat(compiled.getUserFilter()).hasToString("(&(objectClass=person)(uid={0}))");
+    assertThat(compiled.getGroupFilter()).hasValueSatisfying(
+      filter -> assertThat(filter).hasToString("(&(objectClass=group)(member={0}))")
+    );
+    assertThat(compiled.getLoginAttributes(false)).containsExactly("uid", "cn", "mail");
+    assertThat(compiled.getLoginAttributes(true)).containsExactly("uid", "cn", "mail", "memberOf");
+    assertThat(compiled.getGroupResolutionAttributes()).containsExactly("memberOf", "mail");
+  }
+
+  @Test
+  void shouldSkipEmptyAttributes() {
+    config.setAttributeNameFullname("");
+    config.setAttributeNameGroup(null);
+
+    CompiledLdapConfig compiled = CompiledLdapConfig.compile(config);
+
+    assertThat(compiled.getLoginAttributes(true)).containsExactly("uid", "mail");
+    assertThat(compiled.getGroupResolutionAttributes()).containsExactly("mail");
+  }
+
+  @Test
+  void shouldUseBaseDnWithoutUnit() {
+    config.setUnitPeople(null);
+
+    assertThat(CompiledLdapConfig.compile(config).getPeopleDn()).isEqualTo("dc=hitchhiker,dc=com");
+  }
+
+  @Test
+  void shouldPrepareGroupFilterForNestedADGroups() {
+    config.setEnableNestedADGroups(true);
+    config.setNestedADGroupStrategy(NestedADGroupStrategy.MATCHING_RULE_IN_CHAIN);
+
+    assertThat(CompiledLdapConfig.compile(config).getGroupFilter()).hasValueSatisfying(
+      filter -> assertThat(filter.format("cn=trillian,ou=People", "", null))
+        .isEqualTo("(&(objectClass=group)(member:1.2.840.113556.1.4.1941:=cn=trillian,ou=People))")
+    );
+  }
+
+  @Test
+  void shouldNotPrepareGroupFilterForTokenGroups() {
+    config.setEnableNestedADGroups(true);
+    config.setNestedADGroupStrategy(NestedADGroupStrategy.TOKEN_GROUPS);
+
+    assertThat(CompiledLdapConfig.compile(config).getGroupFilter()).hasValueSatisfying(
+      filter -> assertThat(filter).hasToString("(&(objectClass=group)(member={0}))")
+    );
+  }
+
+  @Test
+  void shouldThrowConfigurationExceptionOnUseOfMissingValues() {
+    config.setBaseDn(null);
+    config.setSearchFilter(null);
+
+    CompiledLdapConfig compiled = CompiledLdapConfig.compile(config);
+
+    assertThrows(ConfigurationException.class, compiled::getPeopleDn);
+    assertThrows(ConfigurationException.class, compiled::getGroupDn);
+    assertThrows(ConfigurationException.class, compiled::getUserFilter);
+  }
+
+  @Test
+  void shouldThrowConfigurationExceptionOnUseOfInvalidFilters() {
+    config.setSearchFilter("(uid={1})");
+    config.setSearchFilterGroup("(member={0,number})");
+
+    CompiledLdapConfig compiled = CompiledLdapConfig.compile(config);
+
+    assertThrows(ConfigurationException.class, compiled::getUserFilter);
+    assertThrows(ConfigurationException.class, compiled::getGroupFilter);
+  }
+
+  @Test
+  void shouldReuseSnapshotOfStore() {
+    LdapConfigStore store = new LdapConfigStore(new InMemoryConfigurationStore<>());
+    store.set(config);
+
+    CompiledLdapConfig compiled = store.getCompiled();
+    assertThat(store.getCompiled()).isSameAs(compiled);
+
+    LdapConfig other = new LdapConfig();
+    other.setSearchFilter("(uid={0})");
+    store.set(other);
+    assertThat(store.getCompiled()).isNotSameAs(compiled);
+    assertThat(store.getCompiled().getUserFilter()).hasToString("(uid={0})");
+  }
+
+  @Test
+  void shouldCompileDefaultConfigurationOnlyOnce() {
+    LdapConfigStore store = new LdapConfigStore(new InMemoryConfigurationStore<>());
+
+    CompiledLdapConfig compiled = store.getCompiled();
+
+    assertThat(store.getCompiled()).isSameAs(compiled);
+  }
+}
@@ -0,0 +1,290 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedExtendedRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSearchRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSimpleBindRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.ResultCode;
+import com.unboundid.ldap.sdk.SearchRequest;
+import com.unboundid.ldif.LDIFReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process directory, which behaves like a slow or unreliable server. Binds, searches and extended operations can
+ * be delayed, their connections can be dropped, searches can be answered with referrals and the number of search
+ * results can be limited. The faults can be changed while the server is running, e.g. to let a server fail after
+ * connections were pooled.
+ * <p>
+ * The server listens on a free port, so it can be used next to the server of {@link LdapServerTestBaseJunit5} and
+ * from the benchmarks.
+ */
+final class FaultInjectingDirectoryServer implements AutoCloseable {
+
+  enum Operation {
+    BIND, SEARCH, EXTENDED
+  }
+
+  private final Map<Operation, Fault> faults = new EnumMap<>(Operation.class);
+  private final Map<Operation, AtomicLong> counts = new EnumMap<>(Operation.class);
+  private final InMemoryDirectoryServer server;
+
+  private volatile int searchSizeLimit = 0;
+
+  private FaultInjectingDirectoryServer() throws LDAPException {
+    for (Operation operation : Operation.values()) {
+      faults.put(operation, Fault.NONE);
+      counts.put(operation, new AtomicLong());
+    }
+
+    InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(LdapTestBase.BASE_DN);
+    config.addAdditionalBindCredentials(LdapTestBase.BIND_DN, LdapTestBase.BIND_PWD);
+    config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("faulty", 0));
+    // disable schema check, because of memberOf attribute
+    config.setSchema(null);
+    config.addInMemoryOperationInterceptor(new Interceptor());
+    server = new InMemoryDirectoryServer(config);
+  }
+
+  static FaultInjectingDirectoryServer start() throws LDAPException {
+    FaultInjectingDirectoryServer directory = new FaultInjectingDirectoryServer();
+    directory.server.startListening();
+    return directory;
+  }
+
+  /**
+   * Replaces the content of the directory with the ldif from the classpath of the tests.
+   */
+  FaultInjectingDirectoryServer ldif(int number) throws LDAPException, IOException {
+    String ldif = String.format("/ldif/%03d.ldif", number);
+    try (InputStream stream = FaultInjectingDirectoryServer.class.getResourceAsStream(ldif)) {
+      server.importFromLDIF(true, new LDIFReader(stream));
+    }
+    return this;
+  }
+
+  /**
+   * Replaces the content of the directory with the ldif file, e.g. one created by the {@code LdifGenerator} of the
+   * benchmarks.
+   */
+  FaultInjectingDirectoryServer ldif(File file) throws LDAPException {
+    server.importFromLDIF(true, file.getPath());
+    return this;
+  }
+
+  /**
+   * Delays every operation of the given type.
+   */
+  FaultInjectingDirectoryServer delay(Operation operation, long millis) {
+    return delay(operation, millis, 0);
+  }
+
+  /**
+   * Delays every operation of the given type by the latency plus a random jitter between zero and the given jitter.
+   */
+  FaultInjectingDirectoryServer delay(Operation operation, long millis, long jitterMillis) {
+    update(operation, faults.get(operation).withDelay(millis, jitterMillis));
+    return this;
+  }
+
+  /**
+   * Closes the client connections, when an operation of the given type is received. Because the in-memory server has
+   * no access to the connection of an operation, all open connections are closed.
+   *
+   * @param probability probability between 0 and 1 that an operation drops the connections
+   */
+  FaultInjectingDirectoryServer drop(Operation operation, double probability) {
+    update(operation, faults.get(operation).withDropProbability(probability));
+    return this;
+  }
+
+  /**
+   * Answers every search with a referral to the given urls, instead of the search results.
+   */
+  FaultInjectingDirectoryServer refer(String... urls) {
+    update(Operation.SEARCH, faults.get(Operation.SEARCH).withReferrals(urls));
+    return this;
+  }
+
+  /**
+   * Limits the number of results of every search, searches with more results fail with a size limit exceeded result
+   * after the given number of results. Zero removes the limit.
+   */
+  FaultInjectingDirectoryServer limitSearchResults(int sizeLimit) {
+    this.searchSizeLimit = sizeLimit;
+    return this;
+  }
+
+  /**
+   * Removes all faults and resets the operation counts.
+   */
+  FaultInjectingDirectoryServer reset() {
+    for (Operation operation : Operation.values()) {
+      update(operation, Fault.NONE);
+      counts.get(operation).set(0);
+    }
+    searchSizeLimit = 0;
+    return this;
+  }
+
+  private synchronized void update(Operation operation, Fault fault) {
+    faults.put(operation, fault);
+  }
+
+  private synchronized Fault getFault(Operation operation) {
+    return faults.get(operation);
+  }
+
+  /**
+   * Returns the number of received operations of the given type, e.g. to verify that connections are pooled.
+   */
+  long getCount(Operation operation) {
+    return counts.get(operation).get();
+  }
+
+  String getHostUrl() {
+    return "ldap://localhost:" + server.getListenPort();
+  }
+
+  InMemoryDirectoryServer getServer() {
+    return server;
+  }
+
+  /**
+   * Creates a configuration for the directory, with the same filters and attributes as
+   * {@link LdapTestBase#createConfig()}.
+   */
+  LdapConfig createConfig() {
+    LdapConfig config = new LdapConfig();
+    config.setEnabled(true);
+    config.setHostUrl(getHostUrl());
+    config.setBaseDn(LdapTestBase.BASE_DN);
+    config.setConnectionDn(LdapTestBase.BIND_DN);
+    config.setConnectionPassword(LdapTestBase.BIND_PWD);
+    config.setAttributeNameId("uid");
+    config.setAttributeNameFullname("cn");
+    config.setAttributeNameMail("mail");
+    config.setAttributeNameGroup("memberOf");
+    config.setSearchFilter("(uid={0})");
+    config.setSearchFilterGroup("(uniqueMember={0})");
+    config.setSearchScope("sub");
+    config.setUnitGroup("ou=Groups");
+    config.setUnitPeople("ou=People");
+    return config;
+  }
+
+  @Override
+  public void close() {
+    server.shutDown(true);
+  }
+
+  private void inject(Operation operation) throws LDAPException {
+    counts.get(operation).incrementAndGet();
+    Fault fault = getFault(operation);
+    long delay = fault.delay;
+    if (fault.jitter > 0) {
+      delay += ThreadLocalRandom.current().nextLong(fault.jitter + 1);
+    }
+    if (delay > 0) {
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new LDAPException(ResultCode.CANCELED, "interrupted while delaying " + operation);
+      }
+    }
+    if (fault.dropProbability > 0 && ThreadLocalRandom.current().nextDouble() < fault.dropProbability) {
+      server.closeAllConnections(false);
+      throw new LDAPException(ResultCode.SERVER_DOWN, "dropped connection on " + operation);
+    }
+    if (fault.referrals != null) {
+      throw new LDAPException(ResultCode.REFERRAL, "referral", null, fault.referrals);
+    }
+  }
+
+  private final class Interceptor extends InMemoryOperationInterceptor {
+
+    @Override
+    public void processSimpleBindRequest(InMemoryInterceptedSimpleBindRequest request) throws LDAPException {
+      inject(Operation.BIND);
+    }
+
+    @Override
+    public void processSearchRequest(InMemoryInterceptedSearchRequest request) throws LDAPException {
+      inject(Operation.SEARCH);
+      int sizeLimit = searchSizeLimit;
+      if (sizeLimit > 0) {
+        SearchRequest limited = request.getRequest().duplicate();
+        limited.setSizeLimit(sizeLimit);
+        request.setRequest(limited);
+      }
+    }
+
+    @Override
+    public void processExtendedRequest(InMemoryInterceptedExtendedRequest request) throws LDAPException {
+      inject(Operation.EXTENDED);
+    }
+  }
+
+  private static final class Fault {
+
+    private static final Fault NONE = new Fault(0, 0, 0, null);
+
+    private final long delay;
+    private final long jitter;
+    private final double dropProbability;
+    private final String[] referrals;
+
+    private Fault(long delay, long jitter, double dropProbability, String[] referrals) {
+      this.delay = delay;
+      this.jitter = jitter;
+      this.dropProbability = dropProbability;
+      this.referrals = referrals;
+    }
+
+    Fault withDelay(long delay, long jitter) {
+      return new Fault(delay, jitter, dropProbability, referrals);
+    }
+
+    Fault withDropProbability(double dropProbability) {
+      return new Fault(delay, jitter, dropProbability, referrals);
+    }
+
+    Fault withReferrals(String[] referrals) {
+      return new Fault(delay, jitter, dropProbability, referrals);
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.LDAPSearchException;
+import com.unboundid.ldap.sdk.ResultCode;
+import com.unboundid.ldap.sdk.SearchScope;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sonia.scm.user.User;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static sonia.scm.auth.ldap.FaultInjectingDirectoryServer.Operation.BIND;
+import static sonia.scm.auth.ldap.FaultInjectingDirectoryServer.Operation.SEARCH;
+
+class FaultInjectingDirectoryServerTest {
+
+  private FaultInjectingDirectoryServer directory;
+  private LdapConfig config;
+
+  @BeforeEach
+  void startDirectory() throws Exception {
+    directory = FaultInjectingDirectoryServer.start().ldif(1);
+    config = directory.createConfig();
+  }
+
+  @AfterEach
+  void stopDirectory() {
+    directory.close();
+  }
+
+  @Test
+  void shouldAuthenticateWithoutFaults() {
+    Optional<User> user = authenticate();
+
+    assertThat(user).isPresent();
+    assertThat(directory.getCount(BIND)).isPositive();
+    assertThat(directory.getCount(SEARCH)).isPositive();
+  }
+
+  @Test
+  void shouldDelaySearches() {
+    directory.delay(SEARCH, 200);
+
+    long start = System.currentTimeMillis();
+    Optional<User> user = authenticate();
+
+    assertThat(user).isPresent();
+    assertThat(System.currentTimeMillis() - start).isGreaterThanOrEqualTo(200);
+  }
+
+  @Test
+  void shouldExceedReadTimeoutWithSlowSearches() {
+    directory.delay(SEARCH, 2000);
+    config.setReadTimeout(200);
+
+    assertThrows(LdapException.class, this::authenticate);
+  }
+
+  @Test
+  void shouldExceedBindTimeoutWithSlowBinds() {
+    directory.delay(BIND, 1000);
+    config.setBindTimeout(200);
+
+    assertThrows(LdapException.class, this::authenticate);
+  }
+
+  @Test
+  void shouldDropConnections() {
+    directory.drop(BIND, 1);
+
+    LdapException ex = assertThrows(LdapException.class, this::authenticate);
+    assertThat(LdapServer.isConnectionFailure(ex)).isTrue();
+  }
+
+  @Test
+  void shouldLimitSearchResults() throws Exception {
+    directory.limitSearchResults(1);
+
+    try (LDAPConnection connection = connect()) {
+      LDAPSearchException ex = assertThrows(
+        LDAPSearchException.class,
+        () -> connection.search(LdapTestBase.BASE_DN, SearchScope.SUB, "(objectClass=*)")
+      );
+      assertThat(ex.getResultCode()).isEqualTo(ResultCode.SIZE_LIMIT_EXCEEDED);
+      assertThat(ex.getSearchEntries()).hasSize(1);
+    }
+  }
+
+  @Test
+  void shouldAnswerSearchesWithReferrals() throws Exception {
+    directory.refer("ldap://localhost:1/" + LdapTestBase.BASE_DN);
+
+    try (LDAPConnection connection = connect()) {
+      LDAPSearchException ex = assertThrows(
+        LDAPSearchException.class,
+        () -> connection.search(LdapTestBase.BASE_DN, SearchScope.SUB, "(uid=trillian)")
+      );
+      assertThat(ex.getResultCode()).isEqualTo(ResultCode.REFERRAL);
+    }
+  }
+
+  @Test
+  void shouldRemoveFaultsOnReset() {
+    directory.drop(BIND, 1).delay(SEARCH, 2000);
+    config.setReadTimeout(200);
+
+    directory.reset();
+
+    assertThat(authenticate()).isPresent();
+  }
+
+  private Optional<User> authenticate() {
+    return new LdapAuthenticator(config).authenticate("trillian", "trilli123");
+  }
+
+  private LDAPConnection connect() throws Exception {
+    return new LDAPConnection("localhost", directory.getServer().getListenPort());
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FilterTemplateTest {
+
+  @Test
+  void shouldReplacePlaceholders() {
+    FilterTemplate template = FilterTemplate.parse("(&(objectClass=group)(|(member={0})(memberUid={1})(mail={2})))", 3);
+
+    assertThat(template.format("uid=trillian,ou=People,dc=hitchhiker,dc=com", "trillian", "tricia@hitchhiker.com"))
+      .isEqualTo("(&(objectClass=group)(|(member=uid=trillian,ou=People,dc=hitchhiker,dc=com)(memberUid=trillian)(mail=tricia@hitchhiker.com)))");
+  }
+
+  @Test
+  void shouldReplaceRepeatedPlaceholders() {
+    FilterTemplate template = FilterTemplate.parse("(|(uid={0})(mail={0}))", 1);
+
+    assertThat(template.format("trillian")).isEqualTo("(|(uid=trillian)(mail=trillian))");
+  }
+
+  @Test
+  void shouldEscapeValues() {
+    FilterTemplate template = FilterTemplate.parse("(member={0})", 1);
+
+    assertThat(template.format("cn=a\\,b*(c)\u0000")).isEqualTo("(member=cn=a\\5c,b\\2a\\28c\\29\\00)");
+  }
+
+  @Test
+  void shouldWriteNullAsEmptyValue() {
+    FilterTemplate template = FilterTemplate.parse("(&(memberUid={1})(mail={2}))", 3);
+
+    assertThat(template.format("", "trillian", null)).isEqualTo("(&(memberUid=trillian)(mail=))");
+  }
+
+  @Test
+  void shouldHandleQuotesLikeMessageFormat() {
+    FilterTemplate template = FilterTemplate.parse("(&(description=it''s)(cn='{0}')(uid={0}))", 1);
+
+    assertThat(template.format("trillian")).isEqualTo("(&(description=it's)(cn={0})(uid=trillian))");
+  }
+
+  @Test
+  void shouldAppendToBuilder() {
+    FilterTemplate template = FilterTemplate.parse("(member={0})", 1);
+    StringBuilder builder = new StringBuilder("(|");
+
+    template.appendTo(builder, "cn=a", null, null);
+    template.appendTo(builder, "cn=b", null, null);
+
+    assertThat(builder.append(')')).hasToString("(|(member=cn=a)(member=cn=b))");
+  }
+
+  @Test
+  void shouldReturnUsedPlaceholders() {
+    FilterTemplate template = FilterTemplate.parse("(memberUid={1})", 3);
+
+    assertThat(template.uses(1)).isTrue();
+    assertThat(template.uses(0)).isFalse();
+  }
+
+  @Test
+  void shouldRejectInvalidPatterns() {
+    assertThrows(IllegalArgumentException.class, () -> FilterTemplate.parse("(uid={1})", 1));
+    assertThrows(IllegalArgumentException.class, () -> FilterTemplate.parse("(uid={0)", 1));
+    assertThrows(IllegalArgumentException.class, () -> FilterTemplate.parse("(uid={0,number})", 1));
+    assertThrows(IllegalArgumentException.class, () -> FilterTemplate.parse("(uid={})", 1));
+    assertThrows(IllegalArgumentException.class, () -> FilterTemplate.parse("(cn='{0})", 1));
+  }
+
+  @Test
+  void shouldValidatePatterns() {
+    assertThat(FilterTemplate.isValid("(&(objectClass=person)(uid={0}))", 1)).isTrue();
+    assertThat(FilterTemplate.isValid("(&(objectClass=person)(uid={2}))", 1)).isFalse();
+  }
+}
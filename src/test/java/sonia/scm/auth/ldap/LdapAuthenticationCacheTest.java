@@ -0,0 +1,105 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sonia.scm.store.InMemoryConfigurationStore;
+import sonia.scm.user.User;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LdapAuthenticationCacheTest {
+
+  private final User trillian = new User("trillian", "Tricia McMillan", "tricia.mcmillan@hitchhiker.com");
+
+  private LdapConfig config;
+  private LdapConfigStore configStore;
+  private LdapAuthenticationCache cache;
+
+  @BeforeEach
+  void setUpCache() {
+    config = new LdapConfig();
+    config.setAuthenticationCacheEnabled(true);
+    configStore = new LdapConfigStore(new InMemoryConfigurationStore<>());
+    cache = new LdapAuthenticationCache(configStore);
+  }
+
+  @Test
+  void shouldReturnCachedUser() {
+    cache.put(config, "trillian", "trilli123".toCharArray(), trillian);
+
+    assertThat(cache.get(config, "trillian", "trilli123".toCharArray())).containsSame(trillian);
+  }
+
+  @Test
+  void shouldNotReturnCachedUserForWrongPassword() {
+    cache.put(config, "trillian", "trilli123".toCharArray(), trillian);
+
+    assertThat(cache.get(config, "trillian", "secret".toCharArray())).isEmpty();
+  }
+
+  @Test
+  void shouldKeepEntryAfterWrongPassword() {
+    cache.put(config, "trillian", "trilli123".toCharArray(), trillian);
+    cache.get(config, "trillian", "secret".toCharArray());
+
+    assertThat(cache.get(config, "trillian", "trilli123".toCharArray())).containsSame(trillian);
+  }
+
+  @Test
+  void shouldReplaceEntryAfterPasswordChange() {
+    cache.put(config, "trillian", "trilli123".toCharArray(), trillian);
+    cache.put(config, "trillian", "secret".toCharArray(), trillian);
+
+    assertThat(cache.get(config, "trillian", "trilli123".toCharArray())).isEmpty();
+    assertThat(cache.get(config, "trillian", "secret".toCharArray())).containsSame(trillian);
+  }
+
+  @Test
+  void shouldNotCacheIfDisabled() {
+    config.setAuthenticationCacheEnabled(false);
+    cache.put(config, "trillian", "trilli123".toCharArray(), trillian);
+
+    config.setAuthenticationCacheEnabled(true);
+    assertThat(cache.get(config, "trillian", "trilli123".toCharArray())).isEmpty();
+  }
+
+  @Test
+  void shouldRespectMaxEntries() {
+    config.setAuthenticationCacheMaxEntries(0);
+    cache.put(config, "trillian", "trilli123".toCharArray(), trillian);
+
+    assertThat(cache.get(config, "trillian", "trilli123".toCharArray())).isEmpty();
+  }
+
+  @Test
+  void shouldClearCacheIfConfigurationIsStored() {
+    cache.put(config, "trillian", "trilli123".toCharArray(), trillian);
+
+    configStore.set(config);
+
+    assertThat(cache.get(config, "trillian", "trilli123".toCharArray())).isEmpty();
+  }
+}
@@ -27,7 +27,11 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import sonia.scm.user.User;
 
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchResult;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -82,6 +86,32 @@ class LdapAuthenticatorTest extends LdapServerTestBaseJunit5 {
     assertThrows(UserAuthenticationFailedException.class, () -> authenticator.authenticate("trillian", "i_don't_know"));
   }
 
+  @Test
+  void shouldThrowUserAuthenticationFailedExceptionForEmptyPassword() {
+    ldif(1);
+    assertThrows(UserAuthenticationFailedException.class, () -> authenticator.authenticate("trillian", ""));
+  }
+
+  @Test
+  void shouldAuthenticateAsynchronously() throws Exception {
+    ldif(1);
+
+    Optional<User> optionalUser = authenticator.authenticateAsync("trillian", "trilli123").get(10, TimeUnit.SECONDS);
+    assertThat(optionalUser).isPresent();
+    assertTrillian(optionalUser.get());
+  }
+
+  @Test
+  void shouldFailAsynchronousAuthenticationWithWrongPassword() {
+    ldif(1);
+
+    ExecutionException ex = assertThrows(
+      ExecutionException.class,
+      () -> authenticator.authenticateAsync("trillian", "i_don't_know").get(10, TimeUnit.SECONDS)
+    );
+    assertThat(ex.getCause()).isInstanceOf(UserAuthenticationFailedException.class);
+  }
+
   @Test
   void shouldThrowConfigurationExceptionIfNoBaseDNWasDefined() {
     config.setBaseDn(null);
@@ -127,6 +157,71 @@ class LdapAuthenticatorTest extends LdapServerTestBaseJunit5 {
     assertThat(optionalUser.get().getDisplayName()).isEqualTo("zaphod");
   }
 
+  @Test
+  void shouldAuthenticateWithCachedDn() {
+    ldif(1);
+    config.setUserCacheEnabled(true);
+    LdapAuthenticator cachingAuthenticator = createCachingAuthenticator(new LdapUserCache());
+
+    cachingAuthenticator.authenticate("trillian", "trilli123");
+
+    // the user search would fail with a wrong connection password
+    config.setConnectionPassword("totally wrong");
+    Optional<User> optionalUser = cachingAuthenticator.authenticate("trillian", "trilli123");
+    assertThat(optionalUser).isPresent();
+    assertTrillian(optionalUser.get());
+  }
+
+  @Test
+  void shouldSearchUserAgainIfCachedDnIsOutdated() {
+    ldif(1);
+    config.setUserCacheEnabled(true);
+    LdapUserCache userCache = new LdapUserCache();
+    SearchResult outdated = new SearchResult("uid=tricia", null, new BasicAttributes());
+    outdated.setNameInNamespace("uid=tricia,ou=People," + BASE_DN);
+    userCache.put(config, "trillian", outdated);
+
+    Optional<User> optionalUser = createCachingAuthenticator(userCache).authenticate("trillian", "trilli123");
+    assertThat(optionalUser).isPresent();
+    assertTrillian(optionalUser.get());
+    assertThat(userCache.get(config, "trillian")).hasValueSatisfying(
+      result -> assertThat(result.getNameInNamespace()).isEqualTo("uid=trillian,ou=People," + BASE_DN)
+    );
+  }
+
+  @Test
+  void shouldNotCacheGroupAttributes() {
+    ldif(3);
+    config.setUserCacheEnabled(true);
+    LdapUserCache userCache = new LdapUserCache();
+    LdapAuthenticator cachingAuthenticator = new LdapAuthenticator(
+      config, DirectLdapConnectionFactory.INSTANCE, userCache, LdapGroupResolver.from(config)
+    );
+
+    cachingAuthenticator.authenticate("trillian", "trilli123");
+
+    assertThat(userCache.get(config, "trillian")).hasValueSatisfying(result -> {
+      assertThat(result.getNameInNamespace()).isEqualTo("uid=trillian,ou=People," + BASE_DN);
+      assertThat(result.getAttributes().get("uid")).isNotNull();
+      assertThat(result.getAttributes().get("memberOf")).isNull();
+    });
+  }
+
+  @Test
+  void shouldThrowUserAuthenticationFailedExceptionWithCachedDn() {
+    ldif(1);
+    config.setUserCacheEnabled(true);
+    LdapAuthenticator cachingAuthenticator = createCachingAuthenticator(new LdapUserCache());
+
+    cachingAuthenticator.authenticate("trillian", "trilli123");
+
+    assertThrows(UserAuthenticationFailedException.class, () -> cachingAuthenticator.authenticate("trillian", "i_don't_know"));
+  }
+
+  private LdapAuthenticator createCachingAuthenticator(LdapUserCache userCache) {
+    return new LdapAuthenticator(config, DirectLdapConnectionFactory.INSTANCE, userCache, null);
+  }
+
   private void assertTrillian(User user) {
     assertThat(user.getType()).isEqualTo("ldap");
     assertThat(user.getName()).isEqualTo("trillian");
@@ -55,4 +55,28 @@ public class LdapConfigTest {
     config.setAttributeNameId("");
     assertFalse(config.isValid());
   }
+
+  @Test
+  public void testIsValidWithLimitsOutOfBounds() {
+    LdapConfig config = new LdapConfig();
+    assertTrue(config.isValid());
+    config.setConnectTimeout(0);
+    assertFalse(config.isValid());
+    config.setConnectTimeout(5000);
+    config.setConnectionPoolMaxSize(0);
+    assertFalse(config.isValid());
+    config.setConnectionPoolMaxSize(10);
+    config.setCircuitBreakerFailureThreshold(0);
+    assertFalse(config.isValid());
+  }
+
+  @Test
+  public void testIsValidWithMinPoolSizeAboveMaxPoolSize() {
+    LdapConfig config = new LdapConfig();
+    config.setConnectionPoolMinSize(10);
+    config.setConnectionPoolMaxSize(10);
+    assertTrue(config.isValid());
+    config.setConnectionPoolMinSize(11);
+    assertFalse(config.isValid());
+  }
 }
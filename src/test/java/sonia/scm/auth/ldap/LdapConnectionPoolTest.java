@@ -0,0 +1,169 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LdapConnectionPoolTest extends LdapServerTestBaseJunit5 {
+
+  private LdapConfig config;
+  private LdapConnectionPool pool;
+
+  @BeforeEach
+  void setUpPool() {
+    config = createConfig();
+    config.setConnectionPoolMaxSize(2);
+    config.setConnectionPoolBorrowTimeout(100);
+  }
+
+  @AfterEach
+  void closePool() {
+    if (pool != null) {
+      pool.close();
+    }
+  }
+
+  private LdapConnectionPool createPool() {
+    return new LdapConnectionPool(config, new LdapServer(config.getHostUrl()), LdapConnection::createBindConnection);
+  }
+
+  @Test
+  void shouldReuseReleasedConnection() {
+    pool = createPool();
+
+    LdapConnection first = pool.borrow();
+    first.close();
+
+    LdapConnection second = pool.borrow();
+    second.close();
+
+    assertThat(second).isSameAs(first);
+    assertThat(pool.getSize()).isEqualTo(1);
+    assertThat(pool.getIdleCount()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldFailIfPoolIsExhausted() {
+    pool = createPool();
+
+    LdapConnection first = pool.borrow();
+    LdapConnection second = pool.borrow();
+
+    assertThrows(BindConnectionFailedException.class, () -> pool.borrow());
+
+    first.close();
+    second.close();
+  }
+
+  @Test
+  void shouldWaitForReleasedConnectionWithoutBorrowTimeout() throws InterruptedException {
+    config.setConnectionPoolMaxSize(1);
+    config.setConnectionPoolBorrowTimeout(0);
+    pool = createPool();
+
+    LdapConnection first = pool.borrow();
+    Thread releaser = new Thread(() -> {
+      sleep(200);
+      first.close();
+    });
+    releaser.start();
+
+    LdapConnection second = pool.borrow();
+    second.close();
+    releaser.join();
+
+    assertThat(second).isSameAs(first);
+  }
+
+  @Test
+  void shouldWaitWithoutBorrowTimeoutOnlyUntilLoginDeadline() {
+    config.setConnectionPoolMaxSize(1);
+    config.setConnectionPoolBorrowTimeout(0);
+    pool = createPool();
+
+    LdapConnection first = pool.borrow();
+    try (LoginDeadline deadline = LoginDeadline.start(100)) {
+      assertThrows(LdapException.class, () -> pool.borrow());
+    } finally {
+      first.close();
+    }
+  }
+
+  @Test
+  void shouldEvictIdleConnections() throws InterruptedException {
+    config.setConnectionPoolIdleTimeout(0);
+    pool = createPool();
+
+    pool.borrow().close();
+    Thread.sleep(5);
+    pool.maintain();
+
+    assertThat(pool.getSize()).isZero();
+  }
+
+  @Test
+  void shouldFillPoolUpToMinimumSize() {
+    config.setConnectionPoolMinSize(2);
+    pool = createPool();
+
+    pool.maintain();
+
+    assertThat(pool.getSize()).isEqualTo(2);
+    assertThat(pool.getIdleCount()).isEqualTo(2);
+  }
+
+  @Test
+  void shouldFailWithWrongCredentials() {
+    config.setConnectionPassword("totally wrong");
+    pool = createPool();
+
+    assertThrows(BindConnectionFailedException.class, () -> pool.borrow());
+    assertThat(pool.getSize()).isZero();
+  }
+
+  @Test
+  void shouldCloseConnectionsReleasedAfterClose() {
+    pool = createPool();
+
+    LdapConnection connection = pool.borrow();
+    pool.close();
+    connection.close();
+
+    assertThat(pool.getSize()).isZero();
+    assertThat(pool.getIdleCount()).isZero();
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -147,6 +147,35 @@ public class LdapConnectionTest extends LdapTestBase {
     connection.close();
   }
 
+  @Test
+  @SuppressWarnings("squid:S2699") // test throws exception if it fails
+  public void testTlsConnectionWithUnboundIdBackend() throws NamingException, IOException {
+    LdapConfig config = createConfig();
+
+    config.setEnableStartTls(true);
+    config.setConnectionBackend(ConnectionBackend.UNBOUNDID);
+
+    LdapConnection connection = new LdapConnection(config, sslContext, BIND_DN,
+      BIND_PWD);
+
+    connection.close();
+  }
+
+  @Test(expected = NamingException.class)
+  public void testUnboundIdBackendShouldRejectCertificateOfOtherHost() throws NamingException, IOException {
+    LdapConfig config = createConfig();
+
+    // the certificate is issued for localhost, not for its ip address
+    config.setHostUrl("ldap://" + getInetAddress().getHostAddress() + ":" + PORT);
+    config.setEnableStartTls(true);
+    config.setConnectionBackend(ConnectionBackend.UNBOUNDID);
+
+    LdapConnection connection = new LdapConnection(config, sslContext, BIND_DN,
+      BIND_PWD);
+
+    connection.close();
+  }
+
   private SSLContext createSSLContext() throws Exception {
     InputStream input = null;
     OutputStream ouput = null;
@@ -0,0 +1,100 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LdapExecutorTest {
+
+  @Test
+  void shouldSupplyValueOnOtherThread() throws Exception {
+    Thread caller = Thread.currentThread();
+
+    Thread thread = LdapExecutor.getInstance().supply(Thread::currentThread).get(10, TimeUnit.SECONDS);
+
+    assertThat(thread).isNotSameAs(caller);
+  }
+
+  @Test
+  void shouldRejectOperationsAboveLimit() throws Exception {
+    ExecutorService threads = Executors.newCachedThreadPool();
+    try {
+      LdapExecutor executor = new LdapExecutor(threads, 1);
+      CountDownLatch latch = new CountDownLatch(1);
+
+      CompletableFuture<String> first = executor.supply(() -> {
+        await(latch);
+        return "first";
+      });
+      CompletableFuture<String> second = executor.supply(() -> "second");
+
+      ExecutionException ex = assertThrows(ExecutionException.class, () -> second.get(10, TimeUnit.SECONDS));
+      assertThat(ex.getCause()).isInstanceOf(LdapException.class);
+
+      latch.countDown();
+      assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo("first");
+      assertThat(executor.supply(() -> "third").get(10, TimeUnit.SECONDS)).isEqualTo("third");
+    } finally {
+      threads.shutdownNow();
+    }
+  }
+
+  @Test
+  void shouldRejectOperationsAfterShutdown() throws Exception {
+    ExecutorService threads = Executors.newCachedThreadPool();
+    LdapExecutor executor = new LdapExecutor(threads, 1);
+
+    executor.shutdown();
+
+    assertThat(threads.isShutdown()).isTrue();
+    CompletableFuture<String> future = executor.supply(() -> "rejected");
+    ExecutionException ex = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+    assertThat(ex.getCause()).isInstanceOf(LdapException.class);
+  }
+
+  @Test
+  void shouldCreateNewInstanceAfterShutdown() throws Exception {
+    LdapExecutor.shutdownInstance();
+
+    assertThat(LdapExecutor.getInstance().supply(() -> "value").get(10, TimeUnit.SECONDS)).isEqualTo("value");
+  }
+
+  private void await(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
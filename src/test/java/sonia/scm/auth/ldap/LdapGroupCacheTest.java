@@ -0,0 +1,144 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LdapGroupCacheTest {
+
+  private final AtomicInteger loadCount = new AtomicInteger();
+  private final List<Runnable> refreshTasks = new ArrayList<>();
+  private final FakeTicker ticker = new FakeTicker();
+
+  private LdapConfig config;
+  private LdapGroupCache cache;
+
+  @BeforeEach
+  void setUpCache() {
+    config = new LdapConfig();
+    config.setGroupCacheEnabled(true);
+    config.setGroupCacheTtl(600);
+    config.setGroupCacheRefresh(60);
+    cache = new LdapGroupCache(this::load, refreshTasks::add, ticker);
+  }
+
+  private Set<String> load(String principal) {
+    int count = loadCount.incrementAndGet();
+    if ("slarti".equals(principal)) {
+      throw new UserSearchFailedException("failed", new RuntimeException());
+    }
+    return ImmutableSet.of(principal + "s", "load-" + count);
+  }
+
+  @Test
+  void shouldLoadGroupsOnlyOnce() {
+    assertThat(cache.get(config, "trillian")).containsOnly("trillians", "load-1");
+    assertThat(cache.get(config, "trillian")).containsOnly("trillians", "load-1");
+    assertThat(loadCount.get()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldReturnStaleGroupsAndRefreshThem() {
+    cache.get(config, "trillian");
+    ticker.advance(90);
+
+    assertThat(cache.get(config, "trillian")).containsOnly("trillians", "load-1");
+    assertThat(refreshTasks).hasSize(1);
+
+    refreshTasks.forEach(Runnable::run);
+    assertThat(cache.get(config, "trillian")).containsOnly("trillians", "load-2");
+  }
+
+  @Test
+  void shouldLoadGroupsAgainAfterTtl() {
+    cache.get(config, "trillian");
+    ticker.advance(601);
+
+    assertThat(cache.get(config, "trillian")).containsOnly("trillians", "load-2");
+  }
+
+  @Test
+  void shouldLoadGroupsAgainAfterInvalidation() {
+    cache.get(config, "trillian");
+    cache.invalidateAll();
+
+    assertThat(cache.get(config, "trillian")).containsOnly("trillians", "load-2");
+  }
+
+  @Test
+  void shouldNotCacheFailures() {
+    assertThrows(UserSearchFailedException.class, () -> cache.get(config, "slarti"));
+    assertThrows(UserSearchFailedException.class, () -> cache.get(config, "slarti"));
+    assertThat(loadCount.get()).isEqualTo(2);
+  }
+
+  @Test
+  void shouldShutdownRefreshExecutorOnClose() {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    LdapGroupCache groupCache = new LdapGroupCache(this::load, executor, ticker);
+
+    groupCache.close();
+
+    assertThat(executor.isShutdown()).isTrue();
+  }
+
+  @Test
+  void shouldEvictByWeight() {
+    config.setGroupCacheMaxWeight(0);
+
+    cache.get(config, "trillian");
+    cache.get(config, "trillian");
+
+    assertThat(loadCount.get()).isEqualTo(2);
+  }
+
+  private static class FakeTicker extends Ticker {
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    void advance(long seconds) {
+      nanos.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+    }
+
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+  }
+}
@@ -23,25 +23,59 @@
  */
 package sonia.scm.auth.ldap;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.util.Providers;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 import sonia.scm.store.InMemoryConfigurationStore;
+import sonia.scm.store.InMemoryDataStore;
+import sonia.scm.user.User;
 
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.SearchResult;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 
 class LdapGroupResolverTest extends LdapServerTestBaseJunit5 {
 
   private LdapConfig config;
+  private LdapUnknownUserCache unknownUserCache;
+  private LdapOfflineCredentialStore offlineCredentialStore;
   private LdapGroupResolver groupResolver;
 
   @BeforeEach
   void setUpAuthenticator() {
     config = createConfig();
-    LdapConfigStore ldapConfigStore = new LdapConfigStore(new InMemoryConfigurationStore<>());
+    LdapConfigStore ldapConfigStore = new LdapConfigStore(new InMemoryConfigurationStore<>()) {
+      @Override
+      CompiledLdapConfig getCompiled() {
+        // the tests modify the configuration after it was stored
+        return CompiledLdapConfig.compile(get());
+      }
+    };
     ldapConfigStore.set(config);
-    groupResolver = new LdapGroupResolver(ldapConfigStore);
+    unknownUserCache = new LdapUnknownUserCache();
+    offlineCredentialStore = new LdapOfflineCredentialStore(new InMemoryDataStore<>());
+    groupResolver = new LdapGroupResolver(
+      ldapConfigStore, new PooledLdapConnectionFactory(), unknownUserCache, offlineCredentialStore
+    );
   }
 
   @Test
@@ -52,6 +86,72 @@ class LdapGroupResolverTest extends LdapServerTestBaseJunit5 {
     assertThat(groups).containsOnly("HeartOfGold", "RestaurantAtTheEndOfTheUniverse", "HappyVerticalPeopleTransporter");
   }
 
+  @Test
+  void shouldResolveGroupsAsynchronously() throws Exception {
+    ldif(6);
+
+    Set<String> groups = groupResolver.resolveAsync("trillian").get(10, TimeUnit.SECONDS);
+    assertThat(groups).containsOnly("HeartOfGold", "RestaurantAtTheEndOfTheUniverse", "HappyVerticalPeopleTransporter");
+  }
+
+  @Test
+  void shouldReturnNamesOfGroupAttributeFromDn() {
+    ldif(14);
+
+    Set<String> groups = groupResolver.resolve("trillian");
+    assertThat(groups).containsOnly("hog", "Restaurant, at the End of the Universe", "HappyVerticalPeopleTransporter");
+  }
+
+  @Test
+  void shouldResolveNamesOfGroupAttribute() {
+    ldif(14);
+    config.setResolveGroupAttributeNames(true);
+
+    Set<String> groups = groupResolver.resolve("trillian");
+    assertThat(groups).containsOnly("HeartOfGold", "Restaurant, at the End of the Universe", "HappyVerticalPeopleTransporter");
+  }
+
+  @Test
+  void shouldResolveNamesOfGroupAttributeWithUnboundIdBackend() {
+    ldif(14);
+    config.setConnectionBackend(ConnectionBackend.UNBOUNDID);
+    config.setResolveGroupAttributeNames(true);
+
+    Set<String> groups = groupResolver.resolve("trillian");
+    assertThat(groups).containsOnly("HeartOfGold", "Restaurant, at the End of the Universe", "HappyVerticalPeopleTransporter");
+  }
+
+  @Test
+  void shouldReadNamesOfGroupAttributeWithOneSearchPerParent() throws Exception {
+    String hog = "gid=hog,ou=Groups," + BASE_DN;
+    String restaurant = "cn=Restaurant\\, at the End of the Universe,ou=Groups," + BASE_DN;
+    String transporter = "cn=HappyVerticalPeopleTransporter,ou=Other Groups," + BASE_DN;
+    try (FaultInjectingDirectoryServer directory = FaultInjectingDirectoryServer.start().ldif(14);
+         LdapConnection connection = LdapConnection.createBindConnection(directory.createConfig())) {
+      directory.reset();
+
+      Map<String, String> names = new GroupNameResolver().resolve(connection, Arrays.asList(hog, restaurant, transporter));
+
+      assertThat(names)
+        .containsEntry(hog, "HeartOfGold")
+        .containsEntry(restaurant, "Restaurant, at the End of the Universe")
+        .containsEntry(transporter, "HappyVerticalPeopleTransporter");
+      assertThat(directory.getCount(FaultInjectingDirectoryServer.Operation.SEARCH)).isEqualTo(2);
+    }
+  }
+
+  @Test
+  void shouldUseCachedNamesOfGroupAttribute() throws Exception {
+    ldif(14);
+    config.setResolveGroupAttributeNames(true);
+    groupResolver.resolve("trillian");
+
+    ldapServer.delete("gid=hog,ou=Groups," + BASE_DN);
+
+    Set<String> groups = groupResolver.resolve("trillian");
+    assertThat(groups).contains("HeartOfGold");
+  }
+
   @Test
   void shouldReturnEmptyGroupWithoutMemberOf() {
     ldif(6);
@@ -76,6 +176,107 @@ class LdapGroupResolverTest extends LdapServerTestBaseJunit5 {
     assertThat(groups).containsOnly("HeartOfGold", "RestaurantAtTheEndOfTheUniverse");
   }
 
+  @Test
+  void shouldReturnGroupsFromPagedSearch() {
+    ldif(7);
+    config.setGroupSearchPageSize(1);
+
+    Set<String> groups = groupResolver.resolve("trillian");
+    assertThat(groups).containsOnly("HeartOfGold", "RestaurantAtTheEndOfTheUniverse");
+  }
+
+  @Test
+  void shouldReturnGroupsFromPagedSearchWithUnboundIdBackend() {
+    ldif(7);
+    config.setConnectionBackend(ConnectionBackend.UNBOUNDID);
+    config.setGroupSearchPageSize(1);
+
+    Set<String> groups = groupResolver.resolve("trillian");
+    assertThat(groups).containsOnly("HeartOfGold", "RestaurantAtTheEndOfTheUniverse");
+  }
+
+  @Test
+  void shouldReturnGroupsFromUnpagedSearch() {
+    ldif(7);
+    config.setGroupSearchPageSize(0);
+
+    Set<String> groups = groupResolver.resolve("trillian");
+    assertThat(groups).containsOnly("HeartOfGold", "RestaurantAtTheEndOfTheUniverse");
+  }
+
+  @Test
+  void shouldReturnNestedGroupsFromTokenGroups() {
+    ldif(12);
+    config.setEnableNestedADGroups(true);
+    config.setNestedADGroupStrategy(NestedADGroupStrategy.TOKEN_GROUPS);
+
+    Set<String> groups = groupResolver.resolve("trillian");
+    assertThat(groups).containsOnly("HeartOfGold", "RestaurantAtTheEndOfTheUniverse", "Galaxy");
+  }
+
+  @Test
+  void shouldReturnNestedGroupsFromTokenGroupsWithUnboundIdBackend() {
+    ldif(12);
+    config.setConnectionBackend(ConnectionBackend.UNBOUNDID);
+    config.setEnableNestedADGroups(true);
+    config.setNestedADGroupStrategy(NestedADGroupStrategy.TOKEN_GROUPS);
+
+    Set<String> groups = groupResolver.resolve("trillian");
+    assertThat(groups).containsOnly("HeartOfGold", "RestaurantAtTheEndOfTheUniverse", "Galaxy");
+  }
+
+  @Test
+  void shouldUseCachedNamesOfTokenGroups() throws Exception {
+    ldif(12);
+    config.setEnableNestedADGroups(true);
+    config.setNestedADGroupStrategy(NestedADGroupStrategy.TOKEN_GROUPS);
+    groupResolver.resolve("trillian");
+
+    ldapServer.delete("cn=Galaxy,ou=Groups," + BASE_DN);
+
+    Set<String> groups = groupResolver.resolve("trillian");
+    assertThat(groups).contains("Galaxy");
+  }
+
+  @Test
+  void shouldReturnOnlyDirectGroupsWithoutExpansion() {
+    ldif(13);
+
+    Set<String> groups = groupResolver.resolve("trillian");
+    assertThat(groups).containsOnly("HeartOfGold");
+  }
+
+  @Test
+  void shouldExpandNestedGroupsWithCycle() {
+    ldif(13);
+    config.setExpandNestedGroups(true);
+
+    Set<String> groups = groupResolver.resolve("trillian");
+    assertThat(groups).containsOnly("HeartOfGold", "Galaxy", "Universe");
+  }
+
+  @Test
+  void shouldStopExpansionAtMaxDepth() {
+    ldif(13);
+    config.setExpandNestedGroups(true);
+    config.setNestedGroupMaxDepth(1);
+
+    Set<String> groups = groupResolver.resolve("trillian");
+    assertThat(groups).containsOnly("HeartOfGold", "Galaxy");
+  }
+
+  @Test
+  void shouldShareParentsOfGroupsBetweenUsers() throws Exception {
+    ldif(13);
+    config.setExpandNestedGroups(true);
+    groupResolver.resolve("trillian");
+
+    ldapServer.delete("cn=Universe,ou=Groups," + BASE_DN);
+
+    Set<String> groups = groupResolver.resolve("zaphod");
+    assertThat(groups).containsOnly("HeartOfGold", "Galaxy", "Universe");
+  }
+
   @Test
   void shouldReturnEmptyCollectionWithoutGroupSearchFilter() {
     ldif(7);
@@ -102,6 +303,119 @@ class LdapGroupResolverTest extends LdapServerTestBaseJunit5 {
     assertThat(groups).containsOnly("HeartOfGold", "RestaurantAtTheEndOfTheUniverse");
   }
 
+  @Test
+  void shouldReturnGroupsFromPipelinedSearchWithUnboundIdBackend() {
+    ldif(8);
+
+    config.setConnectionBackend(ConnectionBackend.UNBOUNDID);
+    config.setSearchFilterGroup("(&(objectClass=posixGroup)(member={1}))");
+
+    Set<String> groups = groupResolver.resolve("trillian");
+    assertThat(groups).containsOnly("HeartOfGold", "RestaurantAtTheEndOfTheUniverse");
+  }
+
+  @Test
+  void shouldSendGroupSearchBeforeUserSearchWithUnboundIdBackend() {
+    ldif(8);
+
+    config.setConnectionBackend(ConnectionBackend.UNBOUNDID);
+    config.setSearchFilterGroup("(&(objectClass=posixGroup)(member={1}))");
+    SpyingConnectionFactory connectionFactory = new SpyingConnectionFactory();
+
+    Set<String> groups = new LdapGroupResolver(Providers.of(config), connectionFactory).resolve("trillian");
+
+    assertThat(groups).containsOnly("HeartOfGold", "RestaurantAtTheEndOfTheUniverse");
+    InOrder inOrder = inOrder(connectionFactory.connection);
+    inOrder.verify(connectionFactory.connection).searchAsync(anyString(), anyString(), any(), anyInt());
+    inOrder.verify(connectionFactory.connection).search(anyString(), anyString(), any());
+  }
+
+  @Test
+  void shouldKeepGroupsOfPipelinedSearchWhichExceededSizeLimit() throws Exception {
+    try (FaultInjectingDirectoryServer directory = FaultInjectingDirectoryServer.start().ldif(8)) {
+      LdapConfig directoryConfig = directory.createConfig();
+      directoryConfig.setConnectionBackend(ConnectionBackend.UNBOUNDID);
+      directoryConfig.setSearchFilterGroup("(&(objectClass=posixGroup)(member={1}))");
+      directoryConfig.setGroupSearchPageSize(0);
+      directory.limitSearchResults(1);
+
+      Set<String> groups = LdapGroupResolver.from(directoryConfig).resolve("trillian");
+
+      assertThat(groups).hasSize(1);
+      assertThat(ImmutableSet.of("HeartOfGold", "RestaurantAtTheEndOfTheUniverse")).containsAll(groups);
+    }
+  }
+
+  @Test
+  void shouldPagePipelinedSearchBelowSizeLimit() throws Exception {
+    try (FaultInjectingDirectoryServer directory = FaultInjectingDirectoryServer.start().ldif(8)) {
+      LdapConfig directoryConfig = directory.createConfig();
+      directoryConfig.setConnectionBackend(ConnectionBackend.UNBOUNDID);
+      directoryConfig.setSearchFilterGroup("(&(objectClass=posixGroup)(member={1}))");
+      directoryConfig.setGroupSearchPageSize(1);
+      directory.limitSearchResults(1);
+
+      Set<String> groups = LdapGroupResolver.from(directoryConfig).resolve("trillian");
+
+      assertThat(groups).containsOnly("HeartOfGold", "RestaurantAtTheEndOfTheUniverse");
+    }
+  }
+
+  @Test
+  void shouldFailIfPipelinedGroupSearchFails() {
+    ldif(8);
+
+    config.setConnectionBackend(ConnectionBackend.UNBOUNDID);
+    config.setSearchFilterGroup("(&(objectClass=posixGroup)(member={1}))");
+    CompletableFuture<List<SearchResult>> failedSearch = new CompletableFuture<>();
+    failedSearch.completeExceptionally(new ServiceUnavailableException("busy"));
+    SpyingConnectionFactory connectionFactory = new SpyingConnectionFactory(
+      connection -> doReturn(failedSearch).when(connection).searchAsync(anyString(), anyString(), any(), anyInt())
+    );
+    LdapGroupResolver resolver = new LdapGroupResolver(Providers.of(config), connectionFactory);
+
+    assertThrows(LdapException.class, () -> resolver.resolveGroups(CompiledLdapConfig.compile(config), "trillian"));
+  }
+
+  @Test
+  void shouldNotPipelineSearchesWithJndiBackend() {
+    ldif(8);
+
+    config.setSearchFilterGroup("(&(objectClass=posixGroup)(member={1}))");
+    SpyingConnectionFactory connectionFactory = new SpyingConnectionFactory();
+
+    Set<String> groups = new LdapGroupResolver(Providers.of(config), connectionFactory).resolve("trillian");
+
+    assertThat(groups).containsOnly("HeartOfGold", "RestaurantAtTheEndOfTheUniverse");
+    verify(connectionFactory.connection, never()).searchAsync(anyString(), anyString(), any(), anyInt());
+  }
+
+  @Test
+  void shouldNotPipelineSearchesIfGroupFilterNeedsUserEntry() {
+    config.setSearchFilterGroup("(&(objectClass=posixGroup)(member={1}))");
+    assertThat(LdapGroupResolver.isGroupSearchIndependentOfUserEntry(CompiledLdapConfig.compile(config))).isTrue();
+
+    config.setSearchFilterGroup("(&(objectClass=mailGroup)(member={2}))");
+    assertThat(LdapGroupResolver.isGroupSearchIndependentOfUserEntry(CompiledLdapConfig.compile(config))).isFalse();
+
+    config.setSearchFilterGroup("(uniqueMember={0})");
+    assertThat(LdapGroupResolver.isGroupSearchIndependentOfUserEntry(CompiledLdapConfig.compile(config))).isFalse();
+
+    config.setSearchFilterGroup("(&(description='{0}')(member={1}))");
+    assertThat(LdapGroupResolver.isGroupSearchIndependentOfUserEntry(CompiledLdapConfig.compile(config))).isTrue();
+  }
+
+  @Test
+  void shouldReturnEmptyForNonExistingUsersWithPipelinedSearch() {
+    ldif(8);
+
+    config.setSearchFilterGroup("(&(objectClass=posixGroup)(member={1}))");
+    config.setConnectionBackend(ConnectionBackend.UNBOUNDID);
+
+    Set<String> groups = groupResolver.resolve("slarti");
+    assertThat(groups).isEmpty();
+  }
+
   @Test
   void shouldReturnGroupsFromSearchWithMail() {
     ldif(9);
@@ -122,6 +436,58 @@ class LdapGroupResolverTest extends LdapServerTestBaseJunit5 {
     assertThat(groups).isEmpty();
   }
 
+  @Test
+  void shouldReturnCachedGroups() {
+    ldif(6);
+    config.setGroupCacheEnabled(true);
+    groupResolver.resolve("trillian");
+
+    ldif(7);
+
+    Set<String> groups = groupResolver.resolve("trillian");
+    assertThat(groups).containsOnly("HeartOfGold", "RestaurantAtTheEndOfTheUniverse", "HappyVerticalPeopleTransporter");
+  }
+
+  @Test
+  void shouldReturnGroupsResolvedDuringLogin() {
+    ldif(6);
+    LdapAuthenticator authenticator = new LdapAuthenticator(
+      config, DirectLdapConnectionFactory.INSTANCE, null, groupResolver
+    );
+    authenticator.authenticate("trillian", "trilli123");
+
+    ldif(7);
+
+    Set<String> groups = groupResolver.resolve("trillian");
+    assertThat(groups).containsOnly("HeartOfGold", "RestaurantAtTheEndOfTheUniverse", "HappyVerticalPeopleTransporter");
+  }
+
+  @Test
+  void shouldReturnGroupsOfLastLoginIfDirectoryIsUnavailable() {
+    config.setOfflineAuthenticationEnabled(true);
+    config.setCircuitBreakerEnabled(true);
+    config.setCircuitBreakerFailureThreshold(1);
+    config.setCircuitBreakerProbeInterval(60);
+    offlineCredentialStore.remember(
+      config, "trillian", "trilli123".toCharArray(), new User("trillian"), ImmutableSet.of("HeartOfGold")
+    );
+    config.setHostUrl("ldap://localhost:1");
+
+    assertThat(groupResolver.resolve("trillian")).isEmpty();
+    assertThat(groupResolver.resolve("trillian")).containsOnly("HeartOfGold");
+  }
+
+  @Test
+  void shouldRememberUnknownPrincipal() {
+    ldif(6);
+    config.setUnknownUserCacheEnabled(true);
+
+    Set<String> groups = groupResolver.resolve("slarti");
+    assertThat(groups).isEmpty();
+    assertThat(unknownUserCache.isUnknown(config, "slarti")).isTrue();
+    assertThat(unknownUserCache.isUnknown(config, "trillian")).isFalse();
+  }
+
   @Test
   void shouldReturnEmptyOnInvalidConfiguration() {
     config.setBaseDn(null);
@@ -130,4 +496,29 @@ class LdapGroupResolverTest extends LdapServerTestBaseJunit5 {
     assertThat(groups).isEmpty();
   }
 
+  private static class SpyingConnectionFactory implements LdapConnectionFactory {
+
+    private final Consumer<LdapConnection> stubbing;
+    private LdapConnection connection;
+
+    private SpyingConnectionFactory() {
+      this(connection -> {});
+    }
+
+    private SpyingConnectionFactory(Consumer<LdapConnection> stubbing) {
+      this.stubbing = stubbing;
+    }
+
+    @Override
+    public LdapConnection createBindConnection(LdapConfig config) {
+      connection = spy(LdapConnection.createBindConnection(config));
+      stubbing.accept(connection);
+      return connection;
+    }
+
+    @Override
+    public LdapConnection createUserConnection(LdapConfig config, String userDn, String password) {
+      return LdapConnection.createUserConnection(config, userDn, password);
+    }
+  }
 }
@@ -0,0 +1,139 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sonia.scm.store.InMemoryDataStore;
+import sonia.scm.user.User;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LdapOfflineCredentialStoreTest {
+
+  private static final char[] PASSWORD = "trilli123".toCharArray();
+
+  private InMemoryDataStore<OfflineCredential> dataStore;
+  private LdapOfflineCredentialStore store;
+  private LdapConfig config;
+
+  @BeforeEach
+  void setUpStore() {
+    config = new LdapConfig();
+    config.setOfflineAuthenticationEnabled(true);
+    config.setOfflineAuthenticationMaxAge(3600);
+    dataStore = new InMemoryDataStore<>();
+    store = new LdapOfflineCredentialStore(dataStore);
+  }
+
+  @Test
+  void shouldAuthenticateWithRememberedCredentials() {
+    store.remember(config, "trillian", PASSWORD, trillian(), ImmutableSet.of("HeartOfGold"));
+
+    Optional<User> user = store.authenticate(config, "trillian", PASSWORD);
+
+    assertThat(user).hasValueSatisfying(u -> {
+      assertThat(u.getName()).isEqualTo("trillian");
+      assertThat(u.getDisplayName()).isEqualTo("Tricia McMillan");
+      assertThat(u.getMail()).isEqualTo("tricia.mcmillan@hitchhiker.com");
+      assertThat(u.getType()).isEqualTo(LdapRealm.TYPE);
+    });
+    assertThat(store.getGroups(config, "trillian")).hasValue(ImmutableSet.of("HeartOfGold"));
+  }
+
+  @Test
+  void shouldNotAuthenticateWithWrongPassword() {
+    store.remember(config, "trillian", PASSWORD, trillian(), ImmutableSet.of());
+
+    assertThat(store.authenticate(config, "trillian", "trilli1234".toCharArray())).isEmpty();
+  }
+
+  @Test
+  void shouldNotStorePassword() {
+    store.remember(config, "trillian", PASSWORD, trillian(), ImmutableSet.of());
+
+    OfflineCredential credential = dataStore.get("trillian");
+    assertThat(credential.getFingerprint().getHash()).isNotEqualTo(new String(PASSWORD).getBytes());
+    assertThat(credential.getFingerprint().getSalt()).hasSize(16);
+  }
+
+  @Test
+  void shouldNotRememberIfDisabled() {
+    config.setOfflineAuthenticationEnabled(false);
+    store.remember(config, "trillian", PASSWORD, trillian(), ImmutableSet.of());
+
+    assertThat(dataStore.getAll()).isEmpty();
+  }
+
+  @Test
+  void shouldRemoveCredentialsOlderThanMaxAge() {
+    store.remember(config, "trillian", PASSWORD, trillian(), ImmutableSet.of());
+    config.setOfflineAuthenticationMaxAge(-1);
+
+    assertThat(store.authenticate(config, "trillian", PASSWORD)).isEmpty();
+    assertThat(dataStore.get("trillian")).isNull();
+  }
+
+  @Test
+  void shouldReplaceCredentialsAfterPasswordChange() {
+    store.remember(config, "trillian", PASSWORD, trillian(), ImmutableSet.of());
+    store.remember(config, "trillian", "new-secret".toCharArray(), trillian(), ImmutableSet.of());
+
+    assertThat(store.authenticate(config, "trillian", PASSWORD)).isEmpty();
+    assertThat(store.authenticate(config, "trillian", "new-secret".toCharArray())).isPresent();
+  }
+
+  @Test
+  void shouldUpdateChangedGroups() {
+    store.remember(config, "trillian", PASSWORD, trillian(), ImmutableSet.of("HeartOfGold"));
+    store.remember(config, "trillian", PASSWORD, trillian(), ImmutableSet.of("Magrathea"));
+
+    assertThat(store.getGroups(config, "trillian")).hasValue(ImmutableSet.of("Magrathea"));
+  }
+
+  @Test
+  void shouldNotRewriteUnchangedCredentials() {
+    store.remember(config, "trillian", PASSWORD, trillian(), ImmutableSet.of("HeartOfGold"));
+    OfflineCredential written = dataStore.get("trillian");
+
+    store.remember(config, "trillian", PASSWORD, trillian(), ImmutableSet.of("HeartOfGold"));
+
+    assertThat(dataStore.get("trillian")).isSameAs(written);
+  }
+
+  @Test
+  void shouldTellWhetherCredentialsExist() {
+    store.remember(config, "trillian", PASSWORD, trillian(), ImmutableSet.of());
+
+    assertThat(store.hasCredentials(config, "trillian")).isTrue();
+    assertThat(store.hasCredentials(config, "dent")).isFalse();
+  }
+
+  private User trillian() {
+    return new User("trillian", "Tricia McMillan", "tricia.mcmillan@hitchhiker.com");
+  }
+}
@@ -27,15 +27,16 @@ package sonia.scm.auth.ldap;
 
 import org.apache.shiro.authc.AuthenticationInfo;
 import org.apache.shiro.authc.AuthenticationToken;
+import org.apache.shiro.authc.IncorrectCredentialsException;
 import org.apache.shiro.authc.UnknownAccountException;
 import org.apache.shiro.authc.UsernamePasswordToken;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import sonia.scm.security.SyncingRealmHelper;
+import sonia.scm.store.InMemoryDataStore;
 import sonia.scm.user.User;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -43,6 +44,7 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -60,7 +62,6 @@ class LdapRealmTest extends LdapServerTestBaseJunit5 {
   @Mock
   private SyncingRealmHelper syncingRealmHelper;
 
-  @InjectMocks
   private LdapRealm realm;
 
   private LdapConfig config;
@@ -68,7 +69,12 @@ class LdapRealmTest extends LdapServerTestBaseJunit5 {
   @BeforeEach
   void setUpRealm() {
     config = createConfig();
-    when(configStore.get()).thenReturn(config);
+    when(configStore.getCompiled()).thenAnswer(invocation -> CompiledLdapConfig.compile(config));
+    realm = new LdapRealm(
+      configStore, syncingRealmHelper, new PooledLdapConnectionFactory(), new LdapAuthenticationCache(),
+      new LdapUserCache(), new LdapUnknownUserCache(), LdapGroupResolver.from(config),
+      new LdapOfflineCredentialStore(new InMemoryDataStore<>())
+    );
   }
 
   @Test
@@ -107,6 +113,90 @@ class LdapRealmTest extends LdapServerTestBaseJunit5 {
     assertThrows(UserAuthenticationFailedException.class, () -> realm.doGetAuthenticationInfo(createToken("trillian", "trilli1234")));
   }
 
+  @Test
+  void shouldUseCachedAuthentication() {
+    ldif(1);
+    config.setAuthenticationCacheEnabled(true);
+
+    AuthenticationInfo authenticationInfoMock = mock(AuthenticationInfo.class);
+    when(syncingRealmHelper.createAuthenticationInfo(eq(LdapRealm.TYPE), any())).thenReturn(authenticationInfoMock);
+
+    realm.doGetAuthenticationInfo(createToken("trillian", "trilli123"));
+
+    // the directory is no longer reachable with a wrong connection password
+    config.setConnectionPassword("totally wrong");
+    AuthenticationInfo authenticationInfo = realm.doGetAuthenticationInfo(createToken("trillian", "trilli123"));
+
+    verify(syncingRealmHelper, times(1)).store(any(User.class));
+    assertThat(authenticationInfo).isSameAs(authenticationInfoMock);
+  }
+
+  @Test
+  void shouldNotUseCachedAuthenticationWithWrongPassword() {
+    ldif(1);
+    config.setAuthenticationCacheEnabled(true);
+
+    realm.doGetAuthenticationInfo(createToken("trillian", "trilli123"));
+
+    assertThrows(UserAuthenticationFailedException.class, () -> realm.doGetAuthenticationInfo(createToken("trillian", "trilli1234")));
+  }
+
+  @Test
+  void shouldNotCacheAuthenticationIfDisabled() {
+    ldif(1);
+
+    realm.doGetAuthenticationInfo(createToken("trillian", "trilli123"));
+    realm.doGetAuthenticationInfo(createToken("trillian", "trilli123"));
+
+    verify(syncingRealmHelper, times(2)).store(any(User.class));
+  }
+
+  @Test
+  void shouldRememberUnknownAccount() {
+    ldif(1);
+    config.setUnknownUserCacheEnabled(true);
+
+    assertThrows(UnknownAccountException.class, () -> realm.doGetAuthenticationInfo(createToken("hansolo", "trilli123")));
+
+    // the user search would fail with a wrong connection password
+    config.setConnectionPassword("totally wrong");
+    assertThrows(UnknownAccountException.class, () -> realm.doGetAuthenticationInfo(createToken("hansolo", "trilli123")));
+  }
+
+  @Test
+  void shouldAuthenticateWithOfflineCredentialsIfDirectoryIsUnavailable() {
+    ldif(1);
+    config.setOfflineAuthenticationEnabled(true);
+    config.setCircuitBreakerEnabled(true);
+    config.setCircuitBreakerFailureThreshold(1);
+    config.setCircuitBreakerProbeInterval(60);
+    realm.doGetAuthenticationInfo(createToken("trillian", "trilli123"));
+
+    config.setHostUrl("ldap://localhost:1");
+    assertThrows(BindConnectionFailedException.class, () -> realm.doGetAuthenticationInfo(createToken("trillian", "trilli123")));
+
+    AuthenticationInfo authenticationInfoMock = mock(AuthenticationInfo.class);
+    when(syncingRealmHelper.createAuthenticationInfo(eq(LdapRealm.TYPE), any())).thenReturn(authenticationInfoMock);
+    AuthenticationInfo authenticationInfo = realm.doGetAuthenticationInfo(createToken("trillian", "trilli123"));
+
+    assertThat(authenticationInfo).isSameAs(authenticationInfoMock);
+    assertThrows(IncorrectCredentialsException.class, () -> realm.doGetAuthenticationInfo(createToken("trillian", "trilli1234")));
+    assertThrows(DirectoryUnavailableException.class, () -> realm.doGetAuthenticationInfo(createToken("prefect", "prefect123")));
+  }
+
+  @Test
+  void shouldNotAuthenticateOfflineIfDisabled() {
+    ldif(1);
+    config.setCircuitBreakerEnabled(true);
+    config.setCircuitBreakerFailureThreshold(1);
+    config.setCircuitBreakerProbeInterval(60);
+    realm.doGetAuthenticationInfo(createToken("trillian", "trilli123"));
+
+    config.setHostUrl("ldap://localhost:1");
+    assertThrows(BindConnectionFailedException.class, () -> realm.doGetAuthenticationInfo(createToken("trillian", "trilli123")));
+    assertThrows(DirectoryUnavailableException.class, () -> realm.doGetAuthenticationInfo(createToken("trillian", "trilli123")));
+  }
+
   private AuthenticationToken createToken(String username, String password) {
     return new UsernamePasswordToken(username, password);
   }
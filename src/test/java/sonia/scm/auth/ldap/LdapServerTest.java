@@ -0,0 +1,104 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import org.junit.jupiter.api.Test;
+
+import javax.naming.AuthenticationException;
+import javax.naming.CommunicationException;
+import java.net.ConnectException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LdapServerTest {
+
+  @Test
+  void shouldOpenCircuitAfterThreshold() {
+    LdapServer server = new LdapServer("ldap://dc1:389", 3, 1000);
+
+    server.recordFailure(null);
+    server.recordFailure(null);
+    assertThat(server.getState()).isEqualTo(LdapServer.State.CLOSED);
+
+    server.recordFailure(null);
+    assertThat(server.getState()).isEqualTo(LdapServer.State.OPEN);
+    assertThat(server.getOpenCount()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldResetFailuresOnSuccess() {
+    LdapServer server = new LdapServer("ldap://dc1:389", 2, 1000);
+
+    server.recordFailure(null);
+    server.recordAvailable();
+    server.recordFailure(null);
+
+    assertThat(server.getState()).isEqualTo(LdapServer.State.CLOSED);
+  }
+
+  @Test
+  void shouldNotHalfOpenBeforeProbeInterval() {
+    LdapServer server = new LdapServer("ldap://dc1:389", 1, 60000);
+    server.recordFailure(null);
+
+    assertThat(server.tryHalfOpen()).isFalse();
+    assertThat(server.getState()).isEqualTo(LdapServer.State.OPEN);
+  }
+
+  @Test
+  void shouldCloseHalfOpenCircuitOnSuccess() {
+    LdapServer server = new LdapServer("ldap://dc1:389", 1, 0);
+    server.recordFailure(null);
+
+    assertThat(server.tryHalfOpen()).isTrue();
+    server.recordSuccess(1000);
+
+    assertThat(server.getState()).isEqualTo(LdapServer.State.CLOSED);
+    assertThat(server.getLatency()).isEqualTo(1000);
+  }
+
+  @Test
+  void shouldReopenHalfOpenCircuitOnFailure() {
+    LdapServer server = new LdapServer("ldap://dc1:389", 5, 0);
+    for (int i = 0; i < 5; i++) {
+      server.recordFailure(null);
+    }
+
+    server.tryHalfOpen();
+    server.recordFailure(null);
+
+    assertThat(server.getState()).isEqualTo(LdapServer.State.OPEN);
+    assertThat(server.getOpenCount()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldDetectConnectionFailures() {
+    CommunicationException communicationException = new CommunicationException("down");
+    communicationException.setRootCause(new ConnectException("refused"));
+
+    assertThat(LdapServer.isConnectionFailure(new BindConnectionFailedException("failed", communicationException))).isTrue();
+    assertThat(LdapServer.isConnectionFailure(new BindConnectionFailedException("failed", new AuthenticationException()))).isFalse();
+    assertThat(LdapServer.isConnectionFailure(new BindConnectionFailedException("timeout"))).isFalse();
+  }
+}
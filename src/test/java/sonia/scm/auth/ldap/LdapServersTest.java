@@ -0,0 +1,172 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LdapServersTest {
+
+  private static final String DC1 = "ldap://dc1:389";
+  private static final String DC2 = "ldap://dc2:389";
+  private static final String DC3 = "ldap://dc3:389";
+
+  private LdapConfig config;
+  private LdapServers servers;
+
+  @BeforeEach
+  void setUpServers() {
+    config = new LdapConfig();
+    config.setHostUrl(DC1 + " " + DC2 + "  " + DC3);
+    servers = new LdapServers();
+  }
+
+  @Test
+  void shouldParseUrls() {
+    assertThat(LdapServers.parseUrls(" ldap://dc1:389  ldap://dc2:389 ")).containsExactly(DC1, DC2);
+    assertThat(LdapServers.parseUrls(null)).isEmpty();
+  }
+
+  @Test
+  void shouldUseConfiguredOrderForFailover() {
+    config.setServerSelectionStrategy(ServerSelectionStrategy.FAILOVER);
+
+    assertThat(urls()).containsExactly(DC1, DC2, DC3);
+    assertThat(urls()).containsExactly(DC1, DC2, DC3);
+  }
+
+  @Test
+  void shouldMoveUnhealthyServersToTheEndWithoutCircuitBreaker() {
+    config.setServerSelectionStrategy(ServerSelectionStrategy.FAILOVER);
+    config.setCircuitBreakerEnabled(false);
+    config.setCircuitBreakerFailureThreshold(1);
+    server(DC1).recordFailure(null);
+
+    assertThat(urls()).containsExactly(DC2, DC3, DC1);
+  }
+
+  @Test
+  void shouldSkipServersWithOpenCircuit() {
+    config.setCircuitBreakerEnabled(true);
+    config.setCircuitBreakerFailureThreshold(2);
+    server(DC1).recordFailure(null);
+    server(DC1).recordFailure(null);
+    server(DC2).recordFailure(null);
+
+    assertThat(urls()).containsExactly(DC2, DC3);
+    assertThat(server(DC1).getRejectedRequests()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldThrowExceptionIfAllCircuitsAreOpen() {
+    config.setHostUrl(DC1);
+    config.setCircuitBreakerEnabled(true);
+    config.setCircuitBreakerFailureThreshold(1);
+    server(DC1).recordFailure(null);
+
+    assertThrows(DirectoryUnavailableException.class, () -> servers.select(config));
+  }
+
+  @Test
+  void shouldRetryUnhealthyServerWithoutCircuitBreakerByDefault() {
+    config.setHostUrl(DC1);
+    config.setCircuitBreakerFailureThreshold(1);
+    server(DC1).recordFailure(null);
+
+    assertThat(urls()).containsExactly(DC1);
+  }
+
+  @Test
+  void shouldProbeServerWithOpenCircuit() {
+    config.setHostUrl(DC1);
+    config.setCircuitBreakerFailureThreshold(1);
+    config.setCircuitBreakerProbeInterval(0);
+    server(DC1).recordFailure(null);
+
+    assertThat(servers.getServersToCheck(config)).extracting(LdapServer::getUrl).containsExactly(DC1);
+    assertThat(server(DC1).getState()).isEqualTo(LdapServer.State.HALF_OPEN);
+  }
+
+  @Test
+  void shouldRotateServers() {
+    config.setServerSelectionStrategy(ServerSelectionStrategy.ROUND_ROBIN);
+
+    assertThat(urls()).containsExactly(DC1, DC2, DC3);
+    assertThat(urls()).containsExactly(DC2, DC3, DC1);
+    assertThat(urls()).containsExactly(DC3, DC1, DC2);
+    assertThat(urls()).containsExactly(DC1, DC2, DC3);
+  }
+
+  @Test
+  void shouldPreferServerWithFewestConnections() {
+    config.setServerSelectionStrategy(ServerSelectionStrategy.FEWEST_CONNECTIONS);
+    server(DC1).connectionAcquired();
+    server(DC1).connectionAcquired();
+    server(DC2).connectionAcquired();
+
+    assertThat(urls()).containsExactly(DC3, DC2, DC1);
+  }
+
+  @Test
+  void shouldPreferServerWithLowestLatency() {
+    config.setServerSelectionStrategy(ServerSelectionStrategy.LOWEST_LATENCY);
+    server(DC1).recordSuccess(TimeUnit.MILLISECONDS.toNanos(20));
+    server(DC3).recordSuccess(TimeUnit.MILLISECONDS.toNanos(5));
+
+    assertThat(urls()).containsExactly(DC3, DC1, DC2);
+  }
+
+  @Test
+  void shouldReturnServersWithDueHealthCheck() {
+    config.setHealthCheckInterval(30);
+    server(DC1).recordSuccess(1000);
+
+    assertThat(servers.getServersToCheck(config)).extracting(LdapServer::getUrl).containsExactly(DC2, DC3);
+  }
+
+  @Test
+  void shouldNotCheckHealthOfSingleServer() {
+    config.setHostUrl(DC1);
+
+    assertThat(servers.getServersToCheck(config)).isEmpty();
+  }
+
+  private LdapServer server(String url) {
+    return servers.getServers(config).stream()
+      .filter(server -> server.getUrl().equals(url))
+      .findFirst()
+      .orElseThrow(IllegalStateException::new);
+  }
+
+  private List<String> urls() {
+    return servers.select(config).stream().map(LdapServer::getUrl).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LdapUtilTest {
+
+  @Test
+  void shouldReturnValueOfFirstRdn() {
+    assertThat(LdapUtil.getName("cn=HeartOfGold,ou=Groups,dc=scm-manager,dc=org")).isEqualTo("HeartOfGold");
+  }
+
+  @Test
+  void shouldReturnNameWithEscapedComma() {
+    assertThat(LdapUtil.getName("cn=Restaurant\\, at the End of the Universe,ou=Groups,dc=scm-manager,dc=org"))
+      .isEqualTo("Restaurant, at the End of the Universe");
+  }
+
+  @Test
+  void shouldReturnNameOfInvalidDn() {
+    assertThat(LdapUtil.getName("HeartOfGold")).isEqualTo("HeartOfGold");
+  }
+
+  @Test
+  void shouldNormalizeDn() {
+    assertThat(LdapUtil.normalizeDn("CN=HeartOfGold, OU=Groups, DC=scm-manager,DC=org"))
+      .isEqualTo(LdapUtil.normalizeDn("cn=heartofgold,ou=groups,dc=scm-manager,dc=org"));
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LoginDeadlineTest {
+
+  @Test
+  void shouldReturnTimeoutWithoutDeadline() {
+    assertThat(LoginDeadline.limit(5000, "search")).isEqualTo(5000);
+    assertThat(LoginDeadline.limit(0, "search")).isZero();
+  }
+
+  @Test
+  void shouldNotStartDeadlineWithoutTimeout() {
+    try (LoginDeadline deadline = LoginDeadline.start(0)) {
+      assertThat(LoginDeadline.limit(5000, "search")).isEqualTo(5000);
+    }
+  }
+
+  @Test
+  void shouldLimitTimeoutToRemainingTime() {
+    try (LoginDeadline deadline = LoginDeadline.start(1000)) {
+      assertThat(LoginDeadline.limit(5000, "search")).isBetween(1, 1000);
+      assertThat(LoginDeadline.limit(0, "search")).isBetween(1, 1000);
+      assertThat(LoginDeadline.limit(100, "search")).isEqualTo(100);
+    }
+  }
+
+  @Test
+  void shouldThrowExceptionIfDeadlineHasPassed() throws InterruptedException {
+    try (LoginDeadline deadline = LoginDeadline.start(1)) {
+      Thread.sleep(20);
+      assertThrows(LoginDeadlineExceededException.class, () -> LoginDeadline.check("bind"));
+    }
+  }
+
+  @Test
+  void shouldNotExtendOuterDeadline() {
+    try (LoginDeadline outer = LoginDeadline.start(1000)) {
+      try (LoginDeadline inner = LoginDeadline.start(60000)) {
+        assertThat(LoginDeadline.limit(0, "search")).isLessThanOrEqualTo(1000);
+      }
+    }
+  }
+
+  @Test
+  void shouldRestoreOuterDeadlineOnClose() {
+    try (LoginDeadline outer = LoginDeadline.start(60000)) {
+      try (LoginDeadline inner = LoginDeadline.start(1000)) {
+        assertThat(LoginDeadline.limit(0, "search")).isLessThanOrEqualTo(1000);
+      }
+      assertThat(LoginDeadline.limit(0, "search")).isGreaterThan(1000);
+    }
+    assertThat(LoginDeadline.limit(0, "search")).isZero();
+  }
+}
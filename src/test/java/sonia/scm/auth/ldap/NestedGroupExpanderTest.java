@@ -0,0 +1,68 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import org.junit.jupiter.api.Test;
+
+import javax.naming.NamingException;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class NestedGroupExpanderTest {
+
+  @Test
+  void shouldFindMembershipAttribute() {
+    assertThat(NestedGroupExpander.getMembershipAttribute("(&(objectClass=groupOfUniqueNames)(uniqueMember={0}))"))
+      .contains("uniqueMember");
+    assertThat(NestedGroupExpander.getMembershipAttribute("(member={0})")).contains("member");
+  }
+
+  @Test
+  void shouldNotFindMembershipAttributeWithoutDn() {
+    assertThat(NestedGroupExpander.getMembershipAttribute("(&(objectClass=posixGroup)(memberUid={1}))")).isEmpty();
+    assertThat(NestedGroupExpander.getMembershipAttribute(null)).isEmpty();
+  }
+
+  @Test
+  void shouldFailIfParentsCouldNotBeSearched() throws NamingException {
+    LdapConfig config = new LdapConfig();
+    config.setBaseDn("dc=hitchhiker,dc=com");
+    config.setSearchFilterGroup("(member={0})");
+    LdapConnection connection = mock(LdapConnection.class);
+    when(connection.search(anyString(), anyString(), any())).thenThrow(new NamingException("directory failed"));
+
+    NestedGroupExpander expander = new NestedGroupExpander();
+    CompiledLdapConfig compiled = CompiledLdapConfig.compile(config);
+    assertThrows(
+      LdapException.class,
+      () -> expander.expand(compiled, connection, Collections.singletonList("cn=HeartOfGold,dc=hitchhiker,dc=com"))
+    );
+  }
+}
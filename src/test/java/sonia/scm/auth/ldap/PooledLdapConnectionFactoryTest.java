@@ -0,0 +1,217 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PooledLdapConnectionFactoryTest extends LdapServerTestBaseJunit5 {
+
+  private static final String TRILLIAN_DN = "uid=trillian,ou=People," + BASE_DN;
+  private static final String ZAPHOD_DN = "uid=zaphod,ou=People," + BASE_DN;
+  private static final String UNREACHABLE_URL = "ldap://localhost:1";
+
+  private LdapConfig config;
+  private PooledLdapConnectionFactory factory;
+
+  @BeforeEach
+  void setUpFactory() {
+    config = createConfig();
+    factory = new PooledLdapConnectionFactory();
+  }
+
+  @AfterEach
+  void closePools() {
+    factory.clear();
+  }
+
+  @Test
+  void shouldReuseBindConnection() {
+    LdapConnection first = factory.createBindConnection(config);
+    first.close();
+
+    LdapConnection second = factory.createBindConnection(config);
+    second.close();
+
+    assertThat(second).isSameAs(first);
+  }
+
+  @Test
+  void shouldClosePoolsOnClose() {
+    LdapConnection first = factory.createBindConnection(config);
+    first.close();
+
+    factory.close();
+
+    LdapConnection second = factory.createBindConnection(config);
+    second.close();
+
+    assertThat(second).isNotSameAs(first);
+  }
+
+  @Test
+  void shouldNotReuseBindConnectionOfOtherConnectionDn() {
+    LdapConnection first = factory.createBindConnection(config);
+    first.close();
+
+    config.setConnectionDn("uid=trillian,ou=People," + BASE_DN);
+    config.setConnectionPassword("trilli123");
+    ldif(10);
+    LdapConnection second = factory.createBindConnection(config);
+    second.close();
+
+    assertThat(second).isNotSameAs(first);
+  }
+
+  @Test
+  void shouldNotPoolIfDisabled() {
+    config.setConnectionPoolEnabled(false);
+
+    LdapConnection first = factory.createBindConnection(config);
+    first.close();
+
+    LdapConnection second = factory.createBindConnection(config);
+    second.close();
+
+    assertThat(second).isNotSameAs(first);
+  }
+
+  @Test
+  void shouldVerifyDifferentUsersOnTheSameConnection() {
+    ldif(10);
+
+    LdapConnection first = factory.createUserConnection(config, TRILLIAN_DN, "trilli123");
+    first.close();
+
+    LdapConnection second = factory.createUserConnection(config, ZAPHOD_DN, "zaphod123");
+    second.close();
+
+    assertThat(second).isSameAs(first);
+  }
+
+  @Test
+  void shouldThrowUserAuthenticationFailedExceptionForWrongPassword() {
+    ldif(10);
+
+    assertThrows(
+      UserAuthenticationFailedException.class,
+      () -> factory.createUserConnection(config, TRILLIAN_DN, "i_don't_know")
+    );
+  }
+
+  @Test
+  void shouldRejectEmptyPassword() {
+    ldif(10);
+
+    assertThrows(UserAuthenticationFailedException.class, () -> factory.createUserConnection(config, TRILLIAN_DN, ""));
+    assertThrows(UserAuthenticationFailedException.class, () -> factory.createUserConnection(config, TRILLIAN_DN, null));
+  }
+
+  @Test
+  void shouldReuseConnectionAfterFailedVerification() {
+    ldif(10);
+
+    LdapConnection first = factory.createUserConnection(config, TRILLIAN_DN, "trilli123");
+    first.close();
+
+    assertThrows(
+      UserAuthenticationFailedException.class,
+      () -> factory.createUserConnection(config, TRILLIAN_DN, "i_don't_know")
+    );
+
+    LdapConnection second = factory.createUserConnection(config, TRILLIAN_DN, "trilli123");
+    second.close();
+
+    assertThat(second).isSameAs(first);
+  }
+
+  @Test
+  void shouldFailoverToReachableServer() {
+    String reachable = config.getHostUrl();
+    config.setHostUrl(UNREACHABLE_URL + " " + reachable);
+    config.setCircuitBreakerFailureThreshold(1);
+
+    LdapConnection connection = factory.createBindConnection(config);
+    connection.close();
+
+    assertThat(factory.getServers().getServers(config))
+      .extracting(LdapServer::isHealthy)
+      .containsExactly(false, true);
+  }
+
+  @Test
+  void shouldSkipUnhealthyServer() {
+    String reachable = config.getHostUrl();
+    config.setHostUrl(UNREACHABLE_URL + " " + reachable);
+    config.setCircuitBreakerEnabled(true);
+    config.setCircuitBreakerFailureThreshold(1);
+    factory.createBindConnection(config).close();
+
+    assertThat(factory.getServers().select(config))
+      .extracting(LdapServer::getUrl)
+      .containsExactly(reachable);
+  }
+
+  @Test
+  void shouldFailFastIfAllCircuitsAreOpen() {
+    config.setHostUrl(UNREACHABLE_URL);
+    config.setCircuitBreakerEnabled(true);
+    config.setCircuitBreakerFailureThreshold(1);
+    config.setCircuitBreakerProbeInterval(60);
+
+    assertThrows(BindConnectionFailedException.class, () -> factory.createBindConnection(config));
+    assertThrows(DirectoryUnavailableException.class, () -> factory.createBindConnection(config));
+  }
+
+  @Test
+  void shouldCloseCircuitAfterSuccessfulProbe() {
+    String reachable = config.getHostUrl();
+    config.setCircuitBreakerFailureThreshold(1);
+    config.setCircuitBreakerProbeInterval(0);
+    LdapServer server = factory.getServers().getServers(config).get(0);
+    server.recordFailure(null);
+
+    factory.checkHealth(config);
+
+    assertThat(server.getUrl()).isEqualTo(reachable);
+    assertThat(server.getState()).isEqualTo(LdapServer.State.CLOSED);
+  }
+
+  @Test
+  void shouldVerifyUserOnReachableServer() {
+    ldif(10);
+    String reachable = config.getHostUrl();
+    config.setHostUrl(UNREACHABLE_URL + " " + reachable);
+    config.setCircuitBreakerFailureThreshold(1);
+
+    LdapConnection connection = factory.createUserConnection(config, TRILLIAN_DN, "trilli123");
+    connection.close();
+
+    assertThat(factory.getServers().getServers(config).get(0).isHealthy()).isFalse();
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RangedAttributeReaderTest extends LdapServerTestBaseJunit5 {
+
+  private static final String USER_DN = "uid=trillian,ou=People," + BASE_DN;
+
+  private static final String HEART_OF_GOLD = "cn=HeartOfGold,ou=Groups," + BASE_DN;
+  private static final String RESTAURANT = "cn=RestaurantAtTheEndOfTheUniverse,ou=Groups," + BASE_DN;
+  private static final String TRANSPORTER = "cn=HappyVerticalPeopleTransporter,ou=Other Groups," + BASE_DN;
+
+  private LdapConfig config;
+
+  @BeforeEach
+  void setUpConfig() {
+    config = createConfig();
+  }
+
+  @Test
+  void shouldReadAttributeWithoutRange() throws NamingException {
+    BasicAttributes attributes = new BasicAttributes(true);
+    attributes.put(attribute("memberOf", HEART_OF_GOLD, RESTAURANT));
+
+    assertThat(read(null, attributes)).containsExactly(HEART_OF_GOLD, RESTAURANT);
+  }
+
+  @Test
+  void shouldReadAllReturnedRanges() throws NamingException {
+    BasicAttributes attributes = new BasicAttributes(true);
+    attributes.put(attribute("memberOf;range=0-1", HEART_OF_GOLD, RESTAURANT));
+    attributes.put(attribute("memberOf;range=2-*", TRANSPORTER));
+
+    assertThat(read(null, attributes)).containsExactlyInAnyOrder(HEART_OF_GOLD, RESTAURANT, TRANSPORTER);
+  }
+
+  @Test
+  void shouldReadFollowingRangesFromServer() throws NamingException {
+    ldif(15);
+    BasicAttributes attributes = new BasicAttributes(true);
+    attributes.put(attribute("memberOf;range=0-1", HEART_OF_GOLD, RESTAURANT));
+
+    try (LdapConnection connection = LdapConnection.createBindConnection(config)) {
+      assertThat(read(connection, attributes)).containsExactly(HEART_OF_GOLD, RESTAURANT, TRANSPORTER);
+    }
+  }
+
+  @Test
+  void shouldReadNothingWithoutAttribute() throws NamingException {
+    assertThat(read(null, new BasicAttributes(true))).isEmpty();
+  }
+
+  private List<Object> read(LdapConnection connection, BasicAttributes attributes) throws NamingException {
+    List<Object> values = new ArrayList<>();
+    RangedAttributeReader.read(connection, USER_DN, attributes, "memberOf", values::add);
+    return values;
+  }
+
+  private BasicAttribute attribute(String id, String... values) {
+    BasicAttribute attribute = new BasicAttribute(id);
+    for (String value : values) {
+      attribute.add(value);
+    }
+    return attribute;
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SingleFlightTest {
+
+  private final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+  private final ExecutorService executor = Executors.newFixedThreadPool(2);
+  private final AtomicInteger executions = new AtomicInteger();
+
+  @AfterEach
+  void shutdownExecutor() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void shouldShareResultOfRunningOperation() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    Future<String> first = executor.submit(() -> singleFlight.execute("trillian", () -> {
+      started.countDown();
+      await(release);
+      return "result-" + executions.incrementAndGet();
+    }));
+    started.await(5, TimeUnit.SECONDS);
+
+    Future<String> second = executor.submit(() -> singleFlight.execute("trillian", () -> "result-" + executions.incrementAndGet()));
+    waitForWaiter("trillian");
+    release.countDown();
+
+    assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("result-1");
+    assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("result-1");
+    assertThat(executions.get()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldShareExceptionOfRunningOperation() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    Future<String> first = executor.submit(() -> singleFlight.execute("trillian", () -> {
+      started.countDown();
+      await(release);
+      throw new UserAuthenticationFailedException("wrong password", new RuntimeException());
+    }));
+    started.await(5, TimeUnit.SECONDS);
+
+    Future<Class<?>> second = executor.submit(() -> {
+      try {
+        return singleFlight.execute("trillian", () -> "result").getClass();
+      } catch (UserAuthenticationFailedException ex) {
+        return ex.getClass();
+      }
+    });
+    waitForWaiter("trillian");
+    release.countDown();
+
+    assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo(UserAuthenticationFailedException.class);
+    assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void shouldStopWaitingAtLoginDeadline() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    Future<String> first = executor.submit(() -> singleFlight.execute("trillian", () -> {
+      started.countDown();
+      await(release);
+      return "result";
+    }));
+    started.await(5, TimeUnit.SECONDS);
+
+    try (LoginDeadline deadline = LoginDeadline.start(100)) {
+      assertThrows(LoginDeadlineExceededException.class, () -> singleFlight.execute("trillian", () -> "second"));
+    } finally {
+      release.countDown();
+    }
+    assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("result");
+  }
+
+  @Test
+  void shouldExecuteAgainAfterOperationHasFinished() {
+    singleFlight.execute("trillian", () -> "result-" + executions.incrementAndGet());
+    String result = singleFlight.execute("trillian", () -> "result-" + executions.incrementAndGet());
+
+    assertThat(result).isEqualTo("result-2");
+  }
+
+  @Test
+  void shouldNotShareOperationsOfDifferentKeys() {
+    String trillian = singleFlight.execute("trillian", () -> "trillian");
+    String zaphod = singleFlight.execute("zaphod", () -> "zaphod");
+
+    assertThat(trillian).isEqualTo("trillian");
+    assertThat(zaphod).isEqualTo("zaphod");
+  }
+
+  @Test
+  void shouldRethrowExceptionOfOperation() {
+    assertThrows(UserAuthenticationFailedException.class, () -> singleFlight.execute("trillian", () -> {
+      throw new UserAuthenticationFailedException("wrong password", new RuntimeException());
+    }));
+  }
+
+  private void waitForWaiter(String key) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (singleFlight.getWaiters(key) == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+
+  private void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TokenGroupResolverTest {
+
+  @Test
+  void shouldConvertSidToString() {
+    byte[] sid = {
+      1, 5, 0, 0, 0, 0, 0, 5,
+      21, 0, 0, 0,
+      (byte) 0xA8, (byte) 0xC2, 0x1F, 0x3B,
+      2, 0, 0, 0,
+      3, 0, 0, 0,
+      (byte) 0xE8, 0x03, 0, 0
+    };
+
+    assertThat(TokenGroupResolver.toString(sid)).isEqualTo("S-1-5-21-991937192-2-3-1000");
+  }
+
+  @Test
+  void shouldConvertWellKnownSidToString() {
+    byte[] sid = {1, 1, 0, 0, 0, 0, 0, 1, 0, 0, 0, 0};
+
+    assertThat(TokenGroupResolver.toString(sid)).isEqualTo("S-1-1-0");
+  }
+
+  @Test
+  void shouldRejectMalformedSids() {
+    assertThat(TokenGroupResolver.isValid(new byte[]{1, 5, 0, 0})).isFalse();
+    assertThat(TokenGroupResolver.isValid(new byte[]{1, 2, 0, 0, 0, 0, 0, 1, 0, 0, 0, 0})).isFalse();
+    assertThat(TokenGroupResolver.isValid(new byte[]{1, 1, 0, 0, 0, 0, 0, 1, 0, 0, 0, 0})).isTrue();
+    assertThrows(IllegalArgumentException.class, () -> TokenGroupResolver.toString(new byte[]{1, 5, 0, 0}));
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package sonia.scm.auth.ldap;
+
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.ResultCode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sonia.scm.store.InMemoryConfigurationStore;
+import sonia.scm.user.User;
+
+import javax.naming.AuthenticationException;
+import javax.naming.CommunicationException;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class UnboundIdBackendConnectionTest extends LdapServerTestBaseJunit5 {
+
+  private LdapConfig config;
+
+  @BeforeEach
+  void setUpConfig() {
+    config = createConfig();
+    config.setConnectionBackend(ConnectionBackend.UNBOUNDID);
+  }
+
+  @Test
+  void shouldAuthenticateUser() {
+    ldif(1);
+
+    Optional<User> optionalUser = new LdapAuthenticator(config).authenticate("trillian", "trilli123");
+    assertThat(optionalUser).isPresent();
+    assertThat(optionalUser.get().getName()).isEqualTo("trillian");
+    assertThat(optionalUser.get().getMail()).isEqualTo("tricia.mcmillan@hitchhiker.com");
+  }
+
+  @Test
+  void shouldThrowUserAuthenticationFailedException() {
+    ldif(1);
+
+    LdapAuthenticator authenticator = new LdapAuthenticator(config);
+    assertThrows(UserAuthenticationFailedException.class, () -> authenticator.authenticate("trillian", "i_don't_know"));
+  }
+
+  @Test
+  void shouldThrowBindConnectionFailedException() {
+    ldif(1);
+    config.setConnectionPassword("totally wrong");
+
+    LdapAuthenticator authenticator = new LdapAuthenticator(config);
+    assertThrows(BindConnectionFailedException.class, () -> authenticator.authenticate("trillian", "trilli123"));
+  }
+
+  @Test
+  void shouldResolveGroupsWithPooledConnections() {
+    ldif(3);
+    LdapConfigStore configStore = new LdapConfigStore(new InMemoryConfigurationStore<>());
+    configStore.set(config);
+    LdapGroupResolver groupResolver = new LdapGroupResolver(
+      configStore, new PooledLdapConnectionFactory(), new LdapUnknownUserCache(), null
+    );
+
+    assertThat(groupResolver.resolve("trillian"))
+      .containsOnly("HeartOfGold", "RestaurantAtTheEndOfTheUniverse", "HappyVerticalPeopleTransporter");
+  }
+
+  @Test
+  void shouldSearchAsynchronously() throws Exception {
+    ldif(1);
+
+    try (LdapConnection connection = LdapConnection.createBindConnection(config)) {
+      SearchControls controls = new SearchControls();
+      controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+      controls.setReturningAttributes(new String[]{"uid"});
+
+      List<SearchResult> results = connection.searchAsync("ou=People," + BASE_DN, "(uid=trillian)", controls, 0)
+        .get(10, TimeUnit.SECONDS);
+
+      assertThat(results).hasSize(1);
+      assertThat(results.get(0).getNameInNamespace()).isEqualTo("uid=trillian,ou=People," + BASE_DN);
+      assertThat(LdapUtil.getAttribute(results.get(0).getAttributes(), "uid")).isEqualTo("trillian");
+    }
+  }
+
+  @Test
+  void shouldSearchAsynchronouslyWithPaging() throws Exception {
+    ldif(1);
+
+    try (LdapConnection connection = LdapConnection.createBindConnection(config)) {
+      SearchControls controls = new SearchControls();
+      controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+      controls.setReturningAttributes(new String[]{"uid"});
+
+      List<SearchResult> results = connection.searchAsync("ou=People," + BASE_DN, "(uid=*)", controls, 1)
+        .get(10, TimeUnit.SECONDS);
+
+      assertThat(results).extracting(SearchResult::getNameInNamespace)
+        .contains("uid=trillian,ou=People," + BASE_DN, "uid=prefect,ou=People," + BASE_DN);
+    }
+  }
+
+  @Test
+  void shouldMapResultCodesToJndiExceptions() {
+    assertThat(UnboundIdBackendConnection.toNamingException(new LDAPException(ResultCode.SERVER_DOWN)))
+      .isInstanceOf(CommunicationException.class);
+    assertThat(UnboundIdBackendConnection.toNamingException(new LDAPException(ResultCode.INVALID_CREDENTIALS)))
+      .isInstanceOf(AuthenticationException.class);
+  }
+
+  @Test
+  void shouldNotShareConnectionsBetweenBackends() {
+    LdapConfig jndiConfig = createConfig();
+
+    assertThat(LdapConnectionPool.Key.of(config, config.getHostUrl()))
+      .isNotEqualTo(LdapConnectionPool.Key.of(jndiConfig, jndiConfig.getHostUrl()));
+  }
+}
@@ -32,6 +32,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
@@ -146,6 +147,89 @@ public class LdapConfigResourceTest {
     verify(configStore).set(any());
   }
 
+  @Test
+  @SubjectAware(username = "admin", password = "secret")
+  public void shouldKeepDefaultsOfMissingSettings() throws URISyntaxException {
+    when(configStore.get()).thenReturn(new LdapConfig());
+
+    MockHttpRequest request = MockHttpRequest
+      .put("/v2/config/ldap")
+      .contentType(MediaType.APPLICATION_JSON_TYPE)
+      .content(LDAP_CONFIG_JSON.getBytes());
+    MockHttpResponse response = new MockHttpResponse();
+
+    dispatcher.invoke(request, response);
+
+    assertEquals(204, response.getStatus());
+    ArgumentCaptor<LdapConfig> captor = ArgumentCaptor.forClass(LdapConfig.class);
+    verify(configStore).set(captor.capture());
+    LdapConfig defaults = new LdapConfig();
+    Assertions.assertThat(captor.getValue().getConnectTimeout()).isEqualTo(defaults.getConnectTimeout());
+    Assertions.assertThat(captor.getValue().getConnectionPoolMaxSize()).isEqualTo(defaults.getConnectionPoolMaxSize());
+    Assertions.assertThat(captor.getValue().isConnectionPoolEnabled()).isTrue();
+  }
+
+  @Test
+  @SubjectAware(username = "admin", password = "secret")
+  public void shouldKeepStoredValuesOfMissingSettings() throws URISyntaxException {
+    LdapConfig storedConfig = new LdapConfig();
+    storedConfig.setConnectTimeout(1234);
+    storedConfig.setConnectionPoolMaxSize(3);
+    storedConfig.setConnectionPoolEnabled(false);
+    when(configStore.get()).thenReturn(storedConfig);
+
+    MockHttpRequest request = MockHttpRequest
+      .put("/v2/config/ldap")
+      .contentType(MediaType.APPLICATION_JSON_TYPE)
+      .content(LDAP_CONFIG_JSON.getBytes());
+    MockHttpResponse response = new MockHttpResponse();
+
+    dispatcher.invoke(request, response);
+
+    assertEquals(204, response.getStatus());
+    ArgumentCaptor<LdapConfig> captor = ArgumentCaptor.forClass(LdapConfig.class);
+    verify(configStore).set(captor.capture());
+    Assertions.assertThat(captor.getValue()).isNotSameAs(storedConfig);
+    Assertions.assertThat(captor.getValue().getConnectTimeout()).isEqualTo(1234);
+    Assertions.assertThat(captor.getValue().getConnectionPoolMaxSize()).isEqualTo(3);
+    Assertions.assertThat(captor.getValue().isConnectionPoolEnabled()).isFalse();
+    Assertions.assertThat(captor.getValue().getHostUrl()).isEqualTo("http://ldap");
+  }
+
+  @Test
+  @SubjectAware(username = "admin", password = "secret")
+  public void shouldNotSetConfigWithSettingOutOfBounds() throws URISyntaxException {
+    when(configStore.get()).thenReturn(new LdapConfig());
+
+    MockHttpRequest request = MockHttpRequest
+      .put("/v2/config/ldap")
+      .contentType(MediaType.APPLICATION_JSON_TYPE)
+      .content(LDAP_CONFIG_JSON.replace("}", ",\"connectionPoolMaxSize\":0}").getBytes());
+    MockHttpResponse response = new MockHttpResponse();
+
+    dispatcher.invoke(request, response);
+
+    assertEquals(400, response.getStatus());
+    verify(configStore, never()).set(any());
+  }
+
+  @Test
+  @SubjectAware(username = "admin", password = "secret")
+  public void shouldNotSetConfigWithMinPoolSizeAboveMaxPoolSize() throws URISyntaxException {
+    when(configStore.get()).thenReturn(new LdapConfig());
+
+    MockHttpRequest request = MockHttpRequest
+      .put("/v2/config/ldap")
+      .contentType(MediaType.APPLICATION_JSON_TYPE)
+      .content(LDAP_CONFIG_JSON.replace("}", ",\"connectionPoolMinSize\":5,\"connectionPoolMaxSize\":2}").getBytes());
+    MockHttpResponse response = new MockHttpResponse();
+
+    dispatcher.invoke(request, response);
+
+    assertEquals(400, response.getStatus());
+    verify(configStore, never()).set(any());
+  }
+
   @Test
   @SubjectAware(username = "trillian", password = "secret")
   public void normalUserShouldNotSetConfig() throws URISyntaxException, UnsupportedEncodingException {